@@ -1,8 +1,26 @@
 package selogger.logging.io;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import selogger.logging.util.JsonBuffer;
 import selogger.weaver.DataInfo;
@@ -14,8 +32,50 @@ import selogger.weaver.method.OpcodesUtil;
  */
 public abstract class AbstractEventLogger implements IDataInfoListener {
 
-	private ArrayList<DataInfo> dataids;
+	/**
+	 * The number of data IDs processed as a unit when a trace is saved.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * The initial size of a buffer for a chunk.
+	 */
+	private static final int CHUNK_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The size of the buffer for an output file.
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private static final String JSON_FOOTER = "\n]}";
+	private static final byte[] JSON_SEPARATOR = ",\n".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * A JsonBuffer reused by each thread writing a trace.
+	 */
+	private static final ThreadLocal<JsonBuffer> LOCAL_JSON_BUFFER = new ThreadLocal<JsonBuffer>() {
+		@Override
+		protected JsonBuffer initialValue() {
+			return new JsonBuffer();
+		}
+	};
+
+	/**
+	 * DataInfo objects indexed by data IDs.  
+	 * onCreated writes new objects beyond dataidCount (or to a new array) 
+	 * and then publishes the array and the count, so that threads 
+	 * saving a trace read a consistent snapshot without locks.
+	 * A reader must read dataidCount before dataids.
+	 */
+	private volatile DataInfo[] dataids;
+	private volatile int dataidCount;
+
 	private String formatName;
+
+	/**
+	 * The number of threads to write a trace file.
+	 */
+	private int saveThreads = 1;
 	
 	/**
 	 * Initialize the logger
@@ -23,15 +83,24 @@ public abstract class AbstractEventLogger implements IDataInfoListener {
 	 */
 	public AbstractEventLogger(String formatName) {
 		this.formatName = formatName;
-		dataids = new ArrayList<>(65536);
+		dataids = new DataInfo[65536];
 	}
 	
 	/**
 	 * This object keeps all the DataInfo objects
 	 */
 	@Override
-	public void onCreated(List<DataInfo> events) {
-		dataids.addAll(events);
+	public synchronized void onCreated(List<DataInfo> events) {
+		int count = dataidCount;
+		DataInfo[] array = dataids;
+		if (count + events.size() > array.length) {
+			array = Arrays.copyOf(array, Math.max(count + events.size(), array.length * 2));
+		}
+		for (DataInfo d: events) {
+			array[count++] = d;
+		}
+		dataids = array;
+		dataidCount = count;
 	}
 	
 	/**
@@ -39,37 +108,14 @@ public abstract class AbstractEventLogger implements IDataInfoListener {
 	 * @param filename
 	 */
 	protected void saveText(PrintWriter w) {
-		w.write("loadedFrom,filename,cname,mname,mdesc,mhash,line,inst,attr,event,valuetype," + getColumnNames() + "\n");
-		for (int i=0; i<dataids.size(); i++) {
-			if (isRecorded(i)) {
-				DataInfo d = getDataIDs().get(i);
-				StringBuilder builder = new StringBuilder(512);
-				builder.append(d.getFileContainer());
-				builder.append(",");
-				builder.append(d.getFileName());
-				builder.append(",");
-				builder.append(OpcodesUtil.getReadableTypeName(d.getMethodInfo().getClassName()));
-				builder.append(",");
-				builder.append(d.getMethodInfo().getMethodName());
-				builder.append(",");
-				builder.append(d.getMethodInfo().getMethodDesc());
-				builder.append(",");
-				builder.append(d.getMethodInfo().getShortMethodHash());
-				builder.append(",");
-				builder.append(d.getLine());
-				builder.append(",");
-				builder.append(d.getInstructionIndex());
-				builder.append(",");
-				builder.append("\"" + d.getAttributes() + "\"");
-				builder.append(",");
-				builder.append(d.getEventType().name());
-				builder.append(",");
-				builder.append(d.getValueType());
-				builder.append(",");
-				writeAttributes(builder, d);
-				builder.append("\n");
-				w.write(builder.toString());
-			}
+		w.write(getTextHeader());
+		List<DataInfo> dataids = getDataIDs();
+		JsonBuffer buf = new JsonBuffer();
+		StringBuilder builder = new StringBuilder(CHUNK_BUFFER_SIZE);
+		for (int i=0; i<dataids.size(); i+=CHUNK_SIZE) {
+			builder.setLength(0);
+			writeChunk(dataids, i, Math.min(i + CHUNK_SIZE, dataids.size()), false, buf, builder);
+			w.write(builder.toString());
 		}
 	}
 
@@ -79,48 +125,245 @@ public abstract class AbstractEventLogger implements IDataInfoListener {
 	 * @param trace specifies a file 
 	 */
 	protected void saveJson(PrintWriter w) {
-		w.write("{ \"format\":\"" + formatName + "\", \"events\": [\n");
-		
+		w.write(getJsonHeader());
+		List<DataInfo> dataids = getDataIDs();
+		JsonBuffer buf = new JsonBuffer();
+		StringBuilder builder = new StringBuilder(CHUNK_BUFFER_SIZE);
 		boolean isFirst = true;
-		for (int i=0; i<dataids.size(); i++) {
-			if (!isRecorded(i)) continue;
-			if (isFirst) { 
-				isFirst = false;
+		for (int i=0; i<dataids.size(); i+=CHUNK_SIZE) {
+			builder.setLength(0);
+			writeChunk(dataids, i, Math.min(i + CHUNK_SIZE, dataids.size()), true, buf, builder);
+			if (builder.length() > 0) {
+				if (isFirst) {
+					isFirst = false;
+				} else {
+					w.write(",\n");
+				}
+				w.write(builder.toString());
+			}
+		}
+		w.write(JSON_FOOTER);
+	}
+
+	/**
+	 * Set the number of threads to write a trace file.
+	 * @param threads specifies the number of threads.  
+	 * If the value is 1 or less, the caller thread writes the file. 
+	 */
+	public void setSaveThreads(int threads) {
+		this.saveThreads = threads;
+	}
+
+	/**
+	 * Write the trace data into a file.
+	 * The data IDs are divided into chunks.  
+	 * If multiple threads are available, the chunks are converted into 
+	 * UTF-8 bytes in parallel and written to the file in order.
+	 * Each chunk is encoded into a ChunkBuffer that is reused for later chunks.
+	 * @param f specifies a file to be written.
+	 * @param json specifies the JSON format or the CSV format.
+	 * @throws IOException
+	 */
+	protected void saveTrace(File f, final boolean json) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), OUTPUT_BUFFER_SIZE)) {
+			out.write((json ? getJsonHeader() : getTextHeader()).getBytes(StandardCharsets.UTF_8));
+			final List<DataInfo> dataids = getDataIDs();
+			final int size = dataids.size();
+			int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			int threads = Math.min(saveThreads, chunks);
+			boolean isFirst = true;
+			if (threads <= 1) {
+				JsonBuffer buf = new JsonBuffer();
+				ChunkBuffer chunk = new ChunkBuffer();
+				for (int c=0; c<chunks; c++) {
+					chunk.reset();
+					writeChunk(dataids, c * CHUNK_SIZE, Math.min((c+1) * CHUNK_SIZE, size), json, buf, chunk.builder);
+					chunk.encode();
+					isFirst = writeChunkBytes(out, chunk, json, isFirst);
+				}
 			} else {
-				w.write(",\n");
+				ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "selogger-save");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				try {
+					// Keep a limited number of chunks on memory.
+					// The buffers are passed to workers and returned by this thread after written.  
+					ArrayDeque<Future<ChunkBuffer>> pending = new ArrayDeque<>();
+					ArrayDeque<ChunkBuffer> free = new ArrayDeque<>();
+					int next = 0;
+					for (int c=0; c<chunks; c++) {
+						while (next < chunks && pending.size() < threads * 2) {
+							final int from = next * CHUNK_SIZE;
+							final int to = Math.min(from + CHUNK_SIZE, size);
+							final ChunkBuffer chunk = free.isEmpty() ? new ChunkBuffer() : free.poll();
+							pending.add(executor.submit(new Callable<ChunkBuffer>() {
+								@Override
+								public ChunkBuffer call() {
+									chunk.reset();
+									writeChunk(dataids, from, to, json, LOCAL_JSON_BUFFER.get(), chunk.builder);
+									chunk.encode();
+									return chunk;
+								}
+							}));
+							next++;
+						}
+						ChunkBuffer chunk = pending.poll().get();
+						isFirst = writeChunkBytes(out, chunk, json, isFirst);
+						free.add(chunk);
+					}
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				} finally {
+					executor.shutdownNow();
+				}
 			}
-			
-			JsonBuffer buf = new JsonBuffer();
-			buf.writeStartObject();
+			out.write((json ? JSON_FOOTER : "").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Write the trace data into a binary file.
+	 * The file can be read by selogger.reader.NearOmniTraceReader.
+	 * @param f specifies a file to be written.
+	 * @param bufferSize specifies the maximum number of events for each data ID.
+	 * @throws IOException
+	 */
+	protected void saveBinary(File f, int bufferSize) throws IOException {
+		NearOmniBinaryWriter w = new NearOmniBinaryWriter(f, bufferSize);
+		List<DataInfo> dataids = getDataIDs();
+		try {
+			for (int i=0; i<dataids.size(); i++) {
+				if (isRecorded(i)) {
+					writeBinary(w, dataids.get(i));
+				}
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Write a chunk of a trace file.
+	 * @return true if no events have been written yet.
+	 */
+	private boolean writeChunkBytes(OutputStream out, ChunkBuffer chunk, boolean json, boolean isFirst) throws IOException {
+		if (chunk.isEmpty()) return isFirst;
+		if (json && !isFirst) {
+			out.write(JSON_SEPARATOR);
+		}
+		chunk.writeTo(out);
+		return false;
+	}
+
+	/**
+	 * @return the first line of a CSV file
+	 */
+	private String getTextHeader() {
+		return "loadedFrom,filename,cname,mname,mdesc,mhash,line,inst,attr,event,valuetype," + getColumnNames() + "\n";
+	}
+
+	/**
+	 * @return the beginning of a JSON file
+	 */
+	private String getJsonHeader() {
+		return "{ \"format\":\"" + formatName + "\", \"events\": [\n";
+	}
+
+	/**
+	 * Write recorded events for a range of data IDs.
+	 * In case of JSON, events are separated by commas; 
+	 * the output does not start or end with a comma.
+	 * @param dataids is a snapshot of the DataInfo list.
+	 * @param from specifies the first data ID (inclusive).
+	 * @param to specifies the last data ID (exclusive).
+	 * @param json specifies the JSON format or the CSV format.
+	 * @param buf is a buffer reused for JSON objects.
+	 * @param builder is the output.
+	 */
+	private void writeChunk(List<DataInfo> dataids, int from, int to, boolean json, JsonBuffer buf, StringBuilder builder) {
+		for (int i=from; i<to; i++) {
+			if (!isRecorded(i)) continue;
 			DataInfo d = dataids.get(i);
-			buf.writeStringField("loadedFrom", d.getFileContainer());
-			buf.writeStringField("filename", d.getFileName());
-			buf.writeStringField("cname", OpcodesUtil.getReadableTypeName(d.getMethodInfo().getClassName()));
-			buf.writeStringField("mname", d.getMethodInfo().getMethodName());
-			buf.writeStringField("mdesc", d.getMethodInfo().getMethodDesc());
-			buf.writeStringField("mhash", d.getMethodInfo().getShortMethodHash());
-			buf.writeNumberField("line", d.getLine());
-			buf.writeNumberField("inst", d.getInstructionIndex());
-			buf.writeStringField("event", d.getEventType().name());
-			if (d.getAttributes() != null) {
-				buf.writeObjectFieldStart("attr");
-				d.getAttributes().foreach(buf);
-				buf.writeEndObject();
+			if (json) {
+				if (builder.length() > 0) builder.append(",\n");
+				buf.reset();
+				writeJson(buf, d);
+				buf.appendTo(builder);
+			} else {
+				writeText(builder, d);
 			}
-			buf.writeStringField("valuetype", d.getValueType());
-			writeAttributes(buf, d);
+		}
+	}
+
+	/**
+	 * Write a line of CSV for an event.
+	 */
+	private void writeText(StringBuilder builder, DataInfo d) {
+		builder.append(d.getFileContainer());
+		builder.append(",");
+		builder.append(d.getFileName());
+		builder.append(",");
+		builder.append(OpcodesUtil.getReadableTypeName(d.getMethodInfo().getClassName()));
+		builder.append(",");
+		builder.append(d.getMethodInfo().getMethodName());
+		builder.append(",");
+		builder.append(d.getMethodInfo().getMethodDesc());
+		builder.append(",");
+		builder.append(d.getMethodInfo().getShortMethodHash());
+		builder.append(",");
+		builder.append(d.getLine());
+		builder.append(",");
+		builder.append(d.getInstructionIndex());
+		builder.append(",");
+		builder.append("\"" + d.getAttributes() + "\"");
+		builder.append(",");
+		builder.append(d.getEventType().name());
+		builder.append(",");
+		builder.append(d.getValueType());
+		builder.append(",");
+		writeAttributes(builder, d);
+		builder.append("\n");
+	}
+
+	/**
+	 * Write a JSON object for an event.
+	 */
+	private void writeJson(JsonBuffer buf, DataInfo d) {
+		buf.writeStartObject();
+		buf.writeStringField("loadedFrom", d.getFileContainer());
+		buf.writeStringField("filename", d.getFileName());
+		buf.writeStringField("cname", OpcodesUtil.getReadableTypeName(d.getMethodInfo().getClassName()));
+		buf.writeStringField("mname", d.getMethodInfo().getMethodName());
+		buf.writeStringField("mdesc", d.getMethodInfo().getMethodDesc());
+		buf.writeStringField("mhash", d.getMethodInfo().getShortMethodHash());
+		buf.writeNumberField("line", d.getLine());
+		buf.writeNumberField("inst", d.getInstructionIndex());
+		buf.writeStringField("event", d.getEventType().name());
+		if (d.getAttributes() != null) {
+			buf.writeObjectFieldStart("attr");
+			d.getAttributes().foreach(buf);
 			buf.writeEndObject();
-			w.write(buf.toString());
 		}
-		w.write("\n]}");
+		buf.writeStringField("valuetype", d.getValueType());
+		writeAttributes(buf, d);
+		buf.writeEndObject();
 	}
 	
 	/**
 	 * This method is to enable subclasses to access a list of dataIDs 
-	 * @return a list of DataIDs
+	 * @return a snapshot of the list of DataIDs.
+	 * DataIDs created after this call are not included.
 	 */
-	protected ArrayList<DataInfo> getDataIDs() {
-		return dataids;
+	protected List<DataInfo> getDataIDs() {
+		int count = dataidCount;
+		return Arrays.asList(dataids).subList(0, count);
 	}
 	
 	/**
@@ -147,5 +390,79 @@ public abstract class AbstractEventLogger implements IDataInfoListener {
 	 * @param d specifies the event to be written
 	 */
 	protected abstract void writeAttributes(StringBuilder builder, DataInfo d);
-	
+
+	/**
+	 * A subclass overrides this method to write recorded events for a binary format
+	 * @param w is the output
+	 * @param d specifies the event to be written
+	 * @throws IOException
+	 */
+	protected abstract void writeBinary(NearOmniBinaryWriter w, DataInfo d) throws IOException;
+
+	/**
+	 * A buffer to convert a chunk of a trace into UTF-8 bytes.
+	 * The buffer is reused for chunks, so that a chunk is 
+	 * directly encoded without creating a string and a byte array.
+	 */
+	private static class ChunkBuffer {
+
+		private final StringBuilder builder = new StringBuilder(CHUNK_BUFFER_SIZE);
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private ByteBuffer bytes = ByteBuffer.allocate(CHUNK_BUFFER_SIZE);
+
+		/**
+		 * Clear the content for a new chunk.
+		 */
+		public void reset() {
+			builder.setLength(0);
+			bytes.clear();
+		}
+
+		/**
+		 * Encode the characters in the builder into the byte buffer.
+		 * The byte buffer is extended if it is not large enough.
+		 */
+		public void encode() {
+			encoder.reset();
+			bytes.clear();
+			CharBuffer chars = CharBuffer.wrap(builder);
+			CoderResult r = encoder.encode(chars, bytes, true);
+			while (r.isOverflow()) {
+				extend(chars.remaining());
+				r = encoder.encode(chars, bytes, true);
+			}
+			while (encoder.flush(bytes).isOverflow()) {
+				extend(0);
+			}
+			bytes.flip();
+		}
+
+		/**
+		 * Replace the byte buffer with a larger one keeping the written bytes.
+		 * @param remaining specifies the number of characters to be encoded.
+		 */
+		private void extend(int remaining) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + remaining * 3 + 4));
+			bytes.flip();
+			larger.put(bytes);
+			bytes = larger;
+		}
+
+		/**
+		 * @return true if the chunk includes no bytes.
+		 */
+		public boolean isEmpty() {
+			return !bytes.hasRemaining();
+		}
+
+		/**
+		 * Write the encoded bytes.
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(bytes.array(), bytes.position(), bytes.remaining());
+		}
+	}
+
 }
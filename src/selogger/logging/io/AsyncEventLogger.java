@@ -0,0 +1,416 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import selogger.logging.IErrorLogger;
+import selogger.logging.IEventLogger;
+import selogger.logging.util.ThreadContext;
+
+/**
+ * This logger passes events to another logger through a bounded buffer.
+ * Application threads put events into a ring buffer, and a consumer thread
+ * takes the events and calls the other logger, so that application threads
+ * do not wait for I/O of the logger.
+ * The consumer thread records an event with the thread ID of the original thread.
+ * When the buffer is full, the behavior follows a policy.
+ * Events discarded by the policy are counted for each data ID,
+ * and the counts are reported to the error logger and a file when this logger is closed.
+ * Events recorded after close are also counted as discarded events.
+ */
+public class AsyncEventLogger implements IEventLogger {
+
+	/**
+	 * Policies to handle events when the buffer is full.
+	 */
+	public enum Policy {
+		/**
+		 * An application thread waits until the buffer has a space.  No events are lost.
+		 */
+		Block,
+		/**
+		 * An application thread discards an event if the buffer is full.
+		 */
+		Drop,
+		/**
+		 * If the buffer is more than half full, an application thread
+		 * records one of SAMPLE_INTERVAL events on average and discards the others.
+		 * It discards an event if the buffer is full.
+		 */
+		Sample
+	};
+
+	public static final String FILENAME_DROPPED = "dropped.txt";
+
+	/**
+	 * The number of events in the buffer.  This must be a power of two.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/**
+	 * The ratio of recorded events in the Sample policy
+	 */
+	public static final int SAMPLE_INTERVAL = 16;
+
+	/**
+	 * Types of values in the buffer
+	 */
+	private static final byte KIND_OBJECT = 0;
+	private static final byte KIND_INT = 1;
+	private static final byte KIND_LONG = 2;
+	private static final byte KIND_BYTE = 3;
+	private static final byte KIND_SHORT = 4;
+	private static final byte KIND_CHAR = 5;
+	private static final byte KIND_BOOLEAN = 6;
+	private static final byte KIND_DOUBLE = 7;
+	private static final byte KIND_FLOAT = 8;
+
+	private IEventLogger logger;
+	private Policy policy;
+	private IErrorLogger err;
+	private File droppedFile;
+
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * The sequence number of each element.
+	 * An element at index i is writable for position p if the sequence is p,
+	 * and readable for position p if the sequence is p+1.
+	 */
+	private final AtomicLongArray sequences;
+	private final int[] dataIds;
+	private final int[] threadIds;
+	private final byte[] kinds;
+	private final long[] values;
+	private final Object[] objects;
+
+	/**
+	 * The next position reserved by an application thread
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The next position read by the consumer thread
+	 */
+	private volatile long head;
+
+	/**
+	 * The number of application threads putting events.
+	 * The consumer thread does not stop while a thread is putting an event.
+	 */
+	private final LongAdder producers = new LongAdder();
+
+	/**
+	 * The numbers of discarded events for data IDs
+	 */
+	private final ConcurrentHashMap<Integer, LongAdder> dropped = new ConcurrentHashMap<>();
+
+	private Thread consumer;
+	private volatile boolean closed;
+
+	/**
+	 * Create a logger and start a consumer thread.
+	 * @param logger receives events from the consumer thread.
+	 * @param policy specifies the behavior when the buffer is full.
+	 * @param capacity specifies the number of events in the buffer.  It is rounded up to a power of two.
+	 * @param err records errors and the numbers of discarded events.
+	 * @param droppedFile specifies a file to record the numbers of discarded events.  It may be null.
+	 */
+	public AsyncEventLogger(IEventLogger logger, Policy policy, int capacity, IErrorLogger err, File droppedFile) {
+		this.logger = logger;
+		this.policy = policy;
+		this.err = err;
+		this.droppedFile = droppedFile;
+		this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i=0; i<this.capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.dataIds = new int[this.capacity];
+		this.threadIds = new int[this.capacity];
+		this.kinds = new byte[this.capacity];
+		this.values = new long[this.capacity];
+		this.objects = new Object[this.capacity];
+		this.consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "selogger-async");
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * Put an event into the buffer.
+	 * @param dataId specifies an event.
+	 * @param kind specifies the type of the value.
+	 * @param value is a primitive value.
+	 * @param obj is an object value.
+	 */
+	private void put(int dataId, byte kind, long value, Object obj) {
+		// The counter is incremented before checking the flag, 
+		// so that the consumer thread observes this thread if it is not closed
+		producers.increment();
+		try {
+			if (closed) {
+				drop(dataId);
+				return;
+			}
+			int threadId = ThreadContext.get().getThreadId();
+			long pos;
+			while (true) {
+				pos = tail.get();
+				long diff = sequences.get((int)(pos & mask)) - pos;
+				if (diff == 0) {
+					if (policy == Policy.Sample && pos - head > (capacity >> 1) &&
+						ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) != 0) {
+						drop(dataId);
+						return;
+					}
+					if (tail.compareAndSet(pos, pos + 1)) break;
+				} else if (diff < 0) {
+					// The buffer is full
+					if (policy != Policy.Block || !consumer.isAlive()) {
+						drop(dataId);
+						return;
+					}
+					LockSupport.parkNanos(1000);
+				}
+				// Otherwise, another thread has reserved the position
+			}
+			int i = (int)(pos & mask);
+			dataIds[i] = dataId;
+			threadIds[i] = threadId;
+			kinds[i] = kind;
+			values[i] = value;
+			objects[i] = obj;
+			sequences.lazySet(i, pos + 1);
+		} finally {
+			producers.decrement();
+		}
+	}
+
+	/**
+	 * Count a discarded event.
+	 */
+	private void drop(int dataId) {
+		LongAdder c = dropped.get(dataId);
+		if (c == null) {
+			LongAdder newCounter = new LongAdder();
+			c = dropped.putIfAbsent(dataId, newCounter);
+			if (c == null) c = newCounter;
+		}
+		c.increment();
+	}
+
+	/**
+	 * The main loop of the consumer thread.
+	 * The loop ends when this logger is closed, no application threads are putting events,
+	 * and all the events are passed to the logger.
+	 */
+	private void consume() {
+		// Contexts on behalf of application threads
+		HashMap<Integer, ThreadContext> contexts = new HashMap<>();
+		int currentThread = -1;
+		long pos = head;
+		while (true) {
+			int i = (int)(pos & mask);
+			if (sequences.get(i) == pos + 1) {
+				int threadId = threadIds[i];
+				if (threadId != currentThread) {
+					ThreadContext ctx = contexts.get(threadId);
+					if (ctx == null) {
+						ctx = ThreadContext.create(threadId);
+						contexts.put(threadId, ctx);
+					}
+					ThreadContext.attach(ctx);
+					currentThread = threadId;
+				}
+				try {
+					dispatch(i);
+				} catch (Throwable t) {
+					err.log(t);
+				}
+				objects[i] = null;
+				sequences.lazySet(i, pos + capacity);
+				pos++;
+				head = pos;
+			} else if (closed && producers.sum() == 0 && tail.get() == pos) {
+				break;
+			} else {
+				LockSupport.parkNanos(1000);
+			}
+		}
+	}
+
+	/**
+	 * Pass an event in the buffer to the logger.
+	 * @param i specifies an index of the buffer.
+	 */
+	private void dispatch(int i) {
+		int dataId = dataIds[i];
+		long value = values[i];
+		switch (kinds[i]) {
+		case KIND_OBJECT:
+			logger.recordEvent(dataId, objects[i]);
+			break;
+		case KIND_INT:
+			logger.recordEvent(dataId, (int)value);
+			break;
+		case KIND_LONG:
+			logger.recordEvent(dataId, value);
+			break;
+		case KIND_BYTE:
+			logger.recordEvent(dataId, (byte)value);
+			break;
+		case KIND_SHORT:
+			logger.recordEvent(dataId, (short)value);
+			break;
+		case KIND_CHAR:
+			logger.recordEvent(dataId, (char)value);
+			break;
+		case KIND_BOOLEAN:
+			logger.recordEvent(dataId, value != 0);
+			break;
+		case KIND_DOUBLE:
+			logger.recordEvent(dataId, Double.longBitsToDouble(value));
+			break;
+		case KIND_FLOAT:
+			logger.recordEvent(dataId, Float.intBitsToFloat((int)value));
+			break;
+		}
+	}
+
+	/**
+	 * Wait until the consumer thread processes the events recorded so far.
+	 */
+	private void flush() {
+		long target = tail.get();
+		while (head < target && consumer.isAlive()) {
+			LockSupport.parkNanos(1000);
+		}
+	}
+
+	/**
+	 * @return the total number of discarded events.
+	 */
+	public long getDroppedCount() {
+		long total = 0;
+		for (LongAdder c: dropped.values()) {
+			total += c.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of discarded events for each data ID.
+	 */
+	public Map<Integer, Long> getDroppedCounts() {
+		TreeMap<Integer, Long> counts = new TreeMap<>();
+		for (Map.Entry<Integer, LongAdder> e: dropped.entrySet()) {
+			counts.put(e.getKey(), e.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * Save a trace after the events recorded so far are passed to the logger.
+	 */
+	@Override
+	public void save(boolean resetTrace) {
+		flush();
+		logger.save(resetTrace);
+	}
+
+	/**
+	 * Pass the remaining events to the logger and close the logger.
+	 * This method waits for application threads putting events.
+	 * The numbers of discarded events are reported.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		boolean interrupted = false;
+		while (consumer.isAlive()) {
+			try {
+				consumer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		logger.close();
+
+		Map<Integer, Long> counts = getDroppedCounts();
+		err.log("AsyncEventLogger: policy=" + policy.name() + ", events=" + head + ", dropped=" + getDroppedCount() + ", locations=" + counts.size());
+		if (droppedFile != null) {
+			try (PrintWriter w = new PrintWriter(new FileWriter(droppedFile))) {
+				for (Map.Entry<Integer, Long> e: counts.entrySet()) {
+					w.println(e.getKey() + "," + e.getValue());
+				}
+			} catch (IOException e) {
+				err.log(e);
+			}
+		}
+	}
+
+	@Override
+	public void recordEvent(int dataId, Object value) {
+		put(dataId, KIND_OBJECT, 0, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, int value) {
+		put(dataId, KIND_INT, value, null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, long value) {
+		put(dataId, KIND_LONG, value, null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, byte value) {
+		put(dataId, KIND_BYTE, value, null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, short value) {
+		put(dataId, KIND_SHORT, value, null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, char value) {
+		put(dataId, KIND_CHAR, value, null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, boolean value) {
+		put(dataId, KIND_BOOLEAN, value ? 1 : 0, null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, double value) {
+		put(dataId, KIND_DOUBLE, Double.doubleToRawLongBits(value), null);
+	}
+
+	@Override
+	public void recordEvent(int dataId, float value) {
+		put(dataId, KIND_FLOAT, Float.floatToRawIntBits(value), null);
+	}
+
+}
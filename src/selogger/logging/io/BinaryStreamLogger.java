@@ -1,24 +1,24 @@
 package selogger.logging.io;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
 
 import selogger.logging.IErrorLogger;
 import selogger.logging.IEventLogger;
+import selogger.logging.util.CoarseClock;
 import selogger.logging.util.FileNameGenerator;
 import selogger.logging.util.ObjectIdFile;
 import selogger.logging.util.TypeIdMap;
 import selogger.logging.util.ObjectIdFile.ExceptionRecording;
-import selogger.logging.util.ThreadId;
+import selogger.logging.util.ThreadContext;
 
 /**
  * This class is an implementation of IEventLogger that records
  * a sequence of runtime events in files.
  * This object creates three types of files:
- * 1. log-*.slg files recording a sequence of events,
+ * 1. log-*.slg (log-*.slc in the compact encoding, log-*.slz in compressed blocks, 
+ *    or log-T*-*.slt for each thread) files recording a sequence of events,
  * 2. LOG$Types.txt recording a list of type IDs and their corresponding type names,
  * 3. ObjectIdMap recording a list of object IDs and their type IDs.
  * Using the second and third files, a user can know classes in an execution trace.
@@ -29,6 +29,31 @@ public class BinaryStreamLogger implements IEventLogger {
 
 	public static final String LOG_PREFIX = "log-";
 	public static final String LOG_SUFFIX = ".slg";
+	public static final String LOG_SUFFIX_COMPACT = ".slc";
+	public static final String LOG_SUFFIX_COMPRESSED = ".slz";
+	public static final String LOG_PREFIX_THREAD = "log-T";
+	public static final String LOG_SUFFIX_THREAD = ".slt";
+
+	/**
+	 * A suffix added to a .slg file name to record the number of events in the file,
+	 * if the file could not be truncated.
+	 */
+	public static final String LOG_SUFFIX_COUNT = ".count";
+
+	/**
+	 * Implementations to write events to files.
+	 * Stream writes fixed-length events through a buffered stream.
+	 * Mapped writes fixed-length events to memory-mapped files without locks.
+	 * Compact writes variable-length events to .slc files.
+	 * Compressed writes blocks of events compressed by background threads to .slz files.
+	 * ThreadFiles writes events of each thread to its own .slt files.
+	 */
+	public enum Output { Stream, Mapped, Compact, Compressed, ThreadFiles };
+
+	/**
+	 * The number of threads to compress blocks
+	 */
+	private static final int COMPRESSION_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
 	/**
 	 * The number of events stored in a single file.
@@ -39,12 +64,35 @@ public class BinaryStreamLogger implements IEventLogger {
 	 * The data size of an event.
 	 */
 	public static final int BYTES_PER_EVENT = 16;
+
+	/**
+	 * The data size of an event in a file of a thread.
+	 */
+	public static final int BYTES_PER_THREAD_EVENT = 20;
 	
 	private File outputDir;
-	private FileNameGenerator files;
-	private DataOutputStream out;
+	private volatile IBinaryEventOutput out;
 	private IErrorLogger err;
-	private int count;
+
+	/**
+	 * If true, threads write events to the output without locks.
+	 */
+	private boolean concurrentOutput;
+
+	/**
+	 * Blocks owned by threads.  This is null if threads share the output.
+	 */
+	private volatile EventBlockWriter blocks;
+
+	/**
+	 * Files owned by threads.  This is null if threads share the output.
+	 */
+	private ThreadFileWriter threadFiles;
+
+	/**
+	 * The number of recorded events.  This is null if events are not counted.
+	 */
+	private volatile LongAdder eventCounter;
 
 	private TypeIdMap typeToId;
 	private ObjectIdFile objectIdMap;
@@ -62,12 +110,48 @@ public class BinaryStreamLogger implements IEventLogger {
 	 * @param logger is to report errors that occur in this class.
 	 */
 	public BinaryStreamLogger(IErrorLogger logger, File outputDir, boolean recordString, ExceptionRecording recordExceptions) {
+		this(logger, outputDir, recordString, recordExceptions, Output.Stream);
+	}
+
+	/**
+	 * Create an instance of logging object.
+	 * @param logger specifies an object to record errors that occur in this class
+	 * @param outputDir specifies a directory for output files.
+	 * @param recordString If this is set to true, the object also records contents of string objects.
+	 * @param recordExceptions specifies whether the logger records Exception contents or not.
+	 * @param output specifies how events are written to files.
+	 */
+	public BinaryStreamLogger(IErrorLogger logger, File outputDir, boolean recordString, ExceptionRecording recordExceptions, Output output) {
+		this(logger, outputDir, recordString, recordExceptions, output, null);
+	}
+
+	/**
+	 * Create an instance of logging object.
+	 * @param logger specifies an object to record errors that occur in this class
+	 * @param outputDir specifies a directory for output files.
+	 * @param recordString If this is set to true, the object also records contents of string objects.
+	 * @param recordExceptions specifies whether the logger records Exception contents or not.
+	 * @param output specifies how events are written to files.
+	 * @param clock is a clock to order events in ThreadFiles output.  
+	 * The caller closes the clock after this object is closed.
+	 * If null, the logger uses its own clock of the default resolution.
+	 */
+	public BinaryStreamLogger(IErrorLogger logger, File outputDir, boolean recordString, ExceptionRecording recordExceptions, Output output, CoarseClock clock) {
 		try {
 			this.outputDir = outputDir;
-			files = new FileNameGenerator(outputDir, LOG_PREFIX, LOG_SUFFIX);
 			err = logger;
-			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files.getNextFile())));
-			count = 0;
+			if (output == Output.Mapped) {
+				out = new MappedEventOutput(new FileNameGenerator(outputDir, LOG_PREFIX, LOG_SUFFIX));
+				concurrentOutput = true;
+			} else if (output == Output.Compact) {
+				out = new CompactEventOutput(new FileNameGenerator(outputDir, LOG_PREFIX, LOG_SUFFIX_COMPACT));
+			} else if (output == Output.ThreadFiles) {
+				threadFiles = new ThreadFileWriter(outputDir, err, clock);
+			} else if (output == Output.Compressed) {
+				out = new CompressedEventOutput(new FileNameGenerator(outputDir, LOG_PREFIX, LOG_SUFFIX_COMPRESSED), COMPRESSION_THREADS);
+			} else {
+				out = new StreamEventOutput(new FileNameGenerator(outputDir, LOG_PREFIX, LOG_SUFFIX));
+			}
 			typeToId = new TypeIdMap();
 			objectIdMap = new ObjectIdFile(outputDir, recordString, recordExceptions, typeToId);
 
@@ -77,14 +161,71 @@ public class BinaryStreamLogger implements IEventLogger {
 	}
 	
 	
+	/**
+	 * Enable or disable buffers owned by threads.
+	 * This method must be called before recording events.
+	 * @param threadLocalBuffers If true, each thread records events in its own buffer,
+	 * and a background thread writes the buffers to files.  
+	 * The events of a thread are written in their order, 
+	 * while events of different threads may be not in the order of occurrence. 
+	 */
+	public synchronized void setThreadLocalBuffers(boolean threadLocalBuffers) {
+		if (threadLocalBuffers && blocks == null && out != null) {
+			blocks = new EventBlockWriter(out, err);
+		}
+	}
+
+	/**
+	 * Specify how the contents of String objects are recorded.
+	 * This method must be called before recording events.
+	 * @param deduplicate If true, a content is written only once while it is remembered.
+	 * @param maxLength specifies the maximum length of a content.  0 indicates no limit.
+	 */
+	public void setStringOptions(boolean deduplicate, int maxLength) {
+		if (objectIdMap != null) {
+			objectIdMap.setStringOptions(deduplicate, maxLength);
+		}
+	}
+
+	/**
+	 * Enable a counter of recorded events.
+	 * This method must be called before recording events.
+	 * The counter is used to translate event IDs into timestamps.
+	 * @param count If true, the logger counts recorded events.
+	 */
+	public void setEventCounter(boolean count) {
+		if (count && eventCounter == null) {
+			eventCounter = new LongAdder();
+		}
+	}
+
+	/**
+	 * @return the number of events recorded so far.  
+	 * 0 if the counter is not enabled.
+	 */
+	public long getEventCount() {
+		LongAdder c = eventCounter;
+		return c != null ? c.sum() : 0;
+	}
+
 	/**
 	 * Close the stream.
 	 */
 	public synchronized void close() {
 		try {
-			out.close();
+			if (threadFiles != null) {
+				threadFiles.close();
+			} else if (blocks != null) {
+				blocks.close();
+			} else if (out != null) {
+				out.close();
+			}
 			out = null;
 			objectIdMap.close();
+			err.log(objectIdMap.getCacheStatistics());
+			if (objectIdMap.getDroppedExceptionCount() > 0) {
+				err.log("ObjectIdFile: exceptions not recorded=" + objectIdMap.getDroppedExceptionCount());
+			}
 			typeToId.save(new File(outputDir, FILENAME_TYPEID));
 		} catch (IOException e) {
 			out = null;
@@ -105,18 +246,40 @@ public class BinaryStreamLogger implements IEventLogger {
 	 * @param dataId specifies an event and its bytecode location.
 	 * @param value specifies a data value observed in the event.
 	 */
-	private synchronized void write(int dataId, long value) {
+	private void write(int dataId, long value) {
+		ThreadContext ctx = ThreadContext.get();
+		LongAdder c = eventCounter;
+		if (c != null) c.increment();
+		EventBlockWriter b = blocks;
+		if (threadFiles != null) {
+			threadFiles.write(ctx, dataId, value);
+		} else if (b != null) {
+			b.write(ctx, dataId, value);
+		} else if (concurrentOutput) {
+			IBinaryEventOutput o = out;
+			if (o != null) {
+				try {
+					o.writeEvent(dataId, ctx.getThreadId(), value);
+				} catch (IOException e) {
+					out = null;
+					err.log(e);
+				}
+			}
+		} else {
+			write(dataId, ctx.getThreadId(), value);
+		}
+	}
+
+	/**
+	 * Write an event data into a file.
+	 * @param dataId specifies an event and its bytecode location.
+	 * @param threadId specifies a thread.  The thread ID is obtained outside of the lock.
+	 * @param value specifies a data value observed in the event.
+	 */
+	private synchronized void write(int dataId, int threadId, long value) {
 		if (out != null) {
 			try {
-				if (count >= MAX_EVENTS_PER_FILE) {
-					out.close();
-					out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files.getNextFile())));
-					count = 0;
-				}
-				out.writeInt(dataId);
-				out.writeInt(ThreadId.get());
-				out.writeLong(value);
-				count++;
+				out.writeEvent(dataId, threadId, value);
 			} catch (IOException e) {
 				out = null;
 				err.log(e);
@@ -0,0 +1,81 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import selogger.logging.util.JsonBuffer;
+
+/**
+ * A buffer to record the latest boolean values for a data ID.
+ */
+final class BooleanEventBuffer extends LatestEventBuffer {
+
+	private boolean[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public BooleanEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new boolean[getCapacity()];
+	}
+
+	/**
+	 * Write a value to the next position.
+	 * If the buffer is already full, it overwrites the oldest one.
+	 */
+	public void addBoolean(boolean value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	@Override
+	protected int getValueBytes() {
+		return 1;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		boolean[] newValues = new boolean[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new BooleanEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((BooleanEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		buf.append(values[pos]);
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		buf.writeBoolean(values[pos]);
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_BOOLEAN;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		w.writeValue(values[pos] ? 1 : 0);
+	}
+
+}
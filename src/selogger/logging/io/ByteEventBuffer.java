@@ -0,0 +1,81 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import selogger.logging.util.JsonBuffer;
+
+/**
+ * A buffer to record the latest byte values for a data ID.
+ */
+final class ByteEventBuffer extends LatestEventBuffer {
+
+	private byte[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public ByteEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new byte[getCapacity()];
+	}
+
+	/**
+	 * Write a value to the next position.
+	 * If the buffer is already full, it overwrites the oldest one.
+	 */
+	public void addByte(byte value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	@Override
+	protected int getValueBytes() {
+		return 1;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		byte[] newValues = new byte[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new ByteEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((ByteEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		buf.append(values[pos]);
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		buf.writeNumber(values[pos]);
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_BYTE;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		w.writeValue(values[pos]);
+	}
+
+}
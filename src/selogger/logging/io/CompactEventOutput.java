@@ -0,0 +1,130 @@
+package selogger.logging.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import selogger.logging.util.FileNameGenerator;
+
+/**
+ * This class writes events to log files in a variable-length encoding.
+ * Each event is encoded as follows:
+ * 1. a tag (varint): the difference of the data ID from the previous event
+ *    (zigzag-encoded) shifted left by one bit.  The lowest bit is set if
+ *    the thread is different from the previous event.
+ * 2. a thread ID (varint) only if the lowest bit of the tag is set.
+ * 3. a value (zigzag-encoded varint).
+ * The previous data ID and thread ID are reset at the beginning of each file,
+ * so that a file can be decoded independently.
+ * A new file is created when the current file includes
+ * BinaryStreamLogger.MAX_EVENTS_PER_FILE events.
+ */
+public class CompactEventOutput implements IBinaryEventOutput {
+
+	/**
+	 * The maximum length of an encoded event
+	 */
+	public static final int MAX_BYTES_PER_EVENT = 20;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileNameGenerator files;
+	private FileOutputStream out;
+	private int count;
+
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+
+	private int prevDataId;
+	private int prevThreadId;
+
+	/**
+	 * Create the first file.
+	 * @param files specifies file names.
+	 * @throws IOException
+	 */
+	public CompactEventOutput(FileNameGenerator files) throws IOException {
+		this.files = files;
+		this.out = new FileOutputStream(files.getNextFile());
+		reset();
+	}
+
+	/**
+	 * Reset the state of the encoding for a new file.
+	 */
+	private void reset() {
+		count = 0;
+		prevDataId = 0;
+		prevThreadId = -1;
+	}
+
+	/**
+	 * Create a new file if the current file is full.
+	 */
+	private void prepareFile() throws IOException {
+		if (count >= BinaryStreamLogger.MAX_EVENTS_PER_FILE) {
+			flush();
+			out.close();
+			out = new FileOutputStream(files.getNextFile());
+			reset();
+		}
+	}
+
+	@Override
+	public void writeEvent(int dataId, int threadId, long value) throws IOException {
+		prepareFile();
+		if (pos + MAX_BYTES_PER_EVENT > buf.length) flush();
+		boolean threadChanged = threadId != prevThreadId;
+		long tag = (zigzag((long)dataId - prevDataId) << 1) | (threadChanged ? 1 : 0);
+		putVarLong(tag);
+		if (threadChanged) putVarLong(threadId & 0xFFFFFFFFL);
+		putVarLong(zigzag(value));
+		prevDataId = dataId;
+		prevThreadId = threadId;
+		count++;
+	}
+
+	/**
+	 * Write events in the fixed-length format.
+	 * The events are re-encoded one by one.
+	 */
+	@Override
+	public void writeEvents(byte[] events, int count) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(events);
+		for (int i=0; i<count; i++) {
+			int p = i * BinaryStreamLogger.BYTES_PER_EVENT;
+			writeEvent(b.getInt(p), b.getInt(p + 4), b.getLong(p + 8));
+		}
+	}
+
+	/**
+	 * Write a non-negative value in 7-bit groups (the least significant group first).
+	 * The highest bit of each byte indicates that the next byte follows.
+	 */
+	private void putVarLong(long v) {
+		while ((v & ~0x7FL) != 0) {
+			buf[pos++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte)v;
+	}
+
+	/**
+	 * Map a signed value to an unsigned value so that small negative values have short encodings.
+	 */
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private void flush() throws IOException {
+		out.write(buf, 0, pos);
+		pos = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+}
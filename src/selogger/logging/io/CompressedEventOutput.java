@@ -0,0 +1,260 @@
+package selogger.logging.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import selogger.logging.util.FileNameGenerator;
+
+/**
+ * This class writes events to archive files in which events are compressed by blocks.
+ * Events are collected in a block of EVENTS_PER_BLOCK events in the fixed-length format.
+ * A full block is compressed by a background thread pool,
+ * and compressed blocks are written in the order of events.
+ * Each file includes BinaryStreamLogger.MAX_EVENTS_PER_FILE events
+ * followed by a block index, so that a reader can decompress only a block
+ * including a particular event.
+ * The file layout is as follows:
+ * 1. compressed blocks,
+ * 2. index entries: the first event ID (long), the offset in the file (long),
+ *    and the compressed length (int) of each block,
+ * 3. the number of blocks (int) and MAGIC (int).
+ */
+public class CompressedEventOutput implements IBinaryEventOutput {
+
+	/**
+	 * The number of events in a block.  This must divide BinaryStreamLogger.MAX_EVENTS_PER_FILE.
+	 */
+	public static final int EVENTS_PER_BLOCK = 50000;
+
+	/**
+	 * The size of an index entry
+	 */
+	public static final int INDEX_ENTRY_BYTES = 20;
+
+	/**
+	 * The size of the trailer (the number of blocks and MAGIC)
+	 */
+	public static final int TRAILER_BYTES = 8;
+
+	/**
+	 * A number at the end of a file ("SLZ1")
+	 */
+	public static final int MAGIC = 0x534C5A31;
+
+	/**
+	 * The maximum number of blocks being compressed for each thread
+	 */
+	private static final int PENDING_BLOCKS_PER_THREAD = 2;
+
+	private FileNameGenerator files;
+	private ExecutorService pool;
+	private int maxPendingBlocks;
+
+	/**
+	 * Blocks being compressed in the order of events
+	 */
+	private ArrayDeque<PendingBlock> pending = new ArrayDeque<>();
+
+	private byte[] block;
+	private ByteBuffer blockBuf;
+	private int count;
+	private long nextEventId;
+
+	private DataOutputStream out;
+	private long fileOffset;
+	private long fileNumber;
+	private ByteArrayOutputStream index;
+	private DataOutputStream indexWriter;
+	private int indexCount;
+
+	/**
+	 * Create the first file.
+	 * @param files specifies file names.
+	 * @param threads specifies the number of threads to compress blocks.
+	 * @throws IOException
+	 */
+	public CompressedEventOutput(FileNameGenerator files, int threads) throws IOException {
+		this.files = files;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "selogger-compress");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.maxPendingBlocks = threads * PENDING_BLOCKS_PER_THREAD;
+		newBlock();
+		openFile();
+	}
+
+	/**
+	 * Allocate a new block.  The previous block is owned by the thread pool.
+	 */
+	private void newBlock() {
+		block = new byte[EVENTS_PER_BLOCK * BinaryStreamLogger.BYTES_PER_EVENT];
+		blockBuf = ByteBuffer.wrap(block);
+		count = 0;
+	}
+
+	/**
+	 * Create a new file and an empty index.
+	 */
+	private void openFile() throws IOException {
+		out = new DataOutputStream(new FileOutputStream(files.getNextFile()));
+		fileOffset = 0;
+		index = new ByteArrayOutputStream();
+		indexWriter = new DataOutputStream(index);
+		indexCount = 0;
+	}
+
+	/**
+	 * Write the index to the current file and close the file.
+	 */
+	private void closeFile() throws IOException {
+		indexWriter.flush();
+		index.writeTo(out);
+		out.writeInt(indexCount);
+		out.writeInt(MAGIC);
+		out.close();
+	}
+
+	@Override
+	public void writeEvent(int dataId, int threadId, long value) throws IOException {
+		int pos = count * BinaryStreamLogger.BYTES_PER_EVENT;
+		blockBuf.putInt(pos, dataId);
+		blockBuf.putInt(pos + 4, threadId);
+		blockBuf.putLong(pos + 8, value);
+		count++;
+		if (count == EVENTS_PER_BLOCK) submit();
+	}
+
+	/**
+	 * Copy events to blocks.
+	 */
+	@Override
+	public void writeEvents(byte[] events, int count) throws IOException {
+		int written = 0;
+		while (written < count) {
+			int n = Math.min(count - written, EVENTS_PER_BLOCK - this.count);
+			System.arraycopy(events, written * BinaryStreamLogger.BYTES_PER_EVENT, block, this.count * BinaryStreamLogger.BYTES_PER_EVENT, n * BinaryStreamLogger.BYTES_PER_EVENT);
+			this.count += n;
+			written += n;
+			if (this.count == EVENTS_PER_BLOCK) submit();
+		}
+	}
+
+	/**
+	 * Pass the current block to the thread pool,
+	 * and then write compressed blocks.
+	 * This method waits for the thread pool if too many blocks are being compressed.
+	 */
+	private void submit() throws IOException {
+		final byte[] data = block;
+		final int length = count * BinaryStreamLogger.BYTES_PER_EVENT;
+		Future<byte[]> f = pool.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return compress(data, length);
+			}
+		});
+		pending.add(new PendingBlock(nextEventId, f));
+		nextEventId += count;
+		newBlock();
+		while (!pending.isEmpty() && (pending.size() > maxPendingBlocks || pending.peek().data.isDone())) {
+			writeBlock(pending.poll());
+		}
+	}
+
+	/**
+	 * Write a compressed block and its index entry.
+	 * A new file is created if the block belongs to the next file.
+	 */
+	private void writeBlock(PendingBlock b) throws IOException {
+		byte[] data;
+		try {
+			data = b.data.get();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		long blockFileNumber = b.firstEventId / BinaryStreamLogger.MAX_EVENTS_PER_FILE;
+		if (blockFileNumber != fileNumber) {
+			closeFile();
+			openFile();
+			fileNumber = blockFileNumber;
+		}
+		out.write(data);
+		indexWriter.writeLong(b.firstEventId);
+		indexWriter.writeLong(fileOffset);
+		indexWriter.writeInt(data.length);
+		indexCount++;
+		fileOffset += data.length;
+	}
+
+	/**
+	 * Compress a block.
+	 * @param data is the content of a block.
+	 * @param length is the length of the data.
+	 * @return compressed data.
+	 */
+	private static byte[] compress(byte[] data, int length) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			ByteArrayOutputStream result = new ByteArrayOutputStream(length / 4);
+			byte[] buf = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				result.write(buf, 0, n);
+			}
+			return result.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Write the remaining events and the index, and stop the thread pool.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (count > 0) submit();
+			while (!pending.isEmpty()) {
+				writeBlock(pending.poll());
+			}
+			closeFile();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * A block being compressed
+	 */
+	private static class PendingBlock {
+
+		private long firstEventId;
+		private Future<byte[]> data;
+
+		public PendingBlock(long firstEventId, Future<byte[]> data) {
+			this.firstEventId = firstEventId;
+			this.data = data;
+		}
+	}
+}
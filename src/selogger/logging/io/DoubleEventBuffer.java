@@ -0,0 +1,81 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import selogger.logging.util.JsonBuffer;
+
+/**
+ * A buffer to record the latest double values for a data ID.
+ */
+final class DoubleEventBuffer extends LatestEventBuffer {
+
+	private double[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public DoubleEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new double[getCapacity()];
+	}
+
+	/**
+	 * Write a value to the next position.
+	 * If the buffer is already full, it overwrites the oldest one.
+	 */
+	public void addDouble(double value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	@Override
+	protected int getValueBytes() {
+		return 8;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		double[] newValues = new double[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new DoubleEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((DoubleEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		buf.append(values[pos]);
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		buf.writeNumber(values[pos]);
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_DOUBLE;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		w.writeValue(Double.doubleToRawLongBits(values[pos]));
+	}
+
+}
@@ -0,0 +1,280 @@
+package selogger.logging.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import selogger.logging.IErrorLogger;
+import selogger.logging.util.ThreadContext;
+
+/**
+ * This class collects events in blocks owned by threads.
+ * A thread appends events to its own block without locks.
+ * A full block is passed to a dedicated writer thread
+ * that writes the block to an output, so that recording threads
+ * do not access files.
+ * The number of full blocks waiting for the writer thread is limited;
+ * if the writer thread cannot keep up with the recording threads,
+ * a thread filling a block waits until the writer thread writes a block.
+ * A partially filled block of a terminated thread is written by the writer thread,
+ * so that the blocks do not accumulate under thread churn.
+ */
+class EventBlockWriter {
+
+	/**
+	 * The number of events in a block.
+	 */
+	static final int EVENTS_PER_BLOCK = 4096;
+
+	/**
+	 * The maximum number of full blocks waiting for the writer thread (16MB in total).
+	 * The same number of written blocks are kept for reuse.
+	 */
+	static final int MAX_BLOCKS = 256;
+
+	/**
+	 * The interval (in milliseconds) to look for blocks of terminated threads,
+	 * and to check whether this object is closed while waiting for the writer thread.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * A marker to stop the writer thread.
+	 */
+	private static final EventBlock END = new EventBlock(0);
+
+	private IBinaryEventOutput output;
+	private IErrorLogger err;
+
+	/**
+	 * A slot of ThreadContext to keep a block of a thread.
+	 */
+	private final int slot = ThreadContext.newSlot();
+
+	/**
+	 * Written blocks available for recording threads.
+	 * A new block is allocated if this queue is empty.
+	 */
+	private final ArrayBlockingQueue<EventBlock> free = new ArrayBlockingQueue<>(MAX_BLOCKS);
+
+	/**
+	 * Permits to pass a full block to the writer thread
+	 */
+	private final Semaphore unwritten = new Semaphore(MAX_BLOCKS);
+
+	/**
+	 * Blocks to be written by the writer thread
+	 */
+	private final LinkedBlockingQueue<EventBlock> filled = new LinkedBlockingQueue<>();
+
+	/**
+	 * Blocks being used by recording threads, and their owner threads.
+	 * They are written when the owner threads terminate or this object is closed.
+	 */
+	private final ConcurrentHashMap<EventBlock, Thread> active = new ConcurrentHashMap<>();
+
+	private Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * This flag is set when the writer thread failed to write events
+	 */
+	private boolean failed;
+
+	/**
+	 * Create a writer thread.
+	 * @param output specifies the destination of events.
+	 * @param err records errors in the writer thread.
+	 */
+	public EventBlockWriter(IBinaryEventOutput output, IErrorLogger err) {
+		this.output = output;
+		this.err = err;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBlocks();
+			}
+		}, "selogger-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Record an event in a block of the current thread.
+	 * @param ctx is the context of the current thread.
+	 * @param dataId specifies an event and its bytecode location.
+	 * @param value specifies a data value observed in the event.
+	 */
+	public void write(ThreadContext ctx, int dataId, long value) {
+		if (closed) return;
+		EventBlock b = (EventBlock)ctx.get(slot);
+		if (b == null) {
+			b = free.poll();
+			if (b == null) b = new EventBlock(EVENTS_PER_BLOCK);
+			active.put(b, Thread.currentThread());
+			ctx.set(slot, b);
+		}
+		b.add(dataId, ctx.getThreadId(), value);
+		if (b.isFull()) {
+			ctx.set(slot, null);
+			// close() may have already taken the block
+			if (active.remove(b) != null && acquirePermit()) {
+				b.permitted = true;
+				filled.add(b);
+			}
+		}
+	}
+
+	/**
+	 * Wait until the number of full blocks becomes less than MAX_BLOCKS.
+	 * @return true if a block can be passed to the writer thread.
+	 * false if this object is closed or the thread is interrupted.
+	 * The events in the block are discarded in that case.
+	 */
+	private boolean acquirePermit() {
+		try {
+			while (!unwritten.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+				if (closed) return false;
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * The main loop of the writer thread.
+	 * After an I/O error, blocks are discarded so that recording threads are not blocked.
+	 */
+	private void writeBlocks() {
+		try {
+			while (true) {
+				EventBlock b = filled.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (b == END) break;
+				if (b != null) {
+					writeBlock(b);
+					if (b.permitted) {
+						// A full block passed by its owner is reused
+						b.reset();
+						free.offer(b);
+						unwritten.release();
+					}
+					// A block taken by close() is dropped, 
+					// because its owner may be still adding an event
+				} else {
+					writeTerminatedThreadBlocks();
+				}
+			}
+		} catch (InterruptedException e) {
+			err.log(e);
+		}
+	}
+
+	/**
+	 * Write the partially filled blocks of terminated threads.
+	 * The blocks are not reused, because the contexts of the threads 
+	 * may still refer to them.
+	 */
+	private void writeTerminatedThreadBlocks() {
+		for (Map.Entry<EventBlock, Thread> entry: active.entrySet()) {
+			if (!entry.getValue().isAlive() && active.remove(entry.getKey(), entry.getValue())) {
+				writeBlock(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Write the events in a block to the output.
+	 * This method is called only by the writer thread.
+	 */
+	private void writeBlock(EventBlock b) {
+		if (failed) return;
+		try {
+			output.writeEvents(b.data, b.published.get());
+		} catch (IOException e) {
+			failed = true;
+			err.log(e);
+		}
+	}
+
+	/**
+	 * Write the remaining events and close the output.
+	 * The blocks being used by recording threads are written without permits 
+	 * and not reused.
+	 * Events recorded by other threads during this method may be lost.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		closed = true;
+		for (EventBlock b: active.keySet()) {
+			if (active.remove(b) != null) {
+				filled.add(b);
+			}
+		}
+		filled.add(END);
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		output.close();
+	}
+
+	/**
+	 * A block of events owned by a thread.
+	 */
+	private static final class EventBlock {
+
+		private final byte[] data;
+		private final ByteBuffer buf;
+		private final int capacity;
+		private int count;
+
+		/**
+		 * This flag is set when the owner thread passes a full block with a permit. 
+		 * The writer thread releases the permit and reuses the block only if this is true.
+		 */
+		private boolean permitted;
+
+		/**
+		 * The number of events visible to the writer thread
+		 */
+		private final AtomicInteger published = new AtomicInteger();
+
+		public EventBlock(int capacity) {
+			this.capacity = capacity;
+			this.data = new byte[capacity * BinaryStreamLogger.BYTES_PER_EVENT];
+			this.buf = ByteBuffer.wrap(data);
+		}
+
+		public void add(int dataId, int threadId, long value) {
+			int pos = count * BinaryStreamLogger.BYTES_PER_EVENT;
+			buf.putInt(pos, dataId);
+			buf.putInt(pos + 4, threadId);
+			buf.putLong(pos + 8, value);
+			count++;
+			published.lazySet(count);
+		}
+
+		public boolean isFull() {
+			return count == capacity;
+		}
+
+		public void reset() {
+			count = 0;
+			permitted = false;
+			published.set(0);
+		}
+	}
+}
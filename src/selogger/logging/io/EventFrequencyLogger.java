@@ -271,5 +271,15 @@ public class EventFrequencyLogger extends AbstractEventLogger implements IEventL
 		AtomicLong c = counters.get(d.getDataId());
 		builder.append(c.get());
 	}
+
+	/**
+	 * Write a location with its "freq" value for a binary format
+	 */
+	@Override
+	protected void writeBinary(NearOmniBinaryWriter w, DataInfo d) throws IOException {
+		AtomicLong c = counters.get(d.getDataId());
+		w.startLocation(d, NearOmniBinaryWriter.KIND_NONE, c.get(), 0);
+		w.endLocation();
+	}
 	
 }
@@ -12,6 +12,7 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import selogger.logging.IErrorLogger;
 import selogger.logging.IEventLogger;
 import selogger.logging.ILoggingTarget;
+import selogger.logging.util.ThreadContext;
 
 /**
  * Count the number of events for each thread.
@@ -96,18 +97,36 @@ public class ExecuteBeforeLogger implements IEventLogger {
 	}
 	
 	/**
-	 * A class to manage EventCounter for each thread
+	 * A class to manage EventCounter for each thread.
+	 * Each thread keeps its EventCounter in its ThreadContext.
 	 */
-	private static class EventCounters extends ThreadLocal<EventCounter> {
+	private static class EventCounters {
 		
+		/**
+		 * A slot of ThreadContext to keep an EventCounter
+		 */
+		private final int slot = ThreadContext.newSlot();
+
 		/**
 		 * This keeps objects in a list so that close() can 
 		 * record the final state of all threads 
 		 */
 		private ArrayList<EventCounter> counters = new ArrayList<>();
 		
-		@Override
-		protected synchronized EventCounter initialValue() {
+		/**
+		 * @return the EventCounter of the current thread.
+		 */
+		public EventCounter get() {
+			ThreadContext ctx = ThreadContext.get();
+			EventCounter c = (EventCounter)ctx.get(slot);
+			if (c == null) {
+				c = register();
+				ctx.set(slot, c);
+			}
+			return c;
+		}
+
+		private synchronized EventCounter register() {
 			EventCounter c = new EventCounter(Thread.currentThread().getId());
 			counters.add(c);
 			return c;
@@ -0,0 +1,81 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import selogger.logging.util.JsonBuffer;
+
+/**
+ * A buffer to record the latest float values for a data ID.
+ */
+final class FloatEventBuffer extends LatestEventBuffer {
+
+	private float[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public FloatEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new float[getCapacity()];
+	}
+
+	/**
+	 * Write a value to the next position.
+	 * If the buffer is already full, it overwrites the oldest one.
+	 */
+	public void addFloat(float value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	@Override
+	protected int getValueBytes() {
+		return 4;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		float[] newValues = new float[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new FloatEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((FloatEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		buf.append(values[pos]);
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		buf.writeNumber(values[pos]);
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_FLOAT;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		w.writeValue(Float.floatToRawIntBits(values[pos]));
+	}
+
+}
@@ -0,0 +1,36 @@
+package selogger.logging.io;
+
+import java.io.IOException;
+
+/**
+ * An interface to write events of the omnibinary format into log files.
+ * An event comprises a data ID (int), a thread ID (int), and a value (long);
+ * it occupies BinaryStreamLogger.BYTES_PER_EVENT bytes in big endian.
+ * An implementation is not thread-safe; a caller must serialize the method calls.
+ */
+public interface IBinaryEventOutput {
+
+	/**
+	 * Write an event.
+	 * @param dataId specifies an event and its bytecode location.
+	 * @param threadId specifies a thread.
+	 * @param value specifies a data value observed in the event.
+	 * @throws IOException
+	 */
+	public void writeEvent(int dataId, int threadId, long value) throws IOException;
+
+	/**
+	 * Write events encoded in the file format.
+	 * @param events is an array of encoded events.
+	 * @param count specifies the number of events from the beginning of the array.
+	 * @throws IOException
+	 */
+	public void writeEvents(byte[] events, int count) throws IOException;
+
+	/**
+	 * Close the current file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+}
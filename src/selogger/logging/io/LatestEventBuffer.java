@@ -1,222 +1,354 @@
 package selogger.logging.io;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
-import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
-
-import org.objectweb.asm.Type;
-
-import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.util.List;
 
 import selogger.logging.io.LatestEventLogger.ObjectRecordingStrategy;
 import selogger.logging.util.JsonBuffer;
 import selogger.logging.util.ObjectId;
-import selogger.weaver.method.InstructionAttributes;
+import selogger.weaver.DataInfo;
 
 /**
  * A ring buffer to record the latest k events for a data ID.
+ * This class manages sequence numbers and thread IDs of events;
+ * a subclass stores values of a particular type and provides 
+ * an add method only for the type, so that a caller casts 
+ * a buffer to the class for the value type of the data ID.
+ * The add methods are not synchronized; a caller must lock 
+ * the buffer object so that the events are visible to 
+ * other threads that save or merge the buffer.
  */
-public class LatestEventBuffer {
+public abstract class LatestEventBuffer {
+
+	private static final int DEFAULT_CAPACITY = 32;
+
+	/**
+	 * An interface of buffers recording object references.
+	 * Depending on the implementation, the buffer directly stores 
+	 * the object reference or uses a weak reference to store the reference.
+	 */
+	interface ObjectReferenceBuffer {
+
+		/**
+		 * Write an object reference to the next position.
+		 * If the buffer is already full, it overwrites the oldest one.
+		 */
+		public void addObject(Object value, long seqnum, int threadId);
+	}
 
-	private static final int DEFAULT_CAPACITY = 32; 
+	/**
+	 * Estimated bytes of the object and array headers in a buffer.
+	 */
+	private static final int OBJECT_OVERHEAD = 96;
 
 	private int bufferSize;
 	private int nextPos = 0;
 	private long count = 0;
-	private Object array;
 	private long[] seqnums;
 	private int[] threads;
-	private ObjectRecordingStrategy keepObject;
 
 	private int capacity;
 
 	/**
-	 * Create a buffer.
+	 * The budget to which the buffer reports its growth.  This may be null.
+	 */
+	private MemoryBudget budget;
+
+	/**
+	 * Create a buffer for a value type.
 	 * @param type specifies a value type stored to the buffer.
 	 * @param bufferSize specifies the size of this buffer.
+	 * @param keepObject specifies how the buffer keeps objects.
+	 * This is used if the type is Object.
+	 * @return a buffer for the type.
 	 */
-	public LatestEventBuffer(Class<?> type, int bufferSize, ObjectRecordingStrategy keepOject) {
+	public static LatestEventBuffer create(Class<?> type, int bufferSize, ObjectRecordingStrategy keepObject) {
+		if (type == int.class) {
+			return new IntEventBuffer(bufferSize);
+		} else if (type == long.class) {
+			return new LongEventBuffer(bufferSize);
+		} else if (type == float.class) {
+			return new FloatEventBuffer(bufferSize);
+		} else if (type == double.class) {
+			return new DoubleEventBuffer(bufferSize);
+		} else if (type == char.class) {
+			return new CharEventBuffer(bufferSize);
+		} else if (type == short.class) {
+			return new ShortEventBuffer(bufferSize);
+		} else if (type == byte.class) {
+			return new ByteEventBuffer(bufferSize);
+		} else if (type == boolean.class) {
+			return new BooleanEventBuffer(bufferSize);
+		} else if (type == ObjectId.class) {
+			return new ObjectIdEventBuffer(bufferSize);
+		} else if (keepObject == ObjectRecordingStrategy.Weak) {
+			return new WeakObjectEventBuffer(bufferSize);
+		} else {
+			return new ObjectEventBuffer(bufferSize);
+		}
+	}
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	protected LatestEventBuffer(int bufferSize) {
 		this.capacity = Math.min(DEFAULT_CAPACITY, bufferSize);
 		this.bufferSize = bufferSize;
-		this.array = Array.newInstance(type, capacity);
 		this.seqnums = new long[capacity];
 		this.threads = new int[capacity];
-		this.keepObject = keepOject;
 	}
 
 	/**
-	 * @return index to which the next value is written.   
+	 * @return the current length of arrays in this buffer.
+	 */
+	protected int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Set a budget for the buffer.
+	 * The buffer does not grow if the budget is not available. 
+	 * @param budget specifies a budget shared by buffers.
+	 */
+	void setMemoryBudget(MemoryBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return the estimated number of bytes held by this buffer.
+	 */
+	long getMemoryUsage() {
+		return estimateMemoryUsage(capacity);
+	}
+
+	/**
+	 * @param length specifies the length of arrays.
+	 * @return the estimated number of bytes for a buffer.
 	 */
-	private int getNextIndex() {
+	private long estimateMemoryUsage(int length) {
+		return OBJECT_OVERHEAD + (long)length * (8 + 4 + getValueBytes());
+	}
+
+	/**
+	 * Reserve an index for a new event and record its sequence number and thread ID.
+	 * A subclass writes the value to the returned index.
+	 * @return index to which the next value is written.
+	 */
+	protected final int nextIndex(long seqnum, int threadId) {
 		count++;
 		int next = nextPos++;
 		if (nextPos >= capacity) {
-			if (capacity < bufferSize) {
-				// extend the buffer
-				capacity = Math.min(capacity * 2, bufferSize);
-				this.seqnums = Arrays.copyOf(this.seqnums, capacity);
-				this.threads = Arrays.copyOf(this.threads, capacity);
-				if (array instanceof int[]) {
-					this.array = Arrays.copyOf((int[])array, capacity);
-				} else if (array instanceof long[]) {
-					this.array = Arrays.copyOf((long[])array, capacity);
-				} else if (array instanceof float[]) {
-					this.array = Arrays.copyOf((float[])array, capacity);
-				} else if (array instanceof double[]) {
-					this.array = Arrays.copyOf((double[])array, capacity);
-				} else if (array instanceof char[]) {
-					this.array = Arrays.copyOf((char[])array, capacity);
-				} else if (array instanceof short[]) {
-					this.array = Arrays.copyOf((short[])array, capacity);
-				} else if (array instanceof byte[]) {
-					this.array = Arrays.copyOf((byte[])array, capacity);
-				} else if (array instanceof boolean[]) {
-					this.array = Arrays.copyOf((boolean[])array, capacity);
-				} else if (array instanceof String[]) {
-					this.array = Arrays.copyOf((String[])array, capacity);
-				} else {
-					this.array = Arrays.copyOf((Object[])array, capacity);
-				} 
+			if (capacity < bufferSize && extend(Math.min(capacity * 2, bufferSize))) {
+				// the buffer is extended
 			} else {
-				// If the buffer is already maximum, works as a ring buffer 
+				// If the buffer is already maximum, works as a ring buffer
+				bufferSize = capacity;
 				nextPos = 0;
 			}
 		}
+		seqnums[next] = seqnum;
+		threads[next] = threadId;
 		return next;
 	}
-	
+
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * Enlarge the arrays if the memory is available.
+	 * @param newCapacity specifies the new length of arrays.
+	 * @return true if the arrays are extended.
 	 */
-	public synchronized void addBoolean(boolean value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((boolean[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
+	private boolean extend(int newCapacity) {
+		long delta = estimateMemoryUsage(newCapacity) - estimateMemoryUsage(capacity);
+		if (budget != null && !budget.reserve(delta)) {
+			return false;
+		}
+		try {
+			long[] newSeqnums = Arrays.copyOf(this.seqnums, newCapacity);
+			int[] newThreads = Arrays.copyOf(this.threads, newCapacity);
+			extendValues(newCapacity);
+			this.seqnums = newSeqnums;
+			this.threads = newThreads;
+			this.capacity = newCapacity;
+			return true;
+		} catch (OutOfMemoryError e) {
+			if (budget != null) {
+				budget.release(delta);
+				budget.freeze();
+			}
+			return false;
+		}
 	}
 
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * Reduce the size of this buffer. 
+	 * The latest events are kept in the buffer.
+	 * @param newSize specifies the new buffer size.
+	 * @return the estimated number of bytes released from this buffer.
 	 */
-	public synchronized void addByte(byte value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((byte[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
+	synchronized long shrink(int newSize) {
+		if (capacity <= newSize) {
+			bufferSize = Math.min(bufferSize, newSize);
+			return 0;
+		}
+		int len = size();
+		int keep = Math.min(len, newSize);
+		int[] positions = new int[keep];
+		long[] newSeqnums = new long[newSize];
+		int[] newThreads = new int[newSize];
+		for (int i=0; i<keep; i++) {
+			positions[i] = getPos(len - keep + i);
+			newSeqnums[i] = seqnums[positions[i]];
+			newThreads[i] = threads[positions[i]];
+		}
+		long released = estimateMemoryUsage(capacity) - estimateMemoryUsage(newSize);
+		retainValues(positions, newSize);
+		seqnums = newSeqnums;
+		threads = newThreads;
+		capacity = newSize;
+		bufferSize = newSize;
+		nextPos = (keep == newSize) ? 0 : keep;
+		return released;
 	}
 
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * @return the estimated number of bytes for a value.
 	 */
-	public synchronized void addChar(char value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((char[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
-	}
+	protected abstract int getValueBytes();
 
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * Replace the array of values with a smaller one.
+	 * @param positions specifies values to be kept in the new array.
+	 * @param newCapacity specifies the length of the new array.
 	 */
-	public synchronized void addInt(int value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((int[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
-	}
+	protected abstract void retainValues(int[] positions, int newCapacity);
 
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * Enlarge the array of values.
+	 * @param newCapacity specifies the new length of the array.
 	 */
-	public synchronized void addDouble(double value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((double[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
-	}
+	protected abstract void extendValues(int newCapacity);
 
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * @return an empty buffer that has the same type and size as this buffer.
 	 */
-	public synchronized void addFloat(float value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((float[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
-	}
-	
+	protected abstract LatestEventBuffer createEmptyBuffer();
+
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * Copy a value from another buffer of the same type.
+	 * @param from specifies the source buffer.
+	 * @param fromPos specifies an array index of the source buffer.
+	 * @param toPos specifies an array index of this buffer.
 	 */
-	public synchronized void addLong(long value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((long[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
-	}
-	
+	protected abstract void copyValue(LatestEventBuffer from, int fromPos, int toPos);
+
 	/**
-	 * Write a value to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
+	 * Write a value for a CSV format.
+	 * @param buf is the output.
+	 * @param pos specifies an array index.
 	 */
-	public synchronized void addShort(short value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((short[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
-	}
+	protected abstract void appendValue(StringBuilder buf, int pos);
 
 	/**
-	 * Write an object reference to the next position.
-	 * If the buffer is already full, it overwrites the oldest one.
-	 * If keepObject is true, this buffer directly stores the object reference.
-	 * Otherwise, the buffer uses a weak reference to store the reference.
+	 * Write a value for a JSON format.
+	 * @param buf is the output.
+	 * @param pos specifies an array index.
 	 */
-	public synchronized void addObject(Object value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		assert (keepObject == ObjectRecordingStrategy.Strong) || (keepObject == ObjectRecordingStrategy.Weak);
-		if (keepObject == ObjectRecordingStrategy.Strong) {
-			((Object[])array)[index] = value;
-		} else {
-			if (value != null) {
-				WeakReference<?> ref = new WeakReference<>(value);
-				((Object[])array)[index] = ref;
-			} else {
-				((Object[])array)[index] = null;
-			}
+	protected abstract void writeValue(JsonBuffer buf, int pos);
+
+	/**
+	 * @return the kind of values defined in NearOmniBinaryWriter.
+	 */
+	protected abstract int getValueKind();
+
+	/**
+	 * Write a value for a binary format.
+	 * @param w is the output.
+	 * @param pos specifies an array index.
+	 */
+	protected abstract void writeBinaryValue(NearOmniBinaryWriter w, int pos);
+
+	/**
+	 * @return a copy of the events in this buffer.
+	 * The events are read under the lock of this buffer. 
+	 */
+	synchronized LatestEventBuffer copy() {
+		LatestEventBuffer c = createEmptyBuffer();
+		int len = size();
+		for (int i=0; i<len; i++) {
+			int pos = getPos(i);
+			c.copyValue(this, pos, c.nextIndex(seqnums[pos], threads[pos]));
 		}
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
+		c.count = count;
+		return c;
 	}
 
 	/**
-	 * Write an object ID to the next position.
-	 * Differently from addObject method, this method records 
-	 * only an ID without a reference.
+	 * Create a buffer including the latest events recorded in given buffers.
+	 * The buffers must have the same value type and the same size.
+	 * Each buffer is assumed to be written by a single thread,
+	 * so that the sequence numbers in a buffer are increasing.
+	 * The owner threads may continue recording events during the merge;
+	 * the events are merged from copies of the buffers.
+	 * @param buffers specifies buffers for the same data ID.
+	 * @return a new buffer whose count is the total count of the buffers.
 	 */
-	public synchronized void addObjectId(ObjectId value, long seqnum, int threadId) {
-		int index = getNextIndex();
-		((ObjectId[])array)[index] = value;
-		seqnums[index] = seqnum;
-		threads[index] = threadId;
+	public static LatestEventBuffer merge(List<? extends LatestEventBuffer> buffers) {
+		ArrayList<LatestEventBuffer> list = new ArrayList<>(buffers.size());
+		for (LatestEventBuffer b: buffers) {
+			list.add(b.copy());
+		}
+		LatestEventBuffer merged = list.get(0).createEmptyBuffer();
+
+		// Select the latest events from the tails of the buffers
+		int[] tails = new int[list.size()];
+		int total = 0;
+		for (int i=0; i<tails.length; i++) {
+			tails[i] = list.get(i).size();
+			total += tails[i];
+		}
+		int len = Math.min(total, merged.bufferSize);
+		int[] selected = new int[len];
+		for (int k=len-1; k>=0; k--) {
+			int latest = -1;
+			for (int i=0; i<tails.length; i++) {
+				if (tails[i] > 0 && (latest < 0 ||
+					list.get(i).getSeqNum(tails[i]-1) > list.get(latest).getSeqNum(tails[latest]-1))) {
+					latest = i;
+				}
+			}
+			tails[latest]--;
+			selected[k] = latest;
+		}
+
+		// Copy the selected events in the order of sequence numbers
+		int[] heads = new int[list.size()];
+		for (int i=0; i<tails.length; i++) {
+			heads[i] = tails[i];
+		}
+		for (int k=0; k<len; k++) {
+			LatestEventBuffer b = list.get(selected[k]);
+			int pos = b.getPos(heads[selected[k]]++);
+			int index = merged.nextIndex(b.seqnums[pos], b.threads[pos]);
+			merged.copyValue(b, pos, index);
+		}
+		long count = 0;
+		for (LatestEventBuffer b: list) {
+			count += b.count();
+		}
+		merged.count = count;
+		return merged;
 	}
-	
+
 	/**
 	 * Generate a string representation that is written to a trace file.
 	 * @return A line of CSV string.  The first column is the number of events recorded in the buffer.
 	 * The other columns are the event data recorded in a trace.
-	 * The oldest event is written first. 
+	 * The oldest event is written first.
 	 * the latest one is written at last.
 	 * For each event, the observed value, the sequence number, and the thread ID are written.
-	 * In case of a string object, the content is written with the object ID.  
+	 * In case of a string object, the content is written with the object ID.
 	 */
 	@Override
 	public synchronized String toString() {
@@ -233,52 +365,8 @@ public class LatestEventBuffer {
 				buf.append(",");
 				continue;
 			}
-			int idx = (count >= bufferSize) ? (nextPos + i) % bufferSize : i;
-
-			// Write a value depending on a type
-			if (array instanceof int[]) {
-				buf.append(((int[])array)[idx]);
-			} else if (array instanceof long[]) {
-				buf.append(((long[])array)[idx]);
-			} else if (array instanceof float[]) {
-				buf.append(((float[])array)[idx]);
-			} else if (array instanceof double[]) {
-				buf.append(((double[])array)[idx]);
-			} else if (array instanceof char[]) {
-				buf.append((int)((char[])array)[idx]);
-			} else if (array instanceof short[]) {
-				buf.append(((short[])array)[idx]);
-			} else if (array instanceof byte[]) {
-				buf.append(((byte[])array)[idx]);
-			} else if (array instanceof boolean[]) {
-				buf.append(((boolean[])array)[idx]);
-			} else if (array instanceof String[]) {
-				buf.append(((String[])array)[idx]);
-			} else {
-				String msg = "null";
-				Object o = ((Object[])array)[idx];
-				if (keepObject == ObjectRecordingStrategy.Weak) {
-					WeakReference<?> ref = (WeakReference<?>)o;
-					o = ref.get();
-					if (o == null) {
-						msg = "<GC>";
-					}
-				}
-				if (o == null) {
-					buf.append(msg);
-				} else {
-					String id = o.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(o));
-					if (o instanceof String) {
-						buf.append("\"");
-						buf.append(id);
-						buf.append(":");
-						JsonStringEncoder.getInstance().quoteAsString((String)o, buf);
-						buf.append("\"");
-					} else {
-						buf.append(id);
-					}
-				}
-			}
+			int idx = getPos(i);
+			appendValue(buf, idx);
 			buf.append(",");
 			buf.append(seqnums[idx]);
 			buf.append(",");
@@ -286,10 +374,10 @@ public class LatestEventBuffer {
 		}
 		return buf.toString();
 	}
-	
+
 	/**
 	 * Generate column names for CSV.
-	 * The number of columns is dependent on the buffer size. 
+	 * The number of columns is dependent on the buffer size.
 	 * @param bufferSize
 	 * @return a string including column names
 	 */
@@ -306,7 +394,7 @@ public class LatestEventBuffer {
 		}
 		return buf.toString();
 	}
-	
+
 	/**
 	 * Generate commas for an empty line
 	 * @param bufferSize is required to decide the number of columns
@@ -322,7 +410,7 @@ public class LatestEventBuffer {
 		}
 		return buf.toString();
 	}
-	
+
 	/**
 	 * @return the number of event occurrences
 	 */
@@ -335,40 +423,25 @@ public class LatestEventBuffer {
 	 * The maximum value is the buffer size.
 	 */
 	public synchronized int size() {
-		return (int)Math.min(count, bufferSize); 
-	}
-	
-	/**
-	 * Calculate the i-th event data location in the buffer. 
-	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
-	 * @return index for an array
-	 */
-	private int getPos(int i) {
-		return (count >= bufferSize) ? (nextPos + i) % bufferSize : i;
+		return (int)Math.min(count, bufferSize);
 	}
 
 	/**
-	 * Get the i-th event data in the buffer.
-	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
-	 * @return an integer recorded for the event
+	 * @return the maximum number of events recorded in this buffer.
 	 */
-	public int getInt(int i) {
-		return ((int[])array)[getPos(i)];
+	protected int getBufferSize() {
+		return bufferSize;
 	}
 
 	/**
-	 * Get the i-th event data in the buffer.
+	 * Calculate the i-th event data location in the buffer.
 	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
-	 * @return a long integer recorded for the event
+	 * @return index for an array
 	 */
-	public long getLong(int i) {
-		return ((long[])array)[getPos(i)];
-	}
-	
-	public ObjectId getObjectId(int i) {
-		return ((ObjectId[])array)[getPos(i)];
+	protected final int getPos(int i) {
+		return (count >= bufferSize) ? (nextPos + i) % bufferSize : i;
 	}
-	
+
 	/**
 	 * Get the i-th event data in the buffer.
 	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
@@ -377,7 +450,7 @@ public class LatestEventBuffer {
 	public long getSeqNum(int i) {
 		return seqnums[getPos(i)];
 	}
-	
+
 	/**
 	 * Get the i-th event data in the buffer.
 	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
@@ -386,14 +459,13 @@ public class LatestEventBuffer {
 	public int getThreadId(int i) {
 		return threads[getPos(i)];
 	}
-		
+
 	/**
-	 * Write the content of this buffer to a JsonBuffer. 
+	 * Write the content of this buffer to a JsonBuffer.
 	 * @param buf
 	 * @param skipValues
-	 * @throws IOException
 	 */
-	public synchronized void writeJson(JsonBuffer buf, boolean skipValues) { 
+	public synchronized void writeJson(JsonBuffer buf, boolean skipValues) {
 		int len = (int)Math.min(count, bufferSize);
 		buf.writeNumberField("freq", count());
 		buf.writeNumberField("record", size());
@@ -401,59 +473,7 @@ public class LatestEventBuffer {
 		if (!skipValues) {
 			buf.writeArrayFieldStart("value");
 			for (int i=0; i<len; i++) {
-				int idx = getPos(i);
-				// Write a value depending on a type
-				if (array instanceof int[]) {
-					buf.writeNumber(((int[])array)[idx]);
-				} else if (array instanceof long[]) {
-					buf.writeNumber(((long[])array)[idx]);
-				} else if (array instanceof float[]) {
-					buf.writeNumber(((float[])array)[idx]);
-				} else if (array instanceof double[]) {
-					buf.writeNumber(((double[])array)[idx]);
-				} else if (array instanceof char[]) {
-					buf.writeNumber((int)((char[])array)[idx]);
-				} else if (array instanceof short[]) {
-					buf.writeNumber(((short[])array)[idx]);
-				} else if (array instanceof byte[]) {
-					buf.writeNumber(((byte[])array)[idx]);
-				} else if (array instanceof boolean[]) {
-					buf.writeBoolean(((boolean[])array)[idx]);
-				} else if (array instanceof ObjectId[]) {
-					ObjectId id = ((ObjectId[])array)[idx];
-					buf.writeStartObject();
-					buf.writeStringField("id", Long.toString(id.getId()));
-					//buf.writeStringField("type", id.getClassName());
-					buf.writeStringField(InstructionAttributes.ATTRIBUTE_TYPE_NAME, Type.getType(id.getClassName()).getClassName());
-					if (id.getContent() != null) buf.writeStringField("str", id.getContent());
-					buf.writeEndObject();
-				} else {
-					String id = null;
-					Object o = ((Object[])array)[idx];
-					if (o == null) {
-						buf.writeNull();
-					} else {
-						if (keepObject == ObjectRecordingStrategy.Weak) {
-							WeakReference<?> ref = (WeakReference<?>)o;
-							o = ref.get();
-						} 
-						if (o != null) {
-							id = Integer.toHexString(System.identityHashCode(o));
-						} else {
-							id = "<GC>";
-						}
-						buf.writeStartObject();
-						buf.writeStringField("id", id);
-						if (o != null) {
-							//buf.writeStringField("type", o.getClass().getName());
-							buf.writeStringField(InstructionAttributes.ATTRIBUTE_TYPE_NAME, Type.getType(o.getClass()).getClassName());
-							if (o instanceof String) {
-								buf.writeEscapedStringField("str", (String)o);
-							}
-						}
-						buf.writeEndObject();
-					}
-				}
+				writeValue(buf, getPos(i));
 			}
 			buf.writeEndArray();
 		}
@@ -469,4 +489,21 @@ public class LatestEventBuffer {
 		buf.writeEndArray();
 	}
 
+	/**
+	 * Write the content of this buffer to a binary trace file.
+	 * @param w is the output.
+	 * @param d specifies the location of the events.
+	 * @throws IOException
+	 */
+	public synchronized void writeBinary(NearOmniBinaryWriter w, DataInfo d) throws IOException {
+		int len = size();
+		w.startLocation(d, getValueKind(), count, len);
+		for (int i=0; i<len; i++) {
+			int pos = getPos(i);
+			writeBinaryValue(w, pos);
+			w.writeEvent(seqnums[pos], threads[pos]);
+		}
+		w.endLocation();
+	}
+
 }
@@ -1,10 +1,18 @@
 package selogger.logging.io;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import selogger.logging.IErrorLogger;
 import selogger.logging.IEventLogger;
@@ -13,15 +21,16 @@ import selogger.logging.util.ObjectId;
 import selogger.logging.util.ObjectIdMap;
 import selogger.weaver.DataInfo;
 import selogger.weaver.method.Descriptor;
-import selogger.logging.util.ThreadId;
+import selogger.logging.util.ThreadContext;
 
 /**
  * This class is an implementation of IEventLogger that 
  * records a near-omniscient execution trace including 
  * only the latest k events for each data ID.
- * If OutOfMemory occurred, in other words, if this object could 
- * not keep the near-omniscient execution trace on memory,
- * all events are discarded.
+ * If the buffers reached a memory threshold or OutOfMemoryError occurred, 
+ * the logger reduces k for new buffers and shrinks large buffers.
+ * If k cannot be reduced any more, the logger stops recording new data IDs
+ * while the recorded events are kept.
  */
 public class LatestEventLogger extends AbstractEventLogger implements IEventLogger {
 
@@ -47,16 +56,44 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 		Id
 	}
 
+	/**
+	 * The maximum number of data IDs written to the log when buffers are shrunk.
+	 */
+	private static final int MAX_REPORTED_DATAIDS = 100;
+
+	/**
+	 * The initial size of the buffer table.
+	 * This is the same as the initial capacity of the DataInfo list.
+	 */
+	private static final int INITIAL_TABLE_SIZE = 65536;
 	
 	/**
 	 * The number of events to be recorded for each event location
 	 */
 	private int bufferSize;
+
+	/**
+	 * The size of buffers created for new data IDs.
+	 * This may be smaller than bufferSize under memory pressure.
+	 */
+	private volatile int activeBufferSize;
+
+	/**
+	 * The estimated memory usage of buffers and its threshold
+	 */
+	private MemoryBudget budget;
+
+	/**
+	 * This flag is set when the logger stops creating buffers for new data IDs.
+	 */
+	private volatile boolean allocationStopped;
 	
 	/**
-	 * Buffers to record events 
+	 * Buffers to record events.  The table is indexed by data IDs.
+	 * The table is extended when new data IDs are notified by the weaver,
+	 * so that recording threads usually read the table without locks.
 	 */
-	private ArrayList<LatestEventBuffer> buffers;
+	private volatile AtomicReferenceArray<LatestEventBuffer> buffers;
 	
 	/**
 	 * The directory to store execution traces
@@ -72,6 +109,11 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 * Use a JSON format or not 
 	 */
 	private boolean outputJson;
+
+	/**
+	 * Use a binary format instead of a text format
+	 */
+	private boolean outputBinary;
 	
 	/**
 	 * Object to record error messages 
@@ -79,8 +121,9 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	private IErrorLogger logger;
 	
 	/**
+	 * This flag is set when the logger stops recording events.
 	 */
-	private boolean closed;
+	private volatile boolean closed;
 	
 	/**
 	 * For id-based object recoding. 
@@ -92,6 +135,34 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	private int saveCount;
 
+	/**
+	 * A lock to write trace files one by one
+	 */
+	private final Object saveLock = new Object();
+
+	/**
+	 * The buffers being written to a trace file
+	 */
+	private volatile AtomicReferenceArray<LatestEventBuffer> outputTable;
+
+	/**
+	 * A thread to take snapshots.  This is null if snapshots are disabled.
+	 */
+	private ScheduledExecutorService snapshotExecutor;
+
+	/**
+	 * If true, each thread records events in its own buffers, 
+	 * so that the buffer locks are not contended.  
+	 * The buffers are merged when a trace is saved. 
+	 */
+	private boolean threadLocalBuffers;
+	
+	/**
+	 * Buffers owned by threads.  
+	 * This field is used if threadLocalBuffers is true.
+	 */
+	private volatile ThreadLocalBuffers localBuffers;
+
 	/**
 	 * This object generates a sequence number for each event.
 	 * Each event has a sequence number from 1 representing 
@@ -99,9 +170,35 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	private static AtomicLong seqnum = new AtomicLong(0);
 
+	/**
+	 * The number of sequence numbers reserved by a thread at once.
+	 */
+	private static final int SEQNUM_BLOCK_SIZE = 1024;
+
+	/**
+	 * A slot of ThreadContext to keep sequence numbers reserved by each thread.
+	 */
+	private static final int SEQNUM_SLOT = ThreadContext.newSlot();
+
+	/**
+	 * A slot of ThreadContext to keep the thread-local buffers of this logger.
+	 */
+	private final int localBuffersSlot = ThreadContext.newSlot();
+
+	/**
+	 * @return the next sequence number to be reserved.
+	 * If threads reserve blocks of sequence numbers, 
+	 * some of the smaller numbers may be not used yet.
+	 */
 	public static long getSeqnum() {
 		return seqnum.get();
 	}
+	
+	/**
+	 * If true, each thread reserves a block of sequence numbers 
+	 * instead of incrementing the shared counter for each event. 
+	 */
+	private boolean threadLocalSeqnum;
 
 	/**
 	 * Create an instance of this logger.
@@ -114,7 +211,9 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 		super("nearomni");
 		this.traceFile = traceFile;
 		this.bufferSize = bufferSize;
-		this.buffers = new ArrayList<>();
+		this.activeBufferSize = bufferSize;
+		this.budget = new MemoryBudget(0);
+		this.buffers = new AtomicReferenceArray<>(INITIAL_TABLE_SIZE);
 		this.keepObject = keepObject;
 		this.outputJson = outputJson;
 		this.logger = errorLogger;
@@ -124,92 +223,533 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	}
 	
 	/**
-	 * Save the recorded trace
+	 * Enable or disable thread-local buffers.
+	 * This method must be called before recording events.
+	 * @param threadLocalBuffers If true, each thread records events in its own buffers.
+	 * The buffers are merged by sequence numbers when a trace is saved,
+	 * so that the trace includes the latest k events for each data ID. 
+	 * The owner thread still locks its buffer for each event, 
+	 * so that the events are visible to the thread merging the buffers.
 	 */
-	@Override
-	public synchronized void save(boolean resetTrace) {
-		saveCount++;
-		long t = System.currentTimeMillis();
-		File f = new File(traceFile.getAbsolutePath() + "." + Integer.toString(saveCount) + (outputJson? ".json": ".txt"));
-		try (PrintWriter w = new PrintWriter(new FileWriter(f))){
-			if (outputJson) {
-				saveJson(w);
-			} else {
-				saveText(w);
+	public void setThreadLocalBuffers(boolean threadLocalBuffers) {
+		this.threadLocalBuffers = threadLocalBuffers;
+		if (threadLocalBuffers) {
+			localBuffers = new ThreadLocalBuffers();
+		} else {
+			localBuffers = null;
+		}
+	}
+	
+	/**
+	 * Enable or disable the binary format.
+	 * @param outputBinary If true, trace files are written in the format 
+	 * defined by NearOmniBinaryWriter instead of JSON/CSV.
+	 */
+	public void setOutputBinary(boolean outputBinary) {
+		this.outputBinary = outputBinary;
+	}
+
+	/**
+	 * Set a threshold of memory usage.
+	 * This method must be called before recording events.
+	 * @param threshold specifies the maximum number of bytes 
+	 * estimated for the buffers.  If the value is not positive, 
+	 * the buffers are reduced only when OutOfMemoryError occurred.
+	 */
+	public void setMemoryThreshold(long threshold) {
+		this.budget = new MemoryBudget(threshold);
+	}
+
+	/**
+	 * Enable or disable thread-local sequence numbers.
+	 * This method must be called before recording events.
+	 * @param threadLocalSeqnum If true, each thread reserves a block of sequence numbers 
+	 * from the shared counter and assigns them to its events.
+	 * Sequence numbers are increasing in each thread, 
+	 * but they may not follow the actual order of events in different threads.
+	 * As the latest k events are selected by sequence numbers, 
+	 * a buffer recorded by multiple threads, or merged from thread-local buffers,
+	 * may keep older events instead of the actual latest ones.
+	 * If false, all threads increment the shared counter for each event 
+	 * so that sequence numbers represent the global order of events.
+	 */
+	public void setThreadLocalSeqnum(boolean threadLocalSeqnum) {
+		this.threadLocalSeqnum = threadLocalSeqnum;
+	}
+	
+	/**
+	 * @param ctx is the context of the current thread.
+	 * @return a sequence number for a new event.
+	 */
+	private long nextSeqnum(ThreadContext ctx) {
+		return nextSeqnum(ctx, threadLocalSeqnum);
+	}
+
+	/**
+	 * Assign a sequence number to a new event.
+	 * The numbers are shared by nearomni storages in the same process.
+	 * @param ctx is the context of the current thread.
+	 * @param threadLocalSeqnum specifies whether the current thread 
+	 * assigns a number from its own block or not. 
+	 * @return a sequence number for a new event.
+	 */
+	static long nextSeqnum(ThreadContext ctx, boolean threadLocalSeqnum) {
+		if (threadLocalSeqnum) {
+			SeqnumBlock block = (SeqnumBlock)ctx.get(SEQNUM_SLOT);
+			if (block == null) {
+				block = new SeqnumBlock();
+				ctx.set(SEQNUM_SLOT, block);
+			}
+			if (block.next == block.limit) {
+				block.next = seqnum.getAndAdd(SEQNUM_BLOCK_SIZE);
+				block.limit = block.next + SEQNUM_BLOCK_SIZE;
 			}
-		} catch (Throwable e) {
-			if (logger != null) logger.log(e);
+			return block.next++;
+		} else {
+			return seqnum.getAndIncrement();
 		}
-		if (logger != null) {
-			logger.log(Long.toString(System.currentTimeMillis() - t) + "ms used to save a trace");
+	}
+
+	/**
+	 * Take snapshots of the trace periodically.
+	 * Each snapshot is written to a partial trace file by a background thread, 
+	 * and then the recorded events are discarded.
+	 * @param interval specifies the interval in milliseconds.
+	 * If the value is not positive, snapshots are not taken.
+	 */
+	public synchronized void setSnapshotInterval(long interval) {
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdown();
+			snapshotExecutor = null;
+		}
+		if (interval > 0) {
+			snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "selogger-snapshot");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					takeSnapshot();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
 		}
-		buffers = null;
-		buffers = new ArrayList<>();
 	}
 
+	/**
+	 * Take a snapshot in the same way as the periodic snapshots.
+	 * This method is package-private so that test cases take snapshots 
+	 * without waiting for the scheduled thread.
+	 */
+	void takeSnapshot() {
+		if (!closed) save(true);
+	}
+
+	/**
+	 * Save the recorded trace to a partial trace file.
+	 * If resetTrace is true, recording threads switch to new buffers 
+	 * before the file is written, so that they are not blocked by the save.
+	 * After the file is written, the buffer size and the memory threshold 
+	 * reduced under memory pressure are restored for the new buffers.
+	 * @param resetTrace specifies whether the recorded events are discarded or not.  
+	 */
+	@Override
+	public void save(boolean resetTrace) {
+		Epoch epoch = resetTrace ? retireEpoch() : new Epoch(buffers, localBuffers);
+		writeEpoch(getPartialTraceFile(), epoch);
+		if (resetTrace) {
+			restoreBufferSize();
+		}
+	}
+
+	/**
+	 * Restore the buffer size for new data IDs and the memory threshold.
+	 * This method is called when the retired buffers are written, 
+	 * so that the memory is available for new buffers.
+	 */
+	private synchronized void restoreBufferSize() {
+		budget.restoreLimit();
+		activeBufferSize = bufferSize;
+		if (allocationStopped) {
+			allocationStopped = false;
+			if (logger != null) logger.log("Logger restarted recording new data IDs after a partial trace was saved.");
+		}
+	}
+
+	/**
+	 * @return a file name for the next partial trace.
+	 */
+	private synchronized File getPartialTraceFile() {
+		saveCount++;
+		return new File(traceFile.getAbsolutePath() + "." + Integer.toString(saveCount) + (outputBinary? ".bin": outputJson? ".json": ".txt"));
+	}
+
+	/**
+	 * Replace the buffers with new ones.
+	 * Recording threads immediately use the new buffers.
+	 * @return the replaced buffers.
+	 */
+	private synchronized Epoch retireEpoch() {
+		Epoch epoch = new Epoch(buffers, localBuffers);
+		buffers = new AtomicReferenceArray<>(buffers.length());
+		if (threadLocalBuffers) {
+			localBuffers = new ThreadLocalBuffers();
+		}
+		budget.reset();
+		return epoch;
+	}
 
+	/**
+	 * Write the events recorded in the buffers into a file.
+	 * An event recorded by another thread during the save 
+	 * may be included in the file.
+	 * @param f specifies a file.
+	 * @param epoch specifies the buffers.
+	 */
+	private void writeEpoch(File f, Epoch epoch) {
+		synchronized (saveLock) {
+			long t = System.currentTimeMillis();
+			try {
+				outputTable = epoch.localBuffers != null ? mergeThreadLocalBuffers(epoch.localBuffers, epoch.buffers.length()) : epoch.buffers;
+				if (outputBinary) {
+					super.saveBinary(f, bufferSize);
+				} else {
+					super.saveTrace(f, outputJson);
+				}
+			} catch (Throwable e) {
+				if (logger != null) logger.log(e);
+			} finally {
+				outputTable = null;
+			}
+			if (logger != null) {
+				logger.log(Long.toString(System.currentTimeMillis() - t) + "ms used to save a trace");
+			}
+		}
+	}
 
 	/**
 	 * Close the logger and save the contents into a file naemd "recentdata.txt".
 	 */
 	@Override
-	public synchronized void close() {
-		closed = true; 
+	public void close() {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			closed = true;
+			executor = snapshotExecutor;
+			snapshotExecutor = null;
+		}
+		if (executor != null) {
+			// A snapshot being written is completed before the final trace  
+			executor.shutdown();
+		}
 		if (objectIDs != null) {
 			objectIDs.close();
+			if (logger != null) logger.log(objectIDs.getCacheStatistics());
 		}
-		long t = System.currentTimeMillis();
-		try (PrintWriter w = new PrintWriter(new FileWriter(traceFile))){
-			if (outputJson) {
-				saveJson(w);
-			} else {
-				saveText(w);
-			}
-		} catch (Throwable e) {
-			if (logger != null) logger.log(e);
+		writeEpoch(traceFile, new Epoch(buffers, localBuffers));
+	}
+		
+	/**
+	 * Extend the buffer table for new data IDs.
+	 * The table is extended before the woven code of the class is executed.
+	 */
+	@Override
+	public void onCreated(List<DataInfo> events) {
+		super.onCreated(events);
+		int maxId = -1;
+		for (DataInfo d: events) {
+			maxId = Math.max(maxId, d.getDataId());
 		}
-		if (logger != null) {
-			logger.log(Long.toString(System.currentTimeMillis() - t) + "ms used to save a trace");
+		if (maxId >= 0) {
+			extendTable(maxId + 1);
 		}
 	}
-		
+
+	/**
+	 * Replace the buffer table with a larger one.
+	 * Buffers in the current table are copied to the new table.
+	 * @param size specifies the minimum number of entries. 
+	 * @return the latest table.
+	 */
+	private synchronized AtomicReferenceArray<LatestEventBuffer> extendTable(int size) {
+		AtomicReferenceArray<LatestEventBuffer> table = buffers;
+		if (table.length() < size) {
+			AtomicReferenceArray<LatestEventBuffer> newTable = new AtomicReferenceArray<>(Math.max(size, table.length() * 2));
+			for (int i=0; i<table.length(); i++) {
+				newTable.set(i, table.get(i));
+			}
+			buffers = newTable;
+			table = newTable;
+		}
+		return table;
+	}
+
+	/**
+	 * This method returns a buffer for a particular data ID.
+	 * A buffer is created if such a buffer does not exist.
+	 * The method reads the buffer table without locks; 
+	 * a new buffer is registered by compareAndSet.
+	 * @param type specifies a value type.
+	 * @param dataId specifies the data ID.
+	 * @return a buffer for the data ID.
+	 */
+	protected LatestEventBuffer prepareBuffer(Class<?> type, int dataId) {
+		return prepareBuffer(ThreadContext.get(), type, dataId);
+	}
+
 	/**
-	 * This method creates a buffer for a particular data ID if such a buffer does not exist.
+	 * This method returns a buffer for a particular data ID.
+	 * @param ctx is the context of the current thread.
 	 * @param type specifies a value type.
 	 * @param dataId specifies the data ID.
 	 * @return a buffer for the data ID.
 	 */
-	protected synchronized LatestEventBuffer prepareBuffer(Class<?> type, int dataId) {
+	private LatestEventBuffer prepareBuffer(ThreadContext ctx, Class<?> type, int dataId) {
 		if (!closed) {
-			try {
-				while (buffers.size() <= dataId) {
-					buffers.add(null);
+			if (budget.isExceeded()) {
+				reduceBuffers();
+			}
+			if (threadLocalBuffers) {
+				return prepareThreadLocalBuffer(ctx, type, dataId);
+			}
+			AtomicReferenceArray<LatestEventBuffer> table = buffers;
+			if (dataId < table.length()) {
+				LatestEventBuffer b = table.get(dataId);
+				if (b != null) return b;
+			}
+			return createBuffer(type, dataId);
+		}
+		return null;
+	}
+	
+	/**
+	 * Create a new buffer for a data ID and register it to the table.
+	 * If another thread registered a buffer for the same data ID, 
+	 * this method returns the registered buffer.
+	 * @param type specifies a value type.
+	 * @param dataId specifies the data ID.
+	 * @return a buffer for the data ID.
+	 */
+	private LatestEventBuffer createBuffer(Class<?> type, int dataId) {
+		try {
+			LatestEventBuffer created = null;
+			while (!closed && !allocationStopped) {
+				AtomicReferenceArray<LatestEventBuffer> table = buffers;
+				if (table.length() <= dataId) {
+					table = extendTable(dataId + 1);
 				}
-				LatestEventBuffer b = buffers.get(dataId);
+				LatestEventBuffer b = table.get(dataId);
 				if (b == null) {
-					b = new LatestEventBuffer(type, bufferSize, keepObject);
-					buffers.set(dataId, b);
+					if (created == null) {
+						created = allocateBuffer(type);
+						if (created == null) return null;
+					}
+					if (!table.compareAndSet(dataId, null, created)) continue;
+					b = created;
 				}
-				return b;
-			} catch (OutOfMemoryError e) {
-				// release the entire buffers
-				closed = true;
-				buffers = null;
-				buffers = new ArrayList<>();
-				logger.log("OutOfMemoryError: Logger discarded internal buffers to continue the current execution.");
+				if (b != created && created != null) {
+					// Another thread registered a buffer
+					budget.release(created.getMemoryUsage());
+					created = null;
+				}
+				// The table may be replaced by extendTable during the registration. 
+				// In that case, the buffer is registered to the new table.
+				if (table == buffers) return b;
+			}
+		} catch (OutOfMemoryError e) {
+			budget.freeze();
+		}
+		return null;
+	}
+
+	/**
+	 * Create a buffer if the memory budget is available.
+	 * @param type specifies a value type.
+	 * @return a new buffer.  null if the budget is not available. 
+	 */
+	private LatestEventBuffer allocateBuffer(Class<?> type) {
+		LatestEventBuffer b = LatestEventBuffer.create(type, activeBufferSize, keepObject);
+		if (budget.reserve(b.getMemoryUsage())) {
+			b.setMemoryBudget(budget);
+			return b;
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * This method returns a buffer owned by the current thread.
+	 * A buffer is created if such a buffer does not exist.
+	 * @param ctx is the context of the current thread.
+	 * @param type specifies a value type.
+	 * @param dataId specifies the data ID.
+	 * @return a buffer for the data ID.
+	 */
+	private LatestEventBuffer prepareThreadLocalBuffer(ThreadContext ctx, Class<?> type, int dataId) {
+		ThreadLocalBuffers current = localBuffers;
+		ThreadBuffers local = (ThreadBuffers)ctx.get(localBuffersSlot);
+		if (local == null || local.owner != current) {
+			// The first event of the thread in the current epoch
+			local = current.register();
+			ctx.set(localBuffersSlot, local);
+		}
+		LatestEventBuffer[] table = local.buffers;
+		if (dataId < table.length) {
+			LatestEventBuffer b = table[dataId];
+			if (b != null) return b;
+		}
+		if (allocationStopped) return null;
+		try {
+			if (table.length <= dataId) {
+				table = Arrays.copyOf(table, Math.max(dataId + 1, buffers.length()));
+				local.buffers = table;
 			}
+			LatestEventBuffer b = allocateBuffer(type);
+			table[dataId] = b;
+			// Publish the new buffer to the thread merging the buffers
+			local.buffers = table;
+			return b;
+		} catch (OutOfMemoryError e) {
+			budget.freeze();
 		}
 		return null;
 	}
+	
+	/**
+	 * Reduce the memory usage of buffers when the budget is exceeded.
+	 * This method halves k for new buffers and shrinks larger buffers.
+	 * Buffers are shrunk in the descending order of their memory usage;
+	 * among buffers of the same size, rarely executed ones are shrunk first.
+	 * The method stops shrinking when a quarter of the limit is available, 
+	 * so that frequently executed locations keep their events.
+	 * Buffers owned by threads are also shrunk under their locks.
+	 * If k is already 1, the logger stops creating new buffers. 
+	 */
+	private synchronized void reduceBuffers() {
+		if (!budget.isExceeded()) return;
+		int newSize = activeBufferSize / 2;
+		if (newSize < 1) {
+			if (!allocationStopped) {
+				allocationStopped = true;
+				if (logger != null) logger.log("Memory threshold reached: Logger stopped recording new data IDs to keep the recorded events.");
+			}
+		} else {
+			activeBufferSize = newSize;
+			ArrayList<ShrinkCandidate> candidates = getShrinkCandidates(newSize);
+			Collections.sort(candidates, new Comparator<ShrinkCandidate>() {
+				@Override
+				public int compare(ShrinkCandidate o1, ShrinkCandidate o2) {
+					if (o1.memoryUsage != o2.memoryUsage) {
+						return Long.compare(o2.memoryUsage, o1.memoryUsage);
+					} else {
+						return Long.compare(o1.count, o2.count);
+					}
+				}
+			});
+			long target = budget.getUsed() - budget.getLimit() / 4 * 3;
+			long reclaimed = 0;
+			int degraded = 0;
+			StringBuilder ids = new StringBuilder();
+			for (ShrinkCandidate c: candidates) {
+				if (reclaimed >= target) break;
+				long released = c.buffer.shrink(newSize);
+				if (released > 0) {
+					reclaimed += released;
+					degraded++;
+					if (degraded <= MAX_REPORTED_DATAIDS) {
+						if (ids.length() > 0) ids.append(",");
+						ids.append(c.dataId);
+					}
+				}
+			}
+			budget.release(reclaimed);
+			if (logger != null) {
+				logger.log("Memory threshold reached: Logger reduced the buffer size to " + newSize + " for new data IDs.");
+				if (degraded > 0) {
+					logger.log(degraded + " buffers were shrunk and " + reclaimed + " bytes were reclaimed.  Data IDs: " + ids.toString() + (degraded > MAX_REPORTED_DATAIDS ? ",..." : ""));
+				}
+			}
+		}
+		budget.clearExceeded();
+	}
+	
+	/**
+	 * @param newSize specifies the new buffer size.
+	 * @return buffers larger than the new size.
+	 * The buffers owned by threads are also included.
+	 */
+	private ArrayList<ShrinkCandidate> getShrinkCandidates(int newSize) {
+		ArrayList<ShrinkCandidate> candidates = new ArrayList<>();
+		AtomicReferenceArray<LatestEventBuffer> table = buffers;
+		for (int i=0; i<table.length(); i++) {
+			LatestEventBuffer b = table.get(i);
+			if (b != null && b.getCapacity() > newSize) {
+				candidates.add(new ShrinkCandidate(i, b));
+			}
+		}
+		ThreadLocalBuffers local = localBuffers;
+		if (local != null) {
+			for (ThreadBuffers t: local.getAll()) {
+				LatestEventBuffer[] localTable = t.buffers;
+				for (int i=0; i<localTable.length; i++) {
+					LatestEventBuffer b = localTable[i];
+					if (b != null && b.getCapacity() > newSize) {
+						candidates.add(new ShrinkCandidate(i, b));
+					}
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Merge the buffers owned by threads into a buffer table.
+	 * Each buffer is read under its lock, because the owner may be recording events.
+	 * Events recorded by other threads during the merge may be partially included.
+	 * @param local specifies the buffers owned by threads.
+	 * @param tableSize specifies the minimum size of the table.
+	 * @return a table including the merged buffers.
+	 */
+	private AtomicReferenceArray<LatestEventBuffer> mergeThreadLocalBuffers(ThreadLocalBuffers local, int tableSize) {
+		ArrayList<ThreadBuffers> all = local.getAll();
+		int size = 0;
+		for (ThreadBuffers t: all) {
+			size = Math.max(size, t.buffers.length);
+		}
+		AtomicReferenceArray<LatestEventBuffer> merged = new AtomicReferenceArray<>(Math.max(size, tableSize));
+		ArrayList<LatestEventBuffer> list = new ArrayList<>(all.size());
+		for (int dataId=0; dataId<size; dataId++) {
+			list.clear();
+			for (ThreadBuffers t: all) {
+				LatestEventBuffer[] table = t.buffers;
+				if (dataId < table.length && table[dataId] != null) {
+					list.add(table[dataId]);
+				}
+			}
+			if (list.size() == 1) {
+				merged.set(dataId, list.get(0));
+			} else if (list.size() > 1) {
+				merged.set(dataId, LatestEventBuffer.merge(list));
+			}
+		}
+		return merged;
+	}
 
 	/**
 	 * Record the event and the observed value.
 	 */
 	@Override
 	public void recordEvent(int dataId, boolean value) {
-		LatestEventBuffer b = prepareBuffer(boolean.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		BooleanEventBuffer b = (BooleanEventBuffer)prepareBuffer(ctx, boolean.class, dataId);
 		if (b != null) {
-			b.addBoolean(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addBoolean(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -218,9 +758,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, byte value) {
-		LatestEventBuffer b = prepareBuffer(byte.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		ByteEventBuffer b = (ByteEventBuffer)prepareBuffer(ctx, byte.class, dataId);
 		if (b != null) {
-			b.addByte(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addByte(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -229,9 +772,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, char value) {
-		LatestEventBuffer b = prepareBuffer(char.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		CharEventBuffer b = (CharEventBuffer)prepareBuffer(ctx, char.class, dataId);
 		if (b != null) {
-			b.addChar(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addChar(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -240,9 +786,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, double value) {
-		LatestEventBuffer b = prepareBuffer(double.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		DoubleEventBuffer b = (DoubleEventBuffer)prepareBuffer(ctx, double.class, dataId);
 		if (b != null) {
-			b.addDouble(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addDouble(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -251,9 +800,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, float value) {
-		LatestEventBuffer b = prepareBuffer(float.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		FloatEventBuffer b = (FloatEventBuffer)prepareBuffer(ctx, float.class, dataId);
 		if (b != null) {
-			b.addFloat(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addFloat(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -262,9 +814,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, int value) {
-		LatestEventBuffer b = prepareBuffer(int.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		IntEventBuffer b = (IntEventBuffer)prepareBuffer(ctx, int.class, dataId);
 		if (b != null) {
-			b.addInt(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addInt(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -273,9 +828,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, long value) {
-		LatestEventBuffer b = prepareBuffer(long.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		LongEventBuffer b = (LongEventBuffer)prepareBuffer(ctx, long.class, dataId);
 		if (b != null) {
-			b.addLong(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addLong(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}
 	
@@ -284,16 +842,21 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, Object value) {
+		ThreadContext ctx = ThreadContext.get();
 		if (keepObject == ObjectRecordingStrategy.Id) {
-			LatestEventBuffer b = prepareBuffer(ObjectId.class, dataId);
+			ObjectIdEventBuffer b = (ObjectIdEventBuffer)prepareBuffer(ctx, ObjectId.class, dataId);
 			if (b != null) {
 				ObjectId id = objectIDs.getObjectId(value);
-				b.addObjectId(id, seqnum.getAndIncrement(), ThreadId.get());
+				synchronized (b) {
+					b.addObjectId(id, nextSeqnum(ctx), ctx.getThreadId());
+				}
 			}				
 		} else {
-			LatestEventBuffer b = prepareBuffer(Object.class, dataId);
+			LatestEventBuffer.ObjectReferenceBuffer b = (LatestEventBuffer.ObjectReferenceBuffer)prepareBuffer(ctx, Object.class, dataId);
 			if (b != null) {
-				b.addObject(value, seqnum.getAndIncrement(), ThreadId.get());
+				synchronized (b) {
+					b.addObject(value, nextSeqnum(ctx), ctx.getThreadId());
+				}
 			}
 		}
 	}
@@ -303,9 +866,12 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	public void recordEvent(int dataId, short value) {
-		LatestEventBuffer b = prepareBuffer(short.class, dataId);
+		ThreadContext ctx = ThreadContext.get();
+		ShortEventBuffer b = (ShortEventBuffer)prepareBuffer(ctx, short.class, dataId);
 		if (b != null) {
-			b.addShort(value, seqnum.getAndIncrement(), ThreadId.get());
+			synchronized (b) {
+				b.addShort(value, nextSeqnum(ctx), ctx.getThreadId());
+			}
 		}
 	}	
 	
@@ -314,7 +880,17 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	protected boolean isRecorded(int dataid) {
-		return dataid < buffers.size() && buffers.get(dataid) != null;
+		return getBuffer(dataid) != null;
+	}
+
+	/**
+	 * @param dataId specifies an event.
+	 * @return the buffer for the event in the table being written.  This may be null.
+	 */
+	private LatestEventBuffer getBuffer(int dataId) {
+		AtomicReferenceArray<LatestEventBuffer> table = outputTable;
+		if (table == null) table = buffers;
+		return dataId < table.length() ? table.get(dataId) : null;
 	}
 
 	/**
@@ -322,7 +898,7 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	protected void writeAttributes(JsonBuffer buf, DataInfo d) {
-		LatestEventBuffer b = buffers.get(d.getDataId());
+		LatestEventBuffer b = getBuffer(d.getDataId());
 		if (b != null) {
 			b.writeJson(buf, d.getValueDesc() == Descriptor.Void);
 		}
@@ -341,12 +917,121 @@ public class LatestEventLogger extends AbstractEventLogger implements IEventLogg
 	 */
 	@Override
 	protected void writeAttributes(StringBuilder builder, DataInfo d) {
-		LatestEventBuffer b = buffers.get(d.getDataId());
+		LatestEventBuffer b = getBuffer(d.getDataId());
 		if (b != null) {
 			builder.append(b.toString());
+			// A buffer shrunk under memory pressure has fewer columns
+			for (int i=b.getBufferSize(); i<bufferSize; i++) {
+				builder.append(",,,");
+			}
 		} else {
 			builder.append(LatestEventBuffer.getEmptyColumns(bufferSize));
 		}
 	}
+
+	/**
+	 * Write recorded events in a binary format
+	 */
+	@Override
+	protected void writeBinary(NearOmniBinaryWriter w, DataInfo d) throws IOException {
+		LatestEventBuffer b = getBuffer(d.getDataId());
+		if (b != null) {
+			b.writeBinary(w, d);
+		}
+	}
+
+	/**
+	 * A set of buffers that record events in a period.
+	 */
+	private class Epoch {
+
+		private final AtomicReferenceArray<LatestEventBuffer> buffers;
+		
+		/**
+		 * Buffers owned by threads.  This is null if the threads share the buffers.
+		 */
+		private final ThreadLocalBuffers localBuffers;
+
+		public Epoch(AtomicReferenceArray<LatestEventBuffer> buffers, ThreadLocalBuffers localBuffers) {
+			this.buffers = buffers;
+			this.localBuffers = localBuffers;
+		}
+	}
+
+	/**
+	 * A buffer to be shrunk under memory pressure.
+	 * The memory usage and the count are taken when the object is created, 
+	 * so that the candidates are sorted while threads are recording events.
+	 */
+	private static class ShrinkCandidate {
+
+		private final int dataId;
+		private final LatestEventBuffer buffer;
+		private final long memoryUsage;
+		private final long count;
+
+		public ShrinkCandidate(int dataId, LatestEventBuffer buffer) {
+			this.dataId = dataId;
+			this.buffer = buffer;
+			this.memoryUsage = buffer.getMemoryUsage();
+			this.count = buffer.count();
+		}
+	}
+
+	/**
+	 * A range of sequence numbers reserved by a thread.
+	 */
+	private static class SeqnumBlock {
+		
+		private long next;
+		private long limit;
+	}
+
+	/**
+	 * Buffers owned by a single thread.
+	 * Only the owner thread writes events to the buffers.
+	 */
+	private static class ThreadBuffers {
+		
+		private final ThreadLocalBuffers owner;
+		
+		/**
+		 * The table of buffers.  The owner thread writes this field 
+		 * after a new buffer is added, so that the merging thread reads the buffer.
+		 */
+		private volatile LatestEventBuffer[] buffers;
+		
+		public ThreadBuffers(ThreadLocalBuffers owner, int size) {
+			this.owner = owner;
+			buffers = new LatestEventBuffer[size];
+		}
+	}
+	
+	/**
+	 * A class to manage ThreadBuffers of threads in an epoch.
+	 * Each thread keeps its ThreadBuffers in its ThreadContext.
+	 */
+	private class ThreadLocalBuffers {
+		
+		/**
+		 * This keeps objects in a list so that the buffers 
+		 * can be merged when a trace is saved. 
+		 */
+		private ArrayList<ThreadBuffers> list = new ArrayList<>();
+
+		/**
+		 * @return new buffers for the current thread.
+		 */
+		public synchronized ThreadBuffers register() {
+			ThreadBuffers b = new ThreadBuffers(this, buffers.length());
+			list.add(b);
+			return b;
+		}
+
+		public synchronized ArrayList<ThreadBuffers> getAll() {
+			// Return a copy to avoid ConcurrentModificationException 
+			return new ArrayList<>(list);
+		}
+	}
 	
 }
@@ -0,0 +1,90 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import selogger.logging.util.JsonBuffer;
+
+/**
+ * A buffer to record the latest long values for a data ID.
+ */
+final class LongEventBuffer extends LatestEventBuffer {
+
+	private long[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public LongEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new long[getCapacity()];
+	}
+
+	/**
+	 * Write a value to the next position.
+	 * If the buffer is already full, it overwrites the oldest one.
+	 */
+	public void addLong(long value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	/**
+	 * Get the i-th event data in the buffer.
+	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
+	 * @return a long integer recorded for the event
+	 */
+	public long getLong(int i) {
+		return values[getPos(i)];
+	}
+
+	@Override
+	protected int getValueBytes() {
+		return 8;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		long[] newValues = new long[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new LongEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((LongEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		buf.append(values[pos]);
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		buf.writeNumber(values[pos]);
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_LONG;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		w.writeValue(values[pos]);
+	}
+
+}
@@ -0,0 +1,187 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import selogger.logging.util.FileNameGenerator;
+
+/**
+ * This class writes events to memory-mapped log files.
+ * Each file is pre-allocated for BinaryStreamLogger.MAX_EVENTS_PER_FILE events.
+ * A caller reserves a position by an atomic counter and writes an event
+ * with absolute puts, so that threads can write events concurrently without locks.
+ * The OS writes back the mapped pages to the files.
+ * When the output is closed, it waits for the threads writing events,
+ * releases the mapped buffers, and then truncates the last file to the written events.
+ * If the OS rejects the truncation (e.g. the file is still mapped on Windows),
+ * the number of events in the file is written to a file having BinaryStreamLogger.LOG_SUFFIX_COUNT,
+ * so that a reader ignores the unused space.
+ * Unlike other IBinaryEventOutput implementations, this class is thread-safe.
+ */
+public class MappedEventOutput implements IBinaryEventOutput {
+
+	/**
+	 * The size of a file
+	 */
+	private static final long SEGMENT_BYTES = (long)BinaryStreamLogger.MAX_EVENTS_PER_FILE * BinaryStreamLogger.BYTES_PER_EVENT;
+
+	/**
+	 * A value to reject reservations after the output is closed
+	 */
+	private static final long CLOSED = Long.MAX_VALUE / 2;
+
+	private FileNameGenerator files;
+
+	/**
+	 * The index of the next event
+	 */
+	private final AtomicLong next = new AtomicLong();
+
+	/**
+	 * The number of threads that reserved positions and may be writing events
+	 */
+	private final LongAdder writers = new LongAdder();
+
+	/**
+	 * Mapped files.  The array is replaced when a new file is created.
+	 */
+	private volatile MappedByteBuffer[] segments;
+	private File[] segmentFiles;
+
+	/**
+	 * Create the first file.
+	 * @param files specifies file names.
+	 * @throws IOException
+	 */
+	public MappedEventOutput(FileNameGenerator files) throws IOException {
+		this.files = files;
+		this.segments = new MappedByteBuffer[0];
+		this.segmentFiles = new File[0];
+		getSegment(0);
+	}
+
+	/**
+	 * Write an event at a reserved position.
+	 * Events written after close are discarded.
+	 */
+	@Override
+	public void writeEvent(int dataId, int threadId, long value) throws IOException {
+		writers.increment();
+		try {
+			long index = next.getAndIncrement();
+			if (index >= CLOSED) return;
+			int seg = (int)(index / BinaryStreamLogger.MAX_EVENTS_PER_FILE);
+			int pos = (int)(index % BinaryStreamLogger.MAX_EVENTS_PER_FILE) * BinaryStreamLogger.BYTES_PER_EVENT;
+			MappedByteBuffer[] s = segments;
+			MappedByteBuffer buf = seg < s.length ? s[seg] : getSegment(seg);
+			buf.putInt(pos, dataId);
+			buf.putInt(pos + 4, threadId);
+			buf.putLong(pos + 8, value);
+		} finally {
+			writers.decrement();
+		}
+	}
+
+	/**
+	 * Write events at reserved positions.
+	 * The events may be split into two or more files.
+	 */
+	@Override
+	public void writeEvents(byte[] events, int count) throws IOException {
+		writers.increment();
+		try {
+			long index = next.getAndAdd(count);
+			if (index >= CLOSED) return;
+			int written = 0;
+			while (written < count) {
+				long i = index + written;
+				int seg = (int)(i / BinaryStreamLogger.MAX_EVENTS_PER_FILE);
+				int slot = (int)(i % BinaryStreamLogger.MAX_EVENTS_PER_FILE);
+				int n = Math.min(count - written, BinaryStreamLogger.MAX_EVENTS_PER_FILE - slot);
+				MappedByteBuffer[] s = segments;
+				MappedByteBuffer buf = (seg < s.length ? s[seg] : getSegment(seg)).duplicate();
+				buf.position(slot * BinaryStreamLogger.BYTES_PER_EVENT);
+				buf.put(events, written * BinaryStreamLogger.BYTES_PER_EVENT, n * BinaryStreamLogger.BYTES_PER_EVENT);
+				written += n;
+			}
+		} finally {
+			writers.decrement();
+		}
+	}
+
+	/**
+	 * Create files up to the specified segment.
+	 * @param seg specifies a segment index.
+	 * @return the mapped buffer of the segment.
+	 */
+	private synchronized MappedByteBuffer getSegment(int seg) throws IOException {
+		MappedByteBuffer[] s = segments;
+		if (seg < s.length) return s[seg];
+		MappedByteBuffer[] extended = Arrays.copyOf(s, seg + 1);
+		File[] extendedFiles = Arrays.copyOf(segmentFiles, seg + 1);
+		for (int i=s.length; i<=seg; i++) {
+			extendedFiles[i] = files.getNextFile();
+			try (RandomAccessFile f = new RandomAccessFile(extendedFiles[i], "rw")) {
+				f.setLength(SEGMENT_BYTES);
+				extended[i] = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+			}
+		}
+		segmentFiles = extendedFiles;
+		segments = extended;
+		return extended[seg];
+	}
+
+	/**
+	 * Stop accepting events, wait for the threads writing events, 
+	 * write back the mapped files, and truncate the last file.
+	 * This method is not synchronized, because a thread being waited 
+	 * may have to create a file.
+	 */
+	@Override
+	public void close() throws IOException {
+		long total = next.getAndSet(CLOSED);
+		if (total >= CLOSED) return;
+		// A thread that reserved positions before close increments the counter 
+		// before the reservation, so that it is observed here  
+		boolean interrupted = false;
+		while (writers.sum() > 0) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		File lastFile;
+		synchronized (this) {
+			int lastSegment = total > 0 ? (int)((total - 1) / BinaryStreamLogger.MAX_EVENTS_PER_FILE) : 0;
+			getSegment(lastSegment);
+			MappedByteBuffer[] s = segments;
+			for (int i=0; i<s.length; i++) {
+				s[i].force();
+			}
+			// No thread accesses the buffers any more
+			segments = new MappedByteBuffer[0];
+			lastFile = segmentFiles[lastSegment];
+			total -= (long)lastSegment * BinaryStreamLogger.MAX_EVENTS_PER_FILE;
+		}
+		try (RandomAccessFile f = new RandomAccessFile(lastFile, "rw")) {
+			f.setLength(total * BinaryStreamLogger.BYTES_PER_EVENT);
+		} catch (IOException e) {
+			// The file is kept as is; the count tells the written events  
+			try (PrintWriter w = new PrintWriter(new FileWriter(new File(lastFile.getAbsolutePath() + BinaryStreamLogger.LOG_SUFFIX_COUNT)))) {
+				w.println(total);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package selogger.logging.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This object tracks the estimated number of bytes held by 
+ * LatestEventBuffer objects and compares it with a threshold.
+ * If a reservation exceeds the threshold, the object 
+ * remembers the fact so that a logger can reduce the buffers.
+ */
+final class MemoryBudget {
+
+	private final AtomicLong used = new AtomicLong(0);
+	private final long threshold;
+	private volatile long limit;
+	private volatile boolean exceeded;
+
+	/**
+	 * @param limit specifies the threshold in bytes.
+	 * If the value is not positive, no threshold is used.
+	 */
+	public MemoryBudget(long limit) {
+		this.threshold = limit > 0 ? limit : Long.MAX_VALUE;
+		this.limit = threshold;
+	}
+
+	/**
+	 * Reserve bytes for buffers.
+	 * @param bytes specifies the number of bytes to be allocated.
+	 * @return true if the bytes are available.  
+	 * If false, the caller should not allocate the memory.
+	 */
+	public boolean reserve(long bytes) {
+		long u = used.addAndGet(bytes);
+		if (u > limit) {
+			used.addAndGet(-bytes);
+			exceeded = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return bytes released from buffers.
+	 * @param bytes specifies the number of bytes.
+	 */
+	public void release(long bytes) {
+		used.addAndGet(-bytes);
+	}
+
+	/**
+	 * Use the current usage as the threshold.
+	 * This method is called when OutOfMemoryError occurred.
+	 * The threshold is restored by restoreLimit.
+	 */
+	public void freeze() {
+		limit = used.get();
+		exceeded = true;
+	}
+
+	/**
+	 * @return true if a reservation failed after the last clearExceeded call.
+	 */
+	public boolean isExceeded() {
+		return exceeded;
+	}
+
+	/**
+	 * Clear the flag after the buffers are reduced.
+	 */
+	public void clearExceeded() {
+		exceeded = false;
+	}
+
+	/**
+	 * Clear the usage when all the buffers are released.
+	 * The limit lowered by freeze is kept, because 
+	 * the released buffers may be still in use, e.g. to write a trace.
+	 */
+	public void reset() {
+		used.set(0);
+	}
+
+	/**
+	 * Restore the threshold given to the constructor.
+	 * This method is called when the buffers released by reset are garbage.
+	 */
+	public void restoreLimit() {
+		limit = threshold;
+	}
+
+	/**
+	 * @return the current threshold in bytes.
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the estimated number of bytes held by buffers.
+	 */
+	public long getUsed() {
+		return used.get();
+	}
+
+}
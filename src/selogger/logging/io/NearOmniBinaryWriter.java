@@ -0,0 +1,348 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import selogger.logging.util.JsonBuffer;
+import selogger.weaver.DataInfo;
+import selogger.weaver.method.OpcodesUtil;
+
+/**
+ * This class writes a near-omniscient execution trace in a binary format.
+ * The file comprises a header, column data, a string table, and a location table.
+ * All numbers are written in big endian.
+ *
+ * The header includes MAGIC, VERSION, the buffer size, the number of locations,
+ * the number of strings, a padding, the offset of the string table,
+ * and the offset of the location table.
+ *
+ * Column data are fixed-width arrays for each location:
+ * values (long), sequence numbers (long), thread IDs (int),
+ * and in case of objects, type names and string contents (int indices of the string table).
+ * Each column block starts at an 8-byte boundary.
+ *
+ * The string table includes (the number of strings + 1) offsets (long)
+ * followed by UTF-8 bytes of the strings.
+ *
+ * The location table is an array of fixed-size records sorted by data IDs.
+ * Each record includes the data ID, string indices for
+ * loadedFrom, filename, cname, mname, mdesc, mhash, event, valuetype, and attr,
+ * the line number, the instruction index, the value kind,
+ * the number of recorded events, the frequency, and the offset of the column data.
+ */
+public class NearOmniBinaryWriter {
+
+	public static final int MAGIC = 0x534C4E42; // "SLNB"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 40;
+	public static final int LOCATION_RECORD_SIZE = 72;
+
+	/**
+	 * A string index representing null
+	 */
+	public static final int NO_STRING = -1;
+
+	/**
+	 * An object ID representing a garbage-collected object
+	 */
+	public static final long OBJECT_GC = -1;
+
+	/**
+	 * Value kinds of locations.
+	 * Values are stored as long; float and double values are stored as their bits.
+	 * KIND_NONE represents a location whose values are not recorded.
+	 */
+	public static final int KIND_NONE = 0;
+	public static final int KIND_BOOLEAN = 1;
+	public static final int KIND_BYTE = 2;
+	public static final int KIND_CHAR = 3;
+	public static final int KIND_SHORT = 4;
+	public static final int KIND_INT = 5;
+	public static final int KIND_LONG = 6;
+	public static final int KIND_FLOAT = 7;
+	public static final int KIND_DOUBLE = 8;
+	public static final int KIND_OBJECT = 9;
+
+	private static final int OUTPUT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer out;
+	private int bufferSize;
+
+	private HashMap<String, Integer> stringIndex;
+	private ArrayList<String> strings;
+	private ByteBuffer locations;
+	private int locationCount;
+
+	/**
+	 * Columns of the current location
+	 */
+	private DataInfo current;
+	private int kind;
+	private long freq;
+	private int record;
+	private long[] values;
+	private long[] seqnums;
+	private int[] threads;
+	private int[] types;
+	private int[] contents;
+
+	/**
+	 * Create a file.
+	 * @param f specifies a file to be written.
+	 * @param bufferSize specifies the maximum number of events for each location.
+	 * @throws IOException
+	 */
+	public NearOmniBinaryWriter(File f, int bufferSize) throws IOException {
+		this.file = new RandomAccessFile(f, "rw");
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		this.out = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+		this.bufferSize = bufferSize;
+		this.stringIndex = new HashMap<>();
+		this.strings = new ArrayList<>();
+		this.locations = ByteBuffer.allocate(LOCATION_RECORD_SIZE * 1024);
+		this.values = new long[bufferSize];
+		this.seqnums = new long[bufferSize];
+		this.threads = new int[bufferSize];
+		this.types = new int[bufferSize];
+		this.contents = new int[bufferSize];
+		// The header is written by close()
+		out.position(HEADER_SIZE);
+	}
+
+	/**
+	 * Start writing events of a location.
+	 * @param d specifies the location.
+	 * @param kind specifies the type of values.
+	 * @param freq is the number of events observed at the location.
+	 * @param record is the number of events written for the location.
+	 */
+	public void startLocation(DataInfo d, int kind, long freq, int record) {
+		this.current = d;
+		this.kind = kind;
+		this.freq = freq;
+		this.record = 0;
+		if (values.length < record) {
+			values = new long[record];
+			seqnums = new long[record];
+			threads = new int[record];
+			types = new int[record];
+			contents = new int[record];
+		}
+	}
+
+	/**
+	 * Write a primitive value of the next event.
+	 * writeEvent must be called after this method.
+	 */
+	public void writeValue(long value) {
+		values[record] = value;
+	}
+
+	/**
+	 * Write an object of the next event.
+	 * writeEvent must be called after this method.
+	 * @param id is an object ID.  0 represents null.
+	 * @param type is a type name.
+	 * @param content is a string content.  This may be null.
+	 */
+	public void writeObject(long id, String type, String content) {
+		values[record] = id;
+		types[record] = getStringIndex(type);
+		contents[record] = getStringIndex(content);
+	}
+
+	/**
+	 * Complete an event.
+	 * @param seqnum is the sequence number of the event.
+	 * @param threadId is the thread ID of the event.
+	 */
+	public void writeEvent(long seqnum, int threadId) {
+		seqnums[record] = seqnum;
+		threads[record] = threadId;
+		record++;
+	}
+
+	/**
+	 * Write the columns and the record of the current location.
+	 * @throws IOException
+	 */
+	public void endLocation() throws IOException {
+		align();
+		long offset = getPosition();
+		for (int i=0; i<record; i++) {
+			ensure(8);
+			out.putLong(values[i]);
+		}
+		for (int i=0; i<record; i++) {
+			ensure(8);
+			out.putLong(seqnums[i]);
+		}
+		for (int i=0; i<record; i++) {
+			ensure(4);
+			out.putInt(threads[i]);
+		}
+		if (kind == KIND_OBJECT) {
+			for (int i=0; i<record; i++) {
+				ensure(4);
+				out.putInt(types[i]);
+			}
+			for (int i=0; i<record; i++) {
+				ensure(4);
+				out.putInt(contents[i]);
+			}
+		}
+
+		if (locations.remaining() < LOCATION_RECORD_SIZE) {
+			ByteBuffer extended = ByteBuffer.allocate(locations.capacity() * 2);
+			locations.flip();
+			extended.put(locations);
+			locations = extended;
+		}
+		DataInfo d = current;
+		locations.putInt(d.getDataId());
+		locations.putInt(getStringIndex(d.getFileContainer()));
+		locations.putInt(getStringIndex(d.getFileName()));
+		locations.putInt(getStringIndex(OpcodesUtil.getReadableTypeName(d.getMethodInfo().getClassName())));
+		locations.putInt(getStringIndex(d.getMethodInfo().getMethodName()));
+		locations.putInt(getStringIndex(d.getMethodInfo().getMethodDesc()));
+		locations.putInt(getStringIndex(d.getMethodInfo().getShortMethodHash()));
+		locations.putInt(getStringIndex(d.getEventType().name()));
+		locations.putInt(getStringIndex(d.getValueType()));
+		locations.putInt(getStringIndex(getAttributes(d)));
+		locations.putInt(d.getLine());
+		locations.putInt(d.getInstructionIndex());
+		locations.putInt(kind);
+		locations.putInt(record);
+		locations.putLong(freq);
+		locations.putLong(offset);
+		locationCount++;
+		current = null;
+	}
+
+	/**
+	 * @return attributes of a location in a JSON format.
+	 */
+	private String getAttributes(DataInfo d) {
+		if (d.getAttributes() == null) return null;
+		JsonBuffer buf = new JsonBuffer();
+		buf.writeStartObject();
+		d.getAttributes().foreach(buf);
+		buf.writeEndObject();
+		return buf.toString();
+	}
+
+	/**
+	 * Write the string table, the location table, and the header.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			// String table
+			align();
+			long stringTableOffset = getPosition();
+			ArrayList<byte[]> bytes = new ArrayList<>(strings.size());
+			long offset = 0;
+			ensure(8);
+			out.putLong(offset);
+			for (String s: strings) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				bytes.add(b);
+				offset += b.length;
+				ensure(8);
+				out.putLong(offset);
+			}
+			for (byte[] b: bytes) {
+				for (int i=0; i<b.length; ) {
+					ensure(1);
+					int len = Math.min(out.remaining(), b.length - i);
+					out.put(b, i, len);
+					i += len;
+				}
+			}
+
+			// Location table
+			align();
+			long locationTableOffset = getPosition();
+			locations.flip();
+			flush();
+			while (locations.hasRemaining()) {
+				channel.write(locations);
+			}
+
+			// Header
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(bufferSize);
+			header.putInt(locationCount);
+			header.putInt(strings.size());
+			header.putInt(0);
+			header.putLong(stringTableOffset);
+			header.putLong(locationTableOffset);
+			header.flip();
+			channel.write(header, 0);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @return an index of the string table.  NO_STRING for null.
+	 */
+	private int getStringIndex(String s) {
+		if (s == null) return NO_STRING;
+		Integer index = stringIndex.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.add(s);
+			stringIndex.put(s, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the position in the file where the next data is written.
+	 */
+	private long getPosition() throws IOException {
+		return channel.position() + out.position();
+	}
+
+	/**
+	 * Move the position to an 8-byte boundary.
+	 */
+	private void align() throws IOException {
+		while (getPosition() % 8 != 0) {
+			ensure(1);
+			out.put((byte)0);
+		}
+	}
+
+	/**
+	 * Make sure that the buffer has the specified space.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (out.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the buffer content to the file.
+	 */
+	private void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+}
@@ -0,0 +1,157 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import org.objectweb.asm.Type;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import selogger.logging.util.JsonBuffer;
+import selogger.weaver.method.InstructionAttributes;
+
+/**
+ * A buffer to record the latest object references for a data ID.
+ * The buffer keeps the objects alive until they are overwritten.
+ */
+final class ObjectEventBuffer extends LatestEventBuffer implements LatestEventBuffer.ObjectReferenceBuffer {
+
+	private Object[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public ObjectEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new Object[getCapacity()];
+	}
+
+	@Override
+	public void addObject(Object value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	/**
+	 * The size of a reference.  Referred objects are not included.
+	 */
+	@Override
+	protected int getValueBytes() {
+		return 8;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		Object[] newValues = new Object[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new ObjectEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((ObjectEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		appendObject(buf, values[pos], "null");
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		Object o = values[pos];
+		if (o == null) {
+			buf.writeNull();
+		} else {
+			writeObject(buf, o);
+		}
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_OBJECT;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		Object o = values[pos];
+		if (o == null) {
+			w.writeObject(0, null, null);
+		} else {
+			writeBinaryObject(w, o);
+		}
+	}
+
+	/**
+	 * Write an object for a CSV format.
+	 * A string is written with its content.
+	 * @param buf is the output.
+	 * @param o is an object to be written.
+	 * @param msg is written if the object is null.
+	 */
+	static void appendObject(StringBuilder buf, Object o, String msg) {
+		if (o == null) {
+			buf.append(msg);
+		} else {
+			String id = o.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(o));
+			if (o instanceof String) {
+				buf.append("\"");
+				buf.append(id);
+				buf.append(":");
+				JsonStringEncoder.getInstance().quoteAsString((String)o, buf);
+				buf.append("\"");
+			} else {
+				buf.append(id);
+			}
+		}
+	}
+
+	/**
+	 * Write an object for a JSON format.
+	 * A string is written with its content.
+	 * @param buf is the output.
+	 * @param o is an object to be written.
+	 * If the object is null, the object is regarded as garbage-collected.
+	 */
+	static void writeObject(JsonBuffer buf, Object o) {
+		buf.writeStartObject();
+		if (o != null) {
+			buf.writeStringField("id", Integer.toHexString(System.identityHashCode(o)));
+			buf.writeStringField(InstructionAttributes.ATTRIBUTE_TYPE_NAME, Type.getType(o.getClass()).getClassName());
+			if (o instanceof String) {
+				buf.writeEscapedStringField("str", (String)o);
+			}
+		} else {
+			buf.writeStringField("id", "<GC>");
+		}
+		buf.writeEndObject();
+	}
+
+	/**
+	 * Write an object for a binary format.
+	 * A string is written with its content.
+	 * @param w is the output.
+	 * @param o is an object to be written.
+	 * If the object is null, the object is regarded as garbage-collected.
+	 */
+	static void writeBinaryObject(NearOmniBinaryWriter w, Object o) {
+		if (o != null) {
+			w.writeObject(System.identityHashCode(o) & 0xFFFFFFFFL, Type.getType(o.getClass()).getClassName(), (o instanceof String) ? (String)o : null);
+		} else {
+			w.writeObject(NearOmniBinaryWriter.OBJECT_GC, null, null);
+		}
+	}
+
+}
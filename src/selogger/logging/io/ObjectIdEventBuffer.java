@@ -0,0 +1,166 @@
+package selogger.logging.io;
+
+import java.util.Arrays;
+
+import org.objectweb.asm.Type;
+
+import selogger.logging.util.JsonBuffer;
+import selogger.logging.util.ObjectId;
+import selogger.weaver.method.InstructionAttributes;
+
+/**
+ * A buffer to record the latest object IDs for a data ID.
+ * The buffer does not keep references to the objects.
+ */
+final class ObjectIdEventBuffer extends LatestEventBuffer {
+
+	private ObjectId[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public ObjectIdEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new ObjectId[getCapacity()];
+	}
+
+	/**
+	 * Write an object ID to the next position.
+	 * Differently from addObject method, this method records
+	 * only an ID without a reference.
+	 */
+	public void addObjectId(ObjectId value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = value;
+	}
+
+	/**
+	 * Get the i-th event data in the buffer.
+	 * @param i specifies an event.  0 indicates the oldest event in the buffer.
+	 * @return an object ID recorded for the event
+	 */
+	public ObjectId getObjectId(int i) {
+		return values[getPos(i)];
+	}
+
+	/**
+	 * A reference and an ObjectId object.
+	 */
+	@Override
+	protected int getValueBytes() {
+		return 40;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		ObjectId[] newValues = new ObjectId[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new ObjectIdEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((ObjectIdEventBuffer)from).values[fromPos];
+	}
+
+	/**
+	 * Write an object ID in the form of "type@id".
+	 */
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		ObjectId id = values[pos];
+		if (id == null) {
+			appendObjectId(buf, 0, null);
+		} else {
+			appendObjectId(buf, id.getId(), id.getClassName());
+		}
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		ObjectId id = values[pos];
+		if (id == null) {
+			writeObjectId(buf, 0, null, null);
+		} else {
+			writeObjectId(buf, id.getId(), id.getClassName(), id.getContent());
+		}
+	}
+
+	/**
+	 * Write an object ID for a CSV format in the form of "type@id".
+	 * This method is shared with OffHeapEventLogger to produce the same format.
+	 * @param buf is the output.
+	 * @param id is an object ID.  0 represents null.
+	 * @param className is a class name returned by Class.getName() or a type descriptor.
+	 */
+	static void appendObjectId(StringBuilder buf, long id, String className) {
+		if (id == 0) {
+			buf.append("null");
+			return;
+		}
+		buf.append(getTypeName(className));
+		buf.append("@");
+		buf.append(id);
+	}
+
+	/**
+	 * Write an object ID for a JSON format.
+	 * This method is shared with OffHeapEventLogger to produce the same format.
+	 * @param buf is the output.
+	 * @param id is an object ID.  0 represents null.
+	 * @param className is a class name returned by Class.getName() or a type descriptor.
+	 * @param content is a string content of the object.  This may be null.
+	 */
+	static void writeObjectId(JsonBuffer buf, long id, String className, String content) {
+		if (id == 0) {
+			buf.writeNull();
+			return;
+		}
+		buf.writeStartObject();
+		buf.writeStringField("id", Long.toString(id));
+		buf.writeStringField(InstructionAttributes.ATTRIBUTE_TYPE_NAME, getTypeName(className));
+		if (content != null) buf.writeStringField("str", content);
+		buf.writeEndObject();
+	}
+
+	/**
+	 * @param className is a class name returned by Class.getName() or a type descriptor.
+	 * @return a type name in the Java source form, e.g. "java.lang.String[]".
+	 */
+	private static String getTypeName(String className) {
+		if (className.startsWith("[") || (className.startsWith("L") && className.endsWith(";"))) {
+			return Type.getType(className.replace('.', '/')).getClassName();
+		} else {
+			return className;
+		}
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_OBJECT;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		ObjectId id = values[pos];
+		if (id == null) {
+			w.writeObject(0, null, null);
+		} else {
+			w.writeObject(id.getId(), id.getClassName(), id.getContent());
+		}
+	}
+
+}
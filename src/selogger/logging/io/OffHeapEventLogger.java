@@ -0,0 +1,858 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import selogger.logging.IErrorLogger;
+import selogger.logging.IEventLogger;
+import selogger.logging.util.JsonBuffer;
+import selogger.logging.util.ObjectIdMap;
+import selogger.logging.util.ThreadContext;
+import selogger.weaver.DataInfo;
+import selogger.weaver.method.Descriptor;
+
+/**
+ * This class is an implementation of IEventLogger that
+ * records a near-omniscient execution trace in direct memory.
+ * The output format is the same as LatestEventLogger.
+ *
+ * Each data ID has a fixed-size region in a slab.
+ * A region has a header (the number of events and a value type)
+ * and k slots; a slot includes a value, a sequence number, and a thread ID.
+ * Regions are allocated from the slabs when data IDs are first observed,
+ * until the total size of the slabs reaches the memory budget.
+ * After that, events of new data IDs are not recorded,
+ * while the recorded events are kept.
+ *
+ * Objects are recorded using object IDs in the same way as 
+ * ObjectRecordingStrategy.Id of LatestEventLogger.
+ * String contents and exception messages are kept on the Java heap
+ * while the events referring to them are kept in the regions,
+ * so that JSON, CSV, and binary traces are the same as LatestEventLogger.
+ * Thread-local buffers and periodic snapshots are not supported.
+ */
+public class OffHeapEventLogger extends AbstractEventLogger implements IEventLogger {
+
+	/**
+	 * The initial size of the region table.
+	 */
+	private static final int INITIAL_TABLE_SIZE = 65536;
+
+	/**
+	 * The default memory budget used if no budget is specified.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+	/**
+	 * The default size of a slab.
+	 */
+	private static final int DEFAULT_SLAB_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * A region header includes a count (long) and a value type (int).
+	 */
+	private static final int HEADER_SIZE = 16;
+	private static final int COUNT_OFFSET = 0;
+	private static final int TYPE_OFFSET = 8;
+
+	/**
+	 * A slot includes a value (long), a sequence number (long),
+	 * a thread ID (int), and a type index of an object (int).
+	 */
+	private static final int SLOT_SIZE = 24;
+	private static final int VALUE_OFFSET = 0;
+	private static final int SEQNUM_OFFSET = 8;
+	private static final int THREAD_OFFSET = 16;
+	private static final int OBJECT_TYPE_OFFSET = 20;
+
+	/**
+	 * A flag in the type index of an object.  
+	 * The flag indicates that the content of the object is kept in a content table.
+	 */
+	private static final int CONTENT_FLAG = 1 << 31;
+
+	/**
+	 * Table entries representing data IDs without regions.
+	 * A region address is encoded as (slab index + 1) &lt;&lt; 32 | offset.
+	 */
+	private static final long NOT_ALLOCATED = 0;
+	private static final long UNAVAILABLE = -1;
+
+	/**
+	 * The number of locks shared by regions.
+	 */
+	private static final int LOCK_COUNT = 256;
+
+	/**
+	 * Value types stored in region headers
+	 */
+	private static final int TYPE_BOOLEAN = 1;
+	private static final int TYPE_BYTE = 2;
+	private static final int TYPE_CHAR = 3;
+	private static final int TYPE_SHORT = 4;
+	private static final int TYPE_INT = 5;
+	private static final int TYPE_LONG = 6;
+	private static final int TYPE_FLOAT = 7;
+	private static final int TYPE_DOUBLE = 8;
+	private static final int TYPE_OBJECT = 9;
+
+	/**
+	 * The number of events to be recorded for each event location
+	 */
+	private int bufferSize;
+
+	/**
+	 * The size of a region for a data ID
+	 */
+	private int regionSize;
+
+	/**
+	 * The size of each slab
+	 */
+	private int slabSize;
+
+	/**
+	 * The maximum number of bytes allocated for slabs
+	 */
+	private long memoryBudget;
+
+	/**
+	 * The total size of allocated slabs
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Slabs storing regions
+	 */
+	private volatile ByteBuffer[] slabs;
+
+	/**
+	 * The next available position in the last slab
+	 */
+	private int slabTop;
+
+	/**
+	 * Region addresses indexed by data IDs
+	 */
+	private volatile AtomicLongArray regions;
+
+	/**
+	 * The number of allocated regions
+	 */
+	private int regionCount;
+
+	/**
+	 * The number of data IDs that were not recorded due to the budget
+	 */
+	private int rejectedCount;
+
+	/**
+	 * Locks to update regions.  A lock is selected by a data ID.
+	 */
+	private Object[] locks;
+
+	/**
+	 * The file to store execution traces
+	 */
+	private File traceFile;
+
+	/**
+	 * Use a JSON format or not
+	 */
+	private boolean outputJson;
+
+	/**
+	 * Use a binary format instead of a text format
+	 */
+	private boolean outputBinary;
+
+	/**
+	 * Object to record error messages
+	 */
+	private IErrorLogger logger;
+
+	/**
+	 * This flag is set when the logger stops recording events.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Object IDs recorded instead of object references
+	 */
+	private ObjectIdMap objectIDs;
+
+	/**
+	 * String contents of objects recorded in slots.  A table is selected by an object ID.
+	 */
+	private ContentTable[] contents;
+
+	/**
+	 * Type names of objects and their indices stored in slots
+	 */
+	private ConcurrentHashMap<String, Integer> typeIndex;
+	private ArrayList<String> typeNames;
+
+	/**
+	 * Record the number of partial trace files
+	 */
+	private int saveCount;
+
+	/**
+	 * If true, each thread reserves a block of sequence numbers
+	 */
+	private boolean threadLocalSeqnum;
+
+	/**
+	 * Create an instance of this logger.
+	 * @param traceFile specifies an output file.
+	 * @param bufferSize specifies the size of buffer ("k" in Near-Omniscient Debugging)
+	 * @param memoryBudget specifies the maximum number of bytes of direct memory used by this logger.
+	 * If the value is not positive, DEFAULT_MEMORY_BUDGET is used.
+	 * @param outputJson specifies whether the logger uses a json format or not.
+	 * @param errorLogger records error messages.
+	 */
+	public OffHeapEventLogger(File traceFile, int bufferSize, long memoryBudget, boolean outputJson, IErrorLogger errorLogger) {
+		super("nearomni");
+		this.traceFile = traceFile;
+		this.bufferSize = bufferSize;
+		this.regionSize = HEADER_SIZE + SLOT_SIZE * bufferSize;
+		this.memoryBudget = memoryBudget > 0 ? memoryBudget : DEFAULT_MEMORY_BUDGET;
+		this.slabSize = (int)Math.max(regionSize, Math.min(DEFAULT_SLAB_SIZE, this.memoryBudget));
+		this.slabs = new ByteBuffer[0];
+		this.regions = new AtomicLongArray(INITIAL_TABLE_SIZE);
+		this.outputJson = outputJson;
+		this.logger = errorLogger;
+		this.locks = new Object[LOCK_COUNT];
+		for (int i=0; i<LOCK_COUNT; i++) {
+			locks[i] = new Object();
+		}
+		this.objectIDs = new ObjectIdMap(65536);
+		this.contents = new ContentTable[LOCK_COUNT];
+		for (int i=0; i<LOCK_COUNT; i++) {
+			contents[i] = new ContentTable();
+		}
+		this.typeIndex = new ConcurrentHashMap<>();
+		this.typeNames = new ArrayList<>();
+	}
+
+	/**
+	 * Enable or disable thread-local sequence numbers.
+	 * @see LatestEventLogger#setThreadLocalSeqnum(boolean)
+	 */
+	public void setThreadLocalSeqnum(boolean threadLocalSeqnum) {
+		this.threadLocalSeqnum = threadLocalSeqnum;
+	}
+
+	/**
+	 * Enable or disable the binary format.
+	 * @see LatestEventLogger#setOutputBinary(boolean)
+	 */
+	public void setOutputBinary(boolean outputBinary) {
+		this.outputBinary = outputBinary;
+	}
+
+	/**
+	 * Extend the region table for new data IDs.
+	 */
+	@Override
+	public void onCreated(List<DataInfo> events) {
+		super.onCreated(events);
+		int maxId = -1;
+		for (DataInfo d: events) {
+			maxId = Math.max(maxId, d.getDataId());
+		}
+		if (maxId >= 0) {
+			extendTable(maxId + 1);
+		}
+	}
+
+	/**
+	 * Replace the region table with a larger one.
+	 * @param size specifies the minimum number of entries.
+	 * @return the latest table.
+	 */
+	private synchronized AtomicLongArray extendTable(int size) {
+		AtomicLongArray table = regions;
+		if (table.length() < size) {
+			AtomicLongArray newTable = new AtomicLongArray(Math.max(size, table.length() * 2));
+			for (int i=0; i<table.length(); i++) {
+				newTable.set(i, table.get(i));
+			}
+			regions = newTable;
+			table = newTable;
+		}
+		return table;
+	}
+
+	/**
+	 * @param dataId specifies a data ID.
+	 * @return the region address of the data ID.
+	 * NOT_ALLOCATED or UNAVAILABLE is returned if the data ID has no region.
+	 */
+	private long getRegion(int dataId) {
+		AtomicLongArray table = regions;
+		return dataId < table.length() ? table.get(dataId) : NOT_ALLOCATED;
+	}
+
+	/**
+	 * This method returns a region for a particular data ID.
+	 * A region is allocated if such a region does not exist.
+	 * @param type specifies a value type.
+	 * @param dataId specifies the data ID.
+	 * @return a region address.  UNAVAILABLE if the data ID is not recorded.
+	 */
+	private long prepareRegion(int type, int dataId) {
+		if (closed) return UNAVAILABLE;
+		long address = getRegion(dataId);
+		if (address != NOT_ALLOCATED) return address;
+		return allocateRegion(type, dataId);
+	}
+
+	/**
+	 * Allocate a region from the slabs and register it to the table.
+	 * @param type specifies a value type.
+	 * @param dataId specifies the data ID.
+	 * @return a region address.  UNAVAILABLE if the budget is exhausted.
+	 */
+	private synchronized long allocateRegion(int type, int dataId) {
+		AtomicLongArray table = extendTable(dataId + 1);
+		long address = table.get(dataId);
+		if (address != NOT_ALLOCATED) return address;
+
+		ByteBuffer[] current = slabs;
+		if (current.length == 0 || slabTop + regionSize > slabSize) {
+			if (allocatedBytes + slabSize > memoryBudget) {
+				return reject(table, dataId);
+			}
+			ByteBuffer slab;
+			try {
+				slab = ByteBuffer.allocateDirect(slabSize);
+			} catch (OutOfMemoryError e) {
+				return reject(table, dataId);
+			}
+			ByteBuffer[] extended = new ByteBuffer[current.length + 1];
+			System.arraycopy(current, 0, extended, 0, current.length);
+			extended[current.length] = slab;
+			allocatedBytes += slabSize;
+			slabTop = 0;
+			slabs = extended;
+			current = extended;
+		}
+		int offset = slabTop;
+		slabTop += regionSize;
+		ByteBuffer slab = current[current.length - 1];
+		slab.putLong(offset + COUNT_OFFSET, 0);
+		slab.putInt(offset + TYPE_OFFSET, type);
+		address = ((long)current.length << 32) | offset;
+		table.set(dataId, address);
+		regionCount++;
+		return address;
+	}
+
+	/**
+	 * Mark a data ID as not recorded.
+	 * @return UNAVAILABLE
+	 */
+	private long reject(AtomicLongArray table, int dataId) {
+		if (rejectedCount == 0 && logger != null) {
+			logger.log("Off-heap storage reached the memory budget (" + memoryBudget + " bytes).  Events of new data IDs are not recorded.");
+		}
+		rejectedCount++;
+		table.set(dataId, UNAVAILABLE);
+		return UNAVAILABLE;
+	}
+
+	/**
+	 * @return the slab including a region.
+	 */
+	private ByteBuffer getSlab(long address) {
+		return slabs[(int)(address >>> 32) - 1];
+	}
+
+	/**
+	 * @return the offset of a region in a slab.
+	 */
+	private static int getOffset(long address) {
+		return (int)address;
+	}
+
+	/**
+	 * Record an event in the region of a data ID.
+	 * @param type specifies a value type.
+	 * @param dataId specifies the data ID.
+	 * @param value is an encoded value.
+	 * @param objectType is a type index for an object.
+	 * @param content is a string content of an object.  This may be null.
+	 */
+	private void record(int type, int dataId, long value, int objectType, String content) {
+		long address = prepareRegion(type, dataId);
+		if (address == UNAVAILABLE) return;
+		ByteBuffer slab = getSlab(address);
+		int offset = getOffset(address);
+		ThreadContext ctx = ThreadContext.get();
+		synchronized (locks[dataId % LOCK_COUNT]) {
+			long count = slab.getLong(offset + COUNT_OFFSET);
+			int slot = offset + HEADER_SIZE + (int)(count % bufferSize) * SLOT_SIZE;
+			if (count >= bufferSize) {
+				// The oldest event is overwritten
+				releaseContent(slab, slot);
+			}
+			if (content != null) {
+				getContentTable(value).retain(value, content);
+				objectType |= CONTENT_FLAG;
+			}
+			slab.putLong(slot + VALUE_OFFSET, value);
+			slab.putLong(slot + SEQNUM_OFFSET, LatestEventLogger.nextSeqnum(ctx, threadLocalSeqnum));
+			slab.putInt(slot + THREAD_OFFSET, ctx.getThreadId());
+			slab.putInt(slot + OBJECT_TYPE_OFFSET, objectType);
+			slab.putLong(offset + COUNT_OFFSET, count + 1);
+		}
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, boolean value) {
+		record(TYPE_BOOLEAN, dataId, value ? 1 : 0, 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, byte value) {
+		record(TYPE_BYTE, dataId, value, 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, char value) {
+		record(TYPE_CHAR, dataId, value, 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, double value) {
+		record(TYPE_DOUBLE, dataId, Double.doubleToRawLongBits(value), 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, float value) {
+		record(TYPE_FLOAT, dataId, Float.floatToRawIntBits(value), 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, int value) {
+		record(TYPE_INT, dataId, value, 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, long value) {
+		record(TYPE_LONG, dataId, value, 0, null);
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 * An object is recorded as an object ID and its type.
+	 * A string content or an exception message is also recorded.
+	 */
+	@Override
+	public void recordEvent(int dataId, Object value) {
+		if (closed || getRegion(dataId) == UNAVAILABLE) return;
+		if (value != null) {
+			record(TYPE_OBJECT, dataId, objectIDs.getId(value), getTypeIndex(value.getClass().getName()), ObjectIdMap.getContent(value));
+		} else {
+			record(TYPE_OBJECT, dataId, 0, 0, null);
+		}
+	}
+
+	/**
+	 * Record the event and the observed value.
+	 */
+	@Override
+	public void recordEvent(int dataId, short value) {
+		record(TYPE_SHORT, dataId, value, 0, null);
+	}
+
+	/**
+	 * @param className is a class name of an object.
+	 * @return an index for the class name.
+	 */
+	private int getTypeIndex(String className) {
+		Integer index = typeIndex.get(className);
+		if (index != null) return index;
+		synchronized (typeNames) {
+			index = typeIndex.get(className);
+			if (index == null) {
+				index = typeNames.size();
+				typeNames.add(className);
+				typeIndex.put(className, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @return a type name for an index.
+	 */
+	private String getTypeName(int index) {
+		synchronized (typeNames) {
+			return typeNames.get(index & ~CONTENT_FLAG);
+		}
+	}
+
+	/**
+	 * @return a table storing the content of an object.
+	 */
+	private ContentTable getContentTable(long objectId) {
+		return contents[(int)(objectId % LOCK_COUNT)];
+	}
+
+	/**
+	 * @return the content of an object recorded in a slot.  This may be null.
+	 */
+	private String getContent(ByteBuffer slab, int slot) {
+		if ((slab.getInt(slot + OBJECT_TYPE_OFFSET) & CONTENT_FLAG) == 0) return null;
+		long value = slab.getLong(slot + VALUE_OFFSET);
+		return getContentTable(value).get(value);
+	}
+
+	/**
+	 * Release the content of an object recorded in a slot.
+	 * The caller must have the lock of the region.
+	 */
+	private void releaseContent(ByteBuffer slab, int slot) {
+		if ((slab.getInt(slot + OBJECT_TYPE_OFFSET) & CONTENT_FLAG) != 0) {
+			long value = slab.getLong(slot + VALUE_OFFSET);
+			getContentTable(value).release(value);
+		}
+	}
+
+	/**
+	 * Save the recorded trace
+	 */
+	@Override
+	public synchronized void save(boolean resetTrace) {
+		saveCount++;
+		File f = new File(traceFile.getAbsolutePath() + "." + Integer.toString(saveCount) + (outputBinary? ".bin": outputJson? ".json": ".txt"));
+		writeTrace(f);
+		if (resetTrace) {
+			AtomicLongArray table = regions;
+			for (int i=0; i<table.length(); i++) {
+				long address = table.get(i);
+				if (address != NOT_ALLOCATED && address != UNAVAILABLE) {
+					ByteBuffer slab = getSlab(address);
+					int offset = getOffset(address);
+					synchronized (locks[i % LOCK_COUNT]) {
+						long count = slab.getLong(offset + COUNT_OFFSET);
+						if (slab.getInt(offset + TYPE_OFFSET) == TYPE_OBJECT) {
+							for (int s=0; s<Math.min(count, bufferSize); s++) {
+								releaseContent(slab, getSlot(offset, count, s));
+							}
+						}
+						slab.putLong(offset + COUNT_OFFSET, 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Close the logger and save the contents into the trace file.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		objectIDs.close();
+		writeTrace(traceFile);
+		if (logger != null) {
+			logger.log(objectIDs.getCacheStatistics());
+			logger.log("Off-heap storage: " + allocatedBytes + " bytes allocated for " + regionCount + " data IDs");
+			if (rejectedCount > 0) {
+				logger.log("Off-heap storage: " + rejectedCount + " data IDs were not recorded");
+			}
+		}
+	}
+
+	/**
+	 * Write the recorded events to a file.
+	 */
+	private void writeTrace(File f) {
+		long t = System.currentTimeMillis();
+		try {
+			if (outputBinary) {
+				saveBinary(f, bufferSize);
+			} else {
+				saveTrace(f, outputJson);
+			}
+		} catch (Throwable e) {
+			if (logger != null) logger.log(e);
+		}
+		if (logger != null) {
+			logger.log(Long.toString(System.currentTimeMillis() - t) + "ms used to save a trace");
+		}
+	}
+
+	/**
+	 * @return true if there exists an event
+	 */
+	@Override
+	protected boolean isRecorded(int dataid) {
+		long address = getRegion(dataid);
+		if (address == NOT_ALLOCATED || address == UNAVAILABLE) return false;
+		synchronized (locks[dataid % LOCK_COUNT]) {
+			return getSlab(address).getLong(getOffset(address) + COUNT_OFFSET) > 0;
+		}
+	}
+
+	/**
+	 * Write attributes in a JSON format
+	 */
+	@Override
+	protected void writeAttributes(JsonBuffer buf, DataInfo d) {
+		long address = getRegion(d.getDataId());
+		if (address == NOT_ALLOCATED || address == UNAVAILABLE) return;
+		ByteBuffer slab = getSlab(address);
+		int offset = getOffset(address);
+		synchronized (locks[d.getDataId() % LOCK_COUNT]) {
+			long count = slab.getLong(offset + COUNT_OFFSET);
+			int type = slab.getInt(offset + TYPE_OFFSET);
+			int len = (int)Math.min(count, bufferSize);
+			buf.writeNumberField("freq", count);
+			buf.writeNumberField("record", len);
+			if (d.getValueDesc() != Descriptor.Void) {
+				buf.writeArrayFieldStart("value");
+				for (int i=0; i<len; i++) {
+					writeValue(buf, slab, getSlot(offset, count, i), type);
+				}
+				buf.writeEndArray();
+			}
+			buf.writeArrayFieldStart("seqnum");
+			for (int i=0; i<len; i++) {
+				buf.writeNumber(slab.getLong(getSlot(offset, count, i) + SEQNUM_OFFSET));
+			}
+			buf.writeEndArray();
+			buf.writeArrayFieldStart("thread");
+			for (int i=0; i<len; i++) {
+				buf.writeNumber(slab.getInt(getSlot(offset, count, i) + THREAD_OFFSET));
+			}
+			buf.writeEndArray();
+		}
+	}
+
+	/**
+	 * Write recorded events in a binary format.
+	 * The type constants of this class are the same as the value kinds of NearOmniBinaryWriter.
+	 */
+	@Override
+	protected void writeBinary(NearOmniBinaryWriter w, DataInfo d) throws IOException {
+		long address = getRegion(d.getDataId());
+		if (address == NOT_ALLOCATED || address == UNAVAILABLE) return;
+		ByteBuffer slab = getSlab(address);
+		int offset = getOffset(address);
+		synchronized (locks[d.getDataId() % LOCK_COUNT]) {
+			long count = slab.getLong(offset + COUNT_OFFSET);
+			int type = slab.getInt(offset + TYPE_OFFSET);
+			int len = (int)Math.min(count, bufferSize);
+			w.startLocation(d, type, count, len);
+			for (int i=0; i<len; i++) {
+				int slot = getSlot(offset, count, i);
+				long value = slab.getLong(slot + VALUE_OFFSET);
+				if (type == TYPE_OBJECT) {
+					if (value != 0) {
+						w.writeObject(value, getTypeName(slab.getInt(slot + OBJECT_TYPE_OFFSET)), getContent(slab, slot));
+					} else {
+						w.writeObject(0, null, null);
+					}
+				} else {
+					w.writeValue(value);
+				}
+				w.writeEvent(slab.getLong(slot + SEQNUM_OFFSET), slab.getInt(slot + THREAD_OFFSET));
+			}
+		}
+		w.endLocation();
+	}
+
+	/**
+	 * Calculate the i-th event data location in a region.
+	 * @param offset specifies a region.
+	 * @param count is the number of events recorded in the region.
+	 * @param i specifies an event.  0 indicates the oldest event in the region.
+	 * @return the position of the slot in the slab
+	 */
+	private int getSlot(int offset, long count, int i) {
+		int index = (count >= bufferSize) ? (int)((count + i) % bufferSize) : i;
+		return offset + HEADER_SIZE + index * SLOT_SIZE;
+	}
+
+	/**
+	 * Write a value in a JSON format.
+	 */
+	private void writeValue(JsonBuffer buf, ByteBuffer slab, int slot, int type) {
+		long value = slab.getLong(slot + VALUE_OFFSET);
+		switch (type) {
+		case TYPE_BOOLEAN:
+			buf.writeBoolean(value != 0);
+			break;
+		case TYPE_FLOAT:
+			buf.writeNumber(Float.intBitsToFloat((int)value));
+			break;
+		case TYPE_DOUBLE:
+			buf.writeNumber(Double.longBitsToDouble(value));
+			break;
+		case TYPE_OBJECT:
+			if (value == 0) {
+				ObjectIdEventBuffer.writeObjectId(buf, 0, null, null);
+			} else {
+				ObjectIdEventBuffer.writeObjectId(buf, value, getTypeName(slab.getInt(slot + OBJECT_TYPE_OFFSET)), getContent(slab, slot));
+			}
+			break;
+		default:
+			buf.writeNumber(value);
+		}
+	}
+
+	/**
+	 * Write a value in a CSV format.
+	 */
+	private void appendValue(StringBuilder buf, ByteBuffer slab, int slot, int type) {
+		long value = slab.getLong(slot + VALUE_OFFSET);
+		switch (type) {
+		case TYPE_BOOLEAN:
+			buf.append(value != 0);
+			break;
+		case TYPE_FLOAT:
+			buf.append(Float.intBitsToFloat((int)value));
+			break;
+		case TYPE_DOUBLE:
+			buf.append(Double.longBitsToDouble(value));
+			break;
+		case TYPE_OBJECT:
+			if (value == 0) {
+				ObjectIdEventBuffer.appendObjectId(buf, 0, null);
+			} else {
+				ObjectIdEventBuffer.appendObjectId(buf, value, getTypeName(slab.getInt(slot + OBJECT_TYPE_OFFSET)));
+			}
+			break;
+		default:
+			buf.append(value);
+		}
+	}
+
+	/**
+	 * Provide columns for a CSV format
+	 */
+	@Override
+	protected String getColumnNames() {
+		return LatestEventBuffer.getColumnNames(bufferSize);
+	}
+
+	/**
+	 * Write attributes in a CSV format
+	 */
+	@Override
+	protected void writeAttributes(StringBuilder builder, DataInfo d) {
+		long address = getRegion(d.getDataId());
+		if (address == NOT_ALLOCATED || address == UNAVAILABLE) {
+			builder.append(LatestEventBuffer.getEmptyColumns(bufferSize));
+			return;
+		}
+		ByteBuffer slab = getSlab(address);
+		int offset = getOffset(address);
+		synchronized (locks[d.getDataId() % LOCK_COUNT]) {
+			long count = slab.getLong(offset + COUNT_OFFSET);
+			int type = slab.getInt(offset + TYPE_OFFSET);
+			int len = (int)Math.min(count, bufferSize);
+			builder.append(count);
+			builder.append(",");
+			builder.append(len);
+			for (int i=0; i<bufferSize; i++) {
+				builder.append(",");
+				if (i>=len) {
+					builder.append(",");
+					builder.append(",");
+					continue;
+				}
+				int slot = getSlot(offset, count, i);
+				appendValue(builder, slab, slot, type);
+				builder.append(",");
+				builder.append(slab.getLong(slot + SEQNUM_OFFSET));
+				builder.append(",");
+				builder.append(slab.getInt(slot + THREAD_OFFSET));
+			}
+		}
+	}
+
+	/**
+	 * A table of string contents of objects.
+	 * A content is kept while the object is recorded in regions.
+	 */
+	private static class ContentTable {
+
+		private final HashMap<Long, Content> table = new HashMap<>();
+
+		/**
+		 * Add a reference to the content of an object.
+		 */
+		public synchronized void retain(long objectId, String text) {
+			Content c = table.get(objectId);
+			if (c == null) {
+				c = new Content(text);
+				table.put(objectId, c);
+			}
+			c.refs++;
+		}
+
+		/**
+		 * Remove a reference to the content of an object.
+		 */
+		public synchronized void release(long objectId) {
+			Content c = table.get(objectId);
+			if (c != null && --c.refs == 0) {
+				table.remove(objectId);
+			}
+		}
+
+		/**
+		 * @return the content of an object.  This may be null.
+		 */
+		public synchronized String get(long objectId) {
+			Content c = table.get(objectId);
+			return c != null ? c.text : null;
+		}
+	}
+
+	/**
+	 * The content of an object and the number of slots referring to the object.
+	 */
+	private static class Content {
+
+		private final String text;
+		private int refs;
+
+		public Content(String text) {
+			this.text = text;
+		}
+	}
+
+}
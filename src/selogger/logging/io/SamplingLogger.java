@@ -0,0 +1,215 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import selogger.logging.IErrorLogger;
+import selogger.logging.IEventLogger;
+import selogger.logging.ILoggingTarget;
+
+/**
+ * This logger reduces events of frequently executed locations.
+ * For each target data ID, the logger passes the first N occurrences
+ * to another logger, and then passes only one of M occurrences.
+ * The decision is made before the other logger looks up object IDs or writes files.
+ * Every occurrence of a target data ID is counted, and the counts are
+ * written to a file when this logger is closed,
+ * so that a reader can tell which locations have missing events.
+ * The decision is made for each data ID independently; 
+ * the entry and exit events of a method call may not be recorded together.
+ */
+public class SamplingLogger implements IEventLogger {
+
+	public static final String FILENAME = "sampling.txt";
+
+	/**
+	 * The number of counters in a page.
+	 * Counters are allocated by pages so that growing the table does not lose increments.
+	 */
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private IEventLogger logger;
+	private ILoggingTarget target;
+	private int first;
+	private int interval;
+	private IErrorLogger err;
+	private File countFile;
+
+	/**
+	 * The numbers of occurrences of data IDs
+	 */
+	private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+	/**
+	 * Create a logger.
+	 * @param logger receives sampled events.
+	 * @param target specifies data IDs to be sampled.  If null, all data IDs are sampled.
+	 * @param first specifies the number of occurrences recorded for each data ID before sampling.
+	 * @param interval specifies M; one of M occurrences is recorded after the first occurrences.
+	 * @param err records errors.
+	 * @param countFile specifies a file to record the counts.  It may be null.
+	 */
+	public SamplingLogger(IEventLogger logger, ILoggingTarget target, int first, int interval, IErrorLogger err, File countFile) {
+		this.logger = logger;
+		this.target = target;
+		this.first = Math.max(0, first);
+		this.interval = Math.max(1, interval);
+		this.err = err;
+		this.countFile = countFile;
+	}
+
+	/**
+	 * Count an occurrence of an event and decide whether the event is recorded or not.
+	 * @param dataId specifies an event.
+	 * @return true if the event should be passed to the logger.
+	 */
+	private boolean sample(int dataId) {
+		if (target != null && !target.isTarget(dataId)) return true;
+		long count = getPage(dataId >>> PAGE_BITS).incrementAndGet(dataId & PAGE_MASK);
+		return isRecorded(count);
+	}
+
+	/**
+	 * @param count is the number of occurrences including an event.
+	 * @return true if the event of the count is recorded.
+	 */
+	private boolean isRecorded(long count) {
+		return count <= first || (count - first - 1) % interval == 0;
+	}
+
+	/**
+	 * @param index specifies a page.
+	 * @return a page of counters.  The page is allocated if it does not exist.
+	 */
+	private AtomicLongArray getPage(int index) {
+		AtomicLongArray[] p = pages;
+		if (index < p.length) {
+			AtomicLongArray page = p[index];
+			if (page != null) return page;
+		}
+		synchronized (this) {
+			p = pages;
+			if (index >= p.length) {
+				AtomicLongArray[] newPages = new AtomicLongArray[Math.max(index + 1, p.length * 2)];
+				System.arraycopy(p, 0, newPages, 0, p.length);
+				p = newPages;
+			}
+			if (p[index] == null) {
+				p[index] = new AtomicLongArray(PAGE_SIZE);
+			}
+			pages = p;
+			return p[index];
+		}
+	}
+
+	/**
+	 * @param dataId specifies an event.
+	 * @return the number of occurrences of the event.
+	 * 0 if the event is not a target of sampling.
+	 */
+	public long getCount(int dataId) {
+		AtomicLongArray[] p = pages;
+		int index = dataId >>> PAGE_BITS;
+		if (index < p.length && p[index] != null) {
+			return p[index].get(dataId & PAGE_MASK);
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param dataId specifies an event.
+	 * @return the number of recorded occurrences of the event.
+	 * 0 if the event is not a target of sampling.
+	 */
+	public long getRecordedCount(int dataId) {
+		long count = getCount(dataId);
+		if (count <= first) return count;
+		return first + (count - first - 1) / interval + 1;
+	}
+
+	/**
+	 * Save the trace of the logger.
+	 * The counts are not reset because they decide the sampling.
+	 */
+	@Override
+	public void save(boolean resetTrace) {
+		logger.save(resetTrace);
+	}
+
+	/**
+	 * Close the logger and write the counts to the file.
+	 */
+	@Override
+	public void close() {
+		logger.close();
+		if (countFile != null) {
+			try (PrintWriter w = new PrintWriter(new FileWriter(countFile))) {
+				w.println("DataId,Occurrences,Recorded");
+				AtomicLongArray[] p = pages;
+				for (int i=0; i<p.length; i++) {
+					if (p[i] == null) continue;
+					for (int j=0; j<PAGE_SIZE; j++) {
+						int dataId = (i << PAGE_BITS) + j;
+						long count = p[i].get(j);
+						if (count > 0) {
+							w.println(dataId + "," + count + "," + getRecordedCount(dataId));
+						}
+					}
+				}
+			} catch (IOException e) {
+				err.log(e);
+			}
+		}
+	}
+
+	@Override
+	public void recordEvent(int dataId, Object value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, int value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, long value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, byte value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, short value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, char value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, boolean value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, double value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+
+	@Override
+	public void recordEvent(int dataId, float value) {
+		if (sample(dataId)) logger.recordEvent(dataId, value);
+	}
+}
@@ -0,0 +1,72 @@
+package selogger.logging.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import selogger.logging.util.FileNameGenerator;
+
+/**
+ * This class writes events to log files through a buffered stream.
+ * A new file is created when the current file includes
+ * BinaryStreamLogger.MAX_EVENTS_PER_FILE events.
+ */
+public class StreamEventOutput implements IBinaryEventOutput {
+
+	private FileNameGenerator files;
+	private DataOutputStream out;
+	private int count;
+
+	/**
+	 * Create the first file.
+	 * @param files specifies file names.
+	 * @throws IOException
+	 */
+	public StreamEventOutput(FileNameGenerator files) throws IOException {
+		this.files = files;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files.getNextFile())));
+		this.count = 0;
+	}
+
+	/**
+	 * Create a new file if the current file is full.
+	 */
+	private void prepareFile() throws IOException {
+		if (count >= BinaryStreamLogger.MAX_EVENTS_PER_FILE) {
+			out.close();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files.getNextFile())));
+			count = 0;
+		}
+	}
+
+	@Override
+	public void writeEvent(int dataId, int threadId, long value) throws IOException {
+		prepareFile();
+		out.writeInt(dataId);
+		out.writeInt(threadId);
+		out.writeLong(value);
+		count++;
+	}
+
+	/**
+	 * Write events.  The events may be split into two or more files.
+	 */
+	@Override
+	public void writeEvents(byte[] events, int count) throws IOException {
+		int written = 0;
+		while (written < count) {
+			prepareFile();
+			int n = Math.min(count - written, BinaryStreamLogger.MAX_EVENTS_PER_FILE - this.count);
+			out.write(events, written * BinaryStreamLogger.BYTES_PER_EVENT, n * BinaryStreamLogger.BYTES_PER_EVENT);
+			this.count += n;
+			written += n;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
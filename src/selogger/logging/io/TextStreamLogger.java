@@ -1,16 +1,15 @@
 package selogger.logging.io;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import selogger.logging.IErrorLogger;
 import selogger.logging.IEventLogger;
+import selogger.logging.util.CoarseClock;
 import selogger.logging.util.FileNameGenerator;
 import selogger.logging.util.ObjectIdFile;
-import selogger.logging.util.ThreadId;
+import selogger.logging.util.ThreadContext;
 import selogger.logging.util.TypeIdMap;
 import selogger.logging.util.ObjectIdFile.ExceptionRecording;
 
@@ -24,18 +23,49 @@ public class TextStreamLogger implements IEventLogger {
 	 */
 	public static final int MAX_EVENTS_PER_FILE = 10000000;
 	
+	/**
+	 * The size of the output buffer
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The maximum length of a seqnum, a timestamp, separators, and a line break
+	 */
+	private static final int MAX_EXTRA_LENGTH = 64;
+
+	private static final String HEADER = "Seqnum,DataId,ThreadId,Value";
+	private static final String HEADER_TIMESTAMP = ",Timestamp";
+
 	private File outputDir;
 	private FileNameGenerator files;
-	private PrintWriter out;
+	private FileOutputStream out;
 	private IErrorLogger err;
 	private int count;
 	private long seqnum;
 
+	/**
+	 * A buffer to write events to a file in bulk.
+	 * Each character of the text is written as a byte, 
+	 * since the output includes only ASCII characters.
+	 */
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+
 	private boolean recordTime;
 
+	/**
+	 * A clock to obtain timestamps.  If null, System.currentTimeMillis() is used.
+	 */
+	private CoarseClock clock;
+
 	private TypeIdMap typeToId;
 	private ObjectIdFile objectIdMap;
 
+	/**
+	 * A slot of ThreadContext to reuse a StringBuilder in each thread.
+	 */
+	private final int builderSlot = ThreadContext.newSlot();
+
 	
 	/**
 	 * Create an instance of logging object.
@@ -60,13 +90,46 @@ public class TextStreamLogger implements IEventLogger {
 		}
 	}
 	
+	/**
+	 * Specify how the contents of String objects are recorded.
+	 * This method must be called before recording events.
+	 * @param deduplicate If true, a content is written only once while it is remembered.
+	 * @param maxLength specifies the maximum length of a content.  0 indicates no limit.
+	 */
+	public void setStringOptions(boolean deduplicate, int maxLength) {
+		if (objectIdMap != null) {
+			objectIdMap.setStringOptions(deduplicate, maxLength);
+		}
+	}
+
+	/**
+	 * Use a coarse clock for timestamps instead of System.currentTimeMillis().
+	 * This method must be called before recording events.
+	 * The timestamps are still recorded in milliseconds.
+	 * @param clock is a clock shared with other components.
+	 */
+	public void setClock(CoarseClock clock) {
+		this.clock = clock;
+	}
+
 	/**
 	 * Close the stream.
 	 */
 	public synchronized void close() {
-		out.close();
-		out = null;
+		if (out != null) {
+			try {
+				flush();
+				out.close();
+			} catch (IOException e) {
+				err.log(e);
+			}
+			out = null;
+		}
 		objectIdMap.close();
+		err.log(objectIdMap.getCacheStatistics());
+		if (objectIdMap.getDroppedExceptionCount() > 0) {
+			err.log("ObjectIdFile: exceptions not recorded=" + objectIdMap.getDroppedExceptionCount());
+		}
 		typeToId.save(new File(outputDir, BinaryStreamLogger.FILENAME_TYPEID));
 	}
 
@@ -82,41 +145,102 @@ public class TextStreamLogger implements IEventLogger {
 	 * @throws IOException
 	 */
 	private void prepareFile() throws IOException {
-		if (out != null) out.close();
-		out = new PrintWriter(new BufferedWriter(new FileWriter(files.getNextFile()), 1024*1024));
-		StringBuilder builder = new StringBuilder(64);
-		builder.append("Seqnum,DataId,ThreadId,Value");
-		if (recordTime) builder.append(",Timestamp");
-		builder.append("\n");
-		out.write(builder.toString());
+		if (out != null) {
+			flush();
+			out.close();
+		}
+		out = new FileOutputStream(files.getNextFile());
+		append(HEADER);
+		if (recordTime) append(HEADER_TIMESTAMP);
+		buf[pos++] = '\n';
 		count = 0;
 	}
 
 	/**
-	 * Write an event data into a file.  The thread ID is also recorded. 
+	 * Write the buffered text to the file.
+	 */
+	private void flush() throws IOException {
+		out.write(buf, 0, pos);
+		pos = 0;
+	}
+
+	/**
+	 * Append ASCII characters to the buffer.
+	 */
+	private void append(CharSequence s) {
+		for (int i=0; i<s.length(); i++) {
+			buf[pos++] = (byte)s.charAt(i);
+		}
+	}
+
+	/**
+	 * Append a decimal number to the buffer without creating a String.
+	 */
+	private void append(long v) {
+		boolean negative = v < 0;
+		if (negative) {
+			buf[pos++] = '-';
+		} else {
+			v = -v; // Process a negative number to handle Long.MIN_VALUE
+		}
+		int begin = pos;
+		do {
+			buf[pos++] = (byte)('0' - (v % 10));
+			v /= 10;
+		} while (v != 0);
+		for (int i=begin, j=pos-1; i<j; i++, j--) {
+			byte t = buf[i];
+			buf[i] = buf[j];
+			buf[j] = t;
+		}
+	}
+
+	/**
+	 * Start a line of an event in a StringBuilder owned by the current thread.
+	 * The line includes the data ID and the thread ID.
+	 * The seqnum is added when the line is written to a file.
+	 * Integer values are appended without temporary objects, 
+	 * while StringBuilder.append(double) and append(float) 
+	 * may allocate temporary objects to format a value.
 	 * @param dataId specifies an event and its bytecode location.
-	 * @param value specifies a data value observed in the event.
+	 * @return the builder.  A caller appends a value to the builder.
 	 */
-	private synchronized void write(int dataId, String value) {
+	private StringBuilder prepareBuilder(int dataId) {
+		ThreadContext ctx = ThreadContext.get();
+		StringBuilder builder = (StringBuilder)ctx.get(builderSlot);
+		if (builder == null) {
+			builder = new StringBuilder(64);
+			ctx.set(builderSlot, builder);
+		}
+		builder.setLength(0);
+		builder.append(dataId);
+		builder.append(',');
+		builder.append(ctx.getThreadId());
+		builder.append(',');
+		return builder;
+	}
+
+	/**
+	 * Write an event data into a file.
+	 * @param builder includes a data ID, a thread ID, and a value of the event.
+	 */
+	private synchronized void write(StringBuilder builder) {
 		if (out != null) {
 			try {
 				if (count >= MAX_EVENTS_PER_FILE) {
 					prepareFile();
 				}
-				StringBuilder builder = new StringBuilder(64);
-				builder.append(seqnum);
-				builder.append(",");
-				builder.append(dataId);
-				builder.append(",");
-				builder.append(ThreadId.get());
-				builder.append(",");
-				builder.append(value);
+				if (pos + builder.length() + MAX_EXTRA_LENGTH > buf.length) {
+					flush();
+				}
+				append(seqnum);
+				buf[pos++] = ',';
+				append(builder);
 				if (recordTime) {
-					builder.append(",");
-					builder.append(System.currentTimeMillis());
+					buf[pos++] = ',';
+					append(clock != null ? clock.nowMillis() : System.currentTimeMillis());
 				}
-				builder.append("\n");
-				out.write(builder.toString());
+				buf[pos++] = '\n';
 				count++;
 				seqnum++;
 			} catch (IOException e) {
@@ -132,7 +256,7 @@ public class TextStreamLogger implements IEventLogger {
 	 * The object is translated into an object ID. 
 	 */
 	public void recordEvent(int dataId, Object value) {
-		write(dataId, Long.toString(objectIdMap.getId(value)));
+		write(prepareBuilder(dataId).append(objectIdMap.getId(value)));
 	}
 
 	/**
@@ -140,14 +264,14 @@ public class TextStreamLogger implements IEventLogger {
 	 * To simplify the file writing process, the value is translated into a long value.  
 	 */
 	public void recordEvent(int dataId, int value) {
-		write(dataId, Integer.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 	/**
 	 * Record an event and a long integer value.
 	 */
 	public void recordEvent(int dataId, long value) {
-		write(dataId, Long.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 	/**
@@ -155,7 +279,7 @@ public class TextStreamLogger implements IEventLogger {
 	 * To simplify the file writing process, the value is translated into a long value.  
 	 */
 	public void recordEvent(int dataId, byte value) {
-		write(dataId, Byte.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 	/**
@@ -163,7 +287,7 @@ public class TextStreamLogger implements IEventLogger {
 	 * To simplify the file writing process, the value is translated into a long value.  
 	 */
 	public void recordEvent(int dataId, short value) {
-		write(dataId, Short.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 	/**
@@ -171,7 +295,7 @@ public class TextStreamLogger implements IEventLogger {
 	 * To simplify the file writing process, the value is translated into a long value.  
 	 */
 	public void recordEvent(int dataId, char value) {
-		write(dataId, Integer.toString(value));
+		write(prepareBuilder(dataId).append((int)value));
 	}
 
 	/**
@@ -179,23 +303,25 @@ public class TextStreamLogger implements IEventLogger {
 	 * To simplify the file writing process, the value is translated into a long value (true = 1, false = 0).  
 	 */
 	public void recordEvent(int dataId, boolean value) {
-		write(dataId, Boolean.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 	/**
 	 * Record an event and a double number.
 	 * To simplify the file writing process, the value is translated into a long value preserving the information.
+	 * Note that formatting the value may allocate temporary objects.
 	 */
 	public void recordEvent(int dataId, double value) {
-		write(dataId, Double.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 	/**
 	 * Record an event and a float value.
 	 * To simplify the file writing process, the value is translated into a long value preserving the information.
+	 * Note that formatting the value may allocate temporary objects.
 	 */
 	public void recordEvent(int dataId, float value) {
-		write(dataId, Float.toString(value));
+		write(prepareBuilder(dataId).append(value));
 	}
 
 
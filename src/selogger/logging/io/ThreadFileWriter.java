@@ -0,0 +1,190 @@
+package selogger.logging.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import selogger.logging.IErrorLogger;
+import selogger.logging.util.CoarseClock;
+import selogger.logging.util.FileNameGenerator;
+import selogger.logging.util.ThreadContext;
+
+/**
+ * This class writes events of each thread to its own files
+ * (log-T[ThreadID]-[NUMBER].slt), so that threads do not contend on a stream.
+ * Each event has an ordering key: the time of a coarse clock in nanoseconds,
+ * increased by one if the thread recorded another event at the same time or later.
+ * The keys of a thread are strictly increasing, and the keys of different threads
+ * represent the order of events up to the resolution of the clock.
+ * A reader merges the files by the keys and then by thread IDs.
+ * An event is recorded as a key (long), a data ID (int), and a value (long).
+ * The file of a thread is closed when another thread finds the thread terminated,
+ * so that file descriptors are not exhausted by short-lived threads.
+ */
+class ThreadFileWriter {
+
+	private File outputDir;
+	private IErrorLogger err;
+
+	/**
+	 * A slot of ThreadContext to keep a file of a thread.
+	 */
+	private final int slot = ThreadContext.newSlot();
+
+	/**
+	 * A clock to assign ordering keys
+	 */
+	private final CoarseClock clock;
+
+	/**
+	 * True if the clock is created and closed by this object
+	 */
+	private final boolean ownClock;
+
+	/**
+	 * Files created for threads, and their owner threads.  
+	 * They are closed when the owner threads terminate or this object is closed.
+	 */
+	private final ConcurrentHashMap<ThreadFile, Thread> files = new ConcurrentHashMap<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Create an object with its own clock of the default resolution.
+	 * Files are created when threads record their first events.
+	 * @param outputDir specifies a directory for output files.
+	 * @param err records errors.
+	 */
+	public ThreadFileWriter(File outputDir, IErrorLogger err) {
+		this(outputDir, err, null);
+	}
+
+	/**
+	 * Create an object.  Files are created when threads record their first events.
+	 * @param outputDir specifies a directory for output files.
+	 * @param err records errors.
+	 * @param clock is a clock shared with other components.  
+	 * The caller closes the clock after this object is closed.
+	 * If null, this object creates and closes its own clock. 
+	 */
+	public ThreadFileWriter(File outputDir, IErrorLogger err, CoarseClock clock) {
+		this.outputDir = outputDir;
+		this.err = err;
+		this.ownClock = (clock == null);
+		this.clock = ownClock ? new CoarseClock(CoarseClock.DEFAULT_RESOLUTION) : clock;
+	}
+
+	/**
+	 * Record an event in a file of the current thread.
+	 * @param ctx is the context of the current thread.
+	 * @param dataId specifies an event and its bytecode location.
+	 * @param value specifies a data value observed in the event.
+	 */
+	public void write(ThreadContext ctx, int dataId, long value) {
+		ThreadFile f = (ThreadFile)ctx.get(slot);
+		if (f == null) {
+			if (closed) return;
+			closeTerminatedThreadFiles();
+			f = new ThreadFile(ctx.getThreadId());
+			files.put(f, Thread.currentThread());
+			ctx.set(slot, f);
+		}
+		f.write(clock.now(), dataId, value);
+	}
+
+	/**
+	 * Close the files of terminated threads.
+	 * This method is called when a new thread records its first event.
+	 */
+	private void closeTerminatedThreadFiles() {
+		for (Map.Entry<ThreadFile, Thread> entry: files.entrySet()) {
+			if (!entry.getValue().isAlive() && files.remove(entry.getKey(), entry.getValue())) {
+				entry.getKey().close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of files being written.
+	 */
+	int getOpenFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Close all the files.
+	 * Events recorded by other threads after this method are discarded.
+	 */
+	public void close() {
+		closed = true;
+		for (ThreadFile f: files.keySet()) {
+			f.close();
+		}
+		files.clear();
+		if (ownClock) clock.close();
+	}
+
+	/**
+	 * A sequence of files owned by a thread.
+	 * The methods are synchronized only to close the file from another thread.
+	 */
+	private class ThreadFile {
+
+		private FileNameGenerator names;
+		private DataOutputStream out;
+		private int count;
+
+		/**
+		 * The ordering key of the last event
+		 */
+		private long lastKey = Long.MIN_VALUE;
+
+		public ThreadFile(int threadId) {
+			names = new FileNameGenerator(outputDir, BinaryStreamLogger.LOG_PREFIX_THREAD + threadId + "-", BinaryStreamLogger.LOG_SUFFIX_THREAD);
+			try {
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(names.getNextFile())));
+			} catch (IOException e) {
+				err.log(e);
+			}
+		}
+
+		/**
+		 * Write an event.
+		 * @param time specifies the current time of the clock.
+		 * The key of the event is later than the last event of the thread.
+		 */
+		public synchronized void write(long time, int dataId, long value) {
+			if (out == null) return;
+			long key = time > lastKey ? time : lastKey + 1;
+			lastKey = key;
+			try {
+				if (count >= BinaryStreamLogger.MAX_EVENTS_PER_FILE) {
+					out.close();
+					out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(names.getNextFile())));
+					count = 0;
+				}
+				out.writeLong(key);
+				out.writeInt(dataId);
+				out.writeLong(value);
+				count++;
+			} catch (IOException e) {
+				out = null;
+				err.log(e);
+			}
+		}
+
+		public synchronized void close() {
+			if (out == null) return;
+			try {
+				out.close();
+			} catch (IOException e) {
+				err.log(e);
+			}
+			out = null;
+		}
+	}
+}
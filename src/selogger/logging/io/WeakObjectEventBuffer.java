@@ -0,0 +1,99 @@
+package selogger.logging.io;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import selogger.logging.util.JsonBuffer;
+
+/**
+ * A buffer to record the latest object references for a data ID.
+ * The buffer uses weak references so that 
+ * the objects can be garbage-collected.
+ */
+final class WeakObjectEventBuffer extends LatestEventBuffer implements LatestEventBuffer.ObjectReferenceBuffer {
+
+	private WeakReference<?>[] values;
+
+	/**
+	 * Create a buffer.
+	 * @param bufferSize specifies the size of this buffer.
+	 */
+	public WeakObjectEventBuffer(int bufferSize) {
+		super(bufferSize);
+		this.values = new WeakReference<?>[getCapacity()];
+	}
+
+	@Override
+	public void addObject(Object value, long seqnum, int threadId) {
+		int index = nextIndex(seqnum, threadId);
+		values[index] = (value != null) ? new WeakReference<>(value) : null;
+	}
+
+	/**
+	 * A reference and a WeakReference object.
+	 */
+	@Override
+	protected int getValueBytes() {
+		return 40;
+	}
+
+	@Override
+	protected void retainValues(int[] positions, int newCapacity) {
+		WeakReference<?>[] newValues = new WeakReference<?>[newCapacity];
+		for (int i=0; i<positions.length; i++) {
+			newValues[i] = values[positions[i]];
+		}
+		values = newValues;
+	}
+
+	@Override
+	protected void extendValues(int newCapacity) {
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	@Override
+	protected LatestEventBuffer createEmptyBuffer() {
+		return new WeakObjectEventBuffer(getBufferSize());
+	}
+
+	@Override
+	protected void copyValue(LatestEventBuffer from, int fromPos, int toPos) {
+		values[toPos] = ((WeakObjectEventBuffer)from).values[fromPos];
+	}
+
+	@Override
+	protected void appendValue(StringBuilder buf, int pos) {
+		WeakReference<?> ref = values[pos];
+		if (ref == null) {
+			buf.append("null");
+		} else {
+			ObjectEventBuffer.appendObject(buf, ref.get(), "<GC>");
+		}
+	}
+
+	@Override
+	protected void writeValue(JsonBuffer buf, int pos) {
+		WeakReference<?> ref = values[pos];
+		if (ref == null) {
+			buf.writeNull();
+		} else {
+			ObjectEventBuffer.writeObject(buf, ref.get());
+		}
+	}
+
+	@Override
+	protected int getValueKind() {
+		return NearOmniBinaryWriter.KIND_OBJECT;
+	}
+
+	@Override
+	protected void writeBinaryValue(NearOmniBinaryWriter w, int pos) {
+		WeakReference<?> ref = values[pos];
+		if (ref == null) {
+			w.writeObject(0, null, null);
+		} else {
+			ObjectEventBuffer.writeBinaryObject(w, ref.get());
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package selogger.logging.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock updated by a ticker thread at a fixed resolution.
+ * Loggers read the current time from a field instead of calling
+ * System.currentTimeMillis() or System.nanoTime() for each event.
+ * The time is represented in nanoseconds since the epoch;
+ * it is computed from System.nanoTime() and the wall-clock time when the clock started.
+ * The ticker thread also samples timelines at each tick.
+ */
+public class CoarseClock {
+
+	/**
+	 * The default resolution (1ms)
+	 */
+	public static final long DEFAULT_RESOLUTION = 1000000;
+
+	private final long resolution;
+	private final long epochBase;
+	private final long nanoBase;
+
+	private volatile long now;
+	private volatile boolean closed;
+
+	private final CopyOnWriteArrayList<Timeline> timelines = new CopyOnWriteArrayList<>();
+	private Thread ticker;
+
+	/**
+	 * Start a ticker thread.
+	 * @param resolution specifies the interval of updates in nanoseconds.
+	 */
+	public CoarseClock(long resolution) {
+		this.resolution = Math.max(1000, resolution);
+		this.epochBase = System.currentTimeMillis() * 1000000;
+		this.nanoBase = System.nanoTime();
+		this.now = epochBase;
+		this.ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, "selogger-clock");
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	/**
+	 * The main loop of the ticker thread.
+	 */
+	private void tick() {
+		while (!closed) {
+			LockSupport.parkNanos(resolution);
+			update();
+		}
+	}
+
+	/**
+	 * Update the current time and sample timelines.
+	 */
+	private void update() {
+		long t = epochBase + (System.nanoTime() - nanoBase);
+		now = t;
+		for (Timeline timeline: timelines) {
+			timeline.sample(t);
+		}
+	}
+
+	/**
+	 * @return the resolution of the clock in nanoseconds.
+	 */
+	public long getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * @return the time of the last tick in nanoseconds since the epoch.
+	 */
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * @return the time of the last tick in milliseconds since the epoch.
+	 */
+	public long nowMillis() {
+		return now / 1000000;
+	}
+
+	/**
+	 * Sample a timeline at each tick.
+	 * @param timeline is a timeline to be sampled.
+	 */
+	public void addTimeline(Timeline timeline) {
+		timelines.add(timeline);
+	}
+
+	/**
+	 * Stop the ticker thread and close the timelines.
+	 * The timelines are sampled at the last time.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(ticker);
+		boolean interrupted = false;
+		while (ticker.isAlive()) {
+			try {
+				ticker.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		update();
+		for (Timeline timeline: timelines) {
+			timeline.close();
+		}
+	}
+}
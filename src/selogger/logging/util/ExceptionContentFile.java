@@ -0,0 +1,217 @@
+package selogger.logging.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import selogger.logging.util.ObjectIdFile.ExceptionRecording;
+
+/**
+ * This class is to record messages and stack traces of exceptions.
+ * An application thread obtains the message and the stack trace of an exception,
+ * so that they are recorded as of the event and the exception is not kept alive.
+ * It passes them and the object IDs of its causes to a background thread, 
+ * and the background thread formats them and writes them to files.
+ * A stack trace is written only for the first exception having the trace;
+ * the following exceptions having the same trace refer to the first exception.
+ * The traces are remembered up to MAX_TRACES; a trace forgotten is written again.
+ * If the background thread cannot keep up with the application threads,
+ * exceptions are discarded and counted.
+ */
+public class ExceptionContentFile {
+
+	/**
+	 * The number of snapshots waiting for the background thread
+	 */
+	private static final int QUEUE_SIZE = 1024;
+
+	/**
+	 * The number of stack traces remembered for deduplication
+	 */
+	private static final int MAX_TRACES = 4096;
+
+	private StringFileListStream exceptionList;
+	private ExceptionRecording recordExceptions;
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * The number of exceptions discarded because the queue is full
+	 */
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Stack traces written to files, and the object IDs of the first exceptions having the traces.
+	 * The least recently used trace is removed if the map has too many traces.
+	 */
+	private LinkedHashMap<StackTrace, Long> traces = new LinkedHashMap<StackTrace, Long>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<StackTrace, Long> eldest) {
+			return size() > MAX_TRACES;
+		}
+	};
+
+	/**
+	 * Create an instance.
+	 * @param outputDir specifies a directory for storing output files.
+	 * @param recordExceptions specifies information to be recorded.
+	 * @throws IOException
+	 */
+	public ExceptionContentFile(File outputDir, ExceptionRecording recordExceptions) throws IOException {
+		this.exceptionList = new StringFileListStream(new FileNameGenerator(outputDir, "LOG$Exceptions", ".txt"));
+		this.recordExceptions = recordExceptions;
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "selogger-exceptions");
+				t.setDaemon(true);
+				return t;
+			}
+		}, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				dropped.increment();
+			}
+		});
+	}
+
+	/**
+	 * Record an exception.
+	 * The message and the stack trace are obtained by the caller thread.
+	 * @param objectId specifies the object ID of the exception.
+	 * @param t is the exception.
+	 * @param causeId specifies the object ID of the cause.
+	 * @param suppressedId specifies the object IDs of the suppressed exceptions.
+	 */
+	public void write(final long objectId, Throwable t, final long causeId, final long[] suppressedId) {
+		final String message;
+		final StackTraceElement[] trace;
+		try {
+			message = t.getMessage();
+			trace = (recordExceptions == ExceptionRecording.MessageAndStackTrace) ? t.getStackTrace() : null;
+		} catch (Throwable e) {
+			// ignore exceptions thrown by the methods of the exception 
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				format(objectId, message, trace, causeId, suppressedId);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of exceptions discarded because the background thread could not keep up.
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Write an exception to a file.
+	 * This method is called only by the background thread.
+	 * @param trace is null if stack traces are not recorded.
+	 */
+	private void format(long objectId, String message, StackTraceElement[] trace, long causeId, long[] suppressedId) {
+		StringBuilder builder = new StringBuilder(1028);
+		// Record exception message
+		builder.append(Long.toString(objectId));
+		builder.append(",M,");
+		builder.append(message);
+		builder.append("\n");
+
+		if (trace != null) {
+			// Record cause objects
+			builder.append(Long.toString(objectId));
+			builder.append(",CS,");
+			builder.append(Long.toString(causeId));
+			for (int i=0; i<suppressedId.length; ++i) {
+				builder.append(",");
+				builder.append(Long.toString(suppressedId[i]));
+			}
+			builder.append("\n");
+
+			// Record stack traces, or refer to an exception having the same trace
+			StackTrace key = new StackTrace(trace);
+			Long first = traces.get(key);
+			if (first != null) {
+				builder.append(Long.toString(objectId));
+				builder.append(",ST,");
+				builder.append(Long.toString(first));
+				builder.append("\n");
+			} else {
+				traces.put(key, objectId);
+				for (int i=0; i<trace.length; ++i) {
+					builder.append(Long.toString(objectId));
+					builder.append(",S,");
+					StackTraceElement e = trace[i];
+					builder.append(e.isNativeMethod() ? "T," : "F,");
+					builder.append(e.getClassName());
+					builder.append(",");
+					builder.append(e.getMethodName());
+					builder.append(",");
+					builder.append(e.getFileName());
+					builder.append(",");
+					builder.append(Integer.toString(e.getLineNumber()));
+					builder.append("\n");
+				}
+			}
+		}
+		exceptionList.write(builder.toString());
+	}
+
+	/**
+	 * Write the remaining snapshots and close the stream.
+	 */
+	public void close() {
+		executor.shutdown();
+		boolean interrupted = false;
+		while (!executor.isTerminated()) {
+			try {
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		exceptionList.close();
+	}
+
+	/**
+	 * A key to compare stack traces.
+	 * The hash code is computed once because a trace may include many elements.
+	 */
+	private static class StackTrace {
+
+		private final StackTraceElement[] elements;
+		private final int hash;
+
+		public StackTrace(StackTraceElement[] elements) {
+			this.elements = elements;
+			this.hash = Arrays.hashCode(elements);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof StackTrace) {
+				StackTrace another = (StackTrace)obj;
+				return hash == another.hash && Arrays.equals(elements, another.elements);
+			}
+			return false;
+		}
+	}
+}
@@ -176,6 +176,23 @@ public class JsonBuffer implements AttrProc {
 		needSeparator = true;
 	}
 
+	/**
+	 * Clear the content so that the buffer can be reused.
+	 */
+	public void reset() {
+		buf.setLength(0);
+		needSeparator = false;
+	}
+
+	/**
+	 * Append the JSON fragment in the buffer to a builder
+	 * without creating an intermediate string.
+	 * @param builder is the destination.
+	 */
+	public void appendTo(StringBuilder builder) {
+		builder.append(buf);
+	}
+
 	/**
 	 * @return a JSON fragment in the buffer. 
 	 */
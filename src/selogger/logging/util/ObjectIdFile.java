@@ -16,7 +16,7 @@ public class ObjectIdFile extends ObjectIdMap {
 	private StringFileListStream objectIdList;
 	private TypeIdMap typeToId;
 	private FileNameGenerator filenames;
-	private StringFileListStream exceptionList;
+	private ExceptionContentFile exceptionList;
 	private ExceptionRecording recordExceptions;
 	
 	private StringContentFile stringContentList;
@@ -47,7 +47,7 @@ public class ObjectIdFile extends ObjectIdMap {
 	 * @throws IOException
 	 */
 	public ObjectIdFile(File outputDir, boolean recordString, ExceptionRecording recordExceptions, TypeIdMap typeToId) throws IOException {
-		super(16 * 1024 * 1024);
+		super(1024 * 1024);
 		this.typeToId = typeToId;
 		
 		filenames = new FileNameGenerator(outputDir, "LOG$ObjectTypes", ".txt");
@@ -55,7 +55,7 @@ public class ObjectIdFile extends ObjectIdMap {
 
 		this.recordExceptions = recordExceptions;
 		if (this.recordExceptions != ExceptionRecording.Disabled) {
-			exceptionList = new StringFileListStream(new FileNameGenerator(outputDir, "LOG$Exceptions", ".txt"));
+			exceptionList = new ExceptionContentFile(outputDir, recordExceptions);
 		}
 		
 		if (recordString) {
@@ -63,6 +63,20 @@ public class ObjectIdFile extends ObjectIdMap {
 		}
 	}
 
+	/**
+	 * Specify how the contents of String objects are recorded.
+	 * This method must be called before recording objects.
+	 * @param deduplicate If true, a content is written only once while it is remembered.
+	 * @param maxLength specifies the maximum length of a content.  0 indicates no limit.
+	 * @see StringContentFile
+	 */
+	public void setStringOptions(boolean deduplicate, int maxLength) {
+		if (stringContentList != null) {
+			stringContentList.setDeduplication(deduplicate);
+			stringContentList.setMaxLength(maxLength);
+		}
+	}
+
 	/**
 	 * Register a type for each new object.
 	 * This is separated from onNewObjectId because this method 
@@ -103,43 +117,8 @@ public class ObjectIdFile extends ObjectIdMap {
 					suppressedId[i] = getId(suppressed[i]); 
 				}
 				
-				if (exceptionList != null && recordExceptions != ExceptionRecording.Disabled) {
-					StringBuilder builder = new StringBuilder(1028);
-					// Record exception message
-					builder.append(Long.toString(id));
-					builder.append(",M,");
-					builder.append(t.getMessage());
-					builder.append("\n");
-
-					if (recordExceptions == ExceptionRecording.MessageAndStackTrace) {
-						// Record cause objects
-						builder.append(Long.toString(id));
-						builder.append(",CS,");
-						builder.append(Long.toString(causeId));
-						for (int i=0; i<suppressedId.length; ++i) {
-							builder.append(",");
-							builder.append(Long.toString(suppressedId[i]));
-						}
-						builder.append("\n");
-
-						// Record sack traces
-						StackTraceElement[] trace = t.getStackTrace();
-						for (int i=0; i<trace.length; ++i) {
-							builder.append(Long.toString(id));
-							builder.append(",S,");
-							StackTraceElement e = trace[i];
-							builder.append(e.isNativeMethod() ? "T," : "F,");
-							builder.append(e.getClassName());
-							builder.append(",");
-							builder.append(e.getMethodName());
-							builder.append(",");
-							builder.append(e.getFileName());
-							builder.append(",");
-							builder.append(Integer.toString(e.getLineNumber()));
-							builder.append("\n");
-						}
-					}
-					exceptionList.write(builder.toString());
+				if (exceptionList != null) {
+					exceptionList.write(id, t, causeId, suppressedId);
 				}
 				
 			} catch (Throwable e) {
@@ -148,6 +127,14 @@ public class ObjectIdFile extends ObjectIdMap {
 		}
 	}
 	
+	/**
+	 * @return the number of exceptions whose contents are not recorded
+	 * because the background thread could not keep up.
+	 */
+	public long getDroppedExceptionCount() {
+		return exceptionList != null ? exceptionList.getDroppedCount() : 0;
+	}
+
 	/**
 	 * Close the files written by this object.
 	 */
@@ -1,22 +1,91 @@
 package selogger.logging.util;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 
 
 /**
  * This object assigns a unique ID to each object reference. 
  * Conceptually, this is a kind of IdentityHashMap from Object to long.
+ * 
+ * The map is an open-addressing hash table with parallel arrays
+ * of IDs and weak references, so that it does not allocate an entry object for each object.
+ * Each ID is stored with the upper bits of the identity hash code of the object;
+ * a lookup compares the bits before dereferencing a weak reference.
+ * 
+ * Threads look up the IDs of registered objects without locks.
+ * A new ID is assigned while holding the lock of this object, 
+ * so that an object gets exactly one ID and IDs are assigned in the order of calls.
+ * When the table is enlarged, entries are moved to a new table 
+ * a few slots at a time by the subsequent registrations; 
+ * lookups search both tables until the move is finished.
+ * 
+ * Each thread has a small direct-mapped cache of recently looked-up objects
+ * in front of the table.  The cache keeps the weak references of the table,
+ * so that a collected object never matches even if its identity hash code is reused.
+ * 
+ * Weak references are registered with a reference queue.
+ * Each registration removes a few entries of garbage-collected objects 
+ * taken from the queue, so that the capacity is proportional to the live objects.
  */
 public class ObjectIdMap {
 
+	/**
+	 * The number of slots moved to a new table for each registration
+	 */
+	private static final int MIGRATION_STEP = 64;
+
+	/**
+	 * The number of entries of garbage-collected objects removed for each registration
+	 */
+	private static final int PURGE_STEP = 64;
+
+	/**
+	 * The number of entries in a per-thread cache.  This must be a power of two.
+	 */
+	private static final int CACHE_SIZE = 8;
+
+	/**
+	 * The maximum capacity of a table.
+	 */
+	private static final int MAX_CAPACITY = 1 << 30;
+
 	private long nextId;
-	private Entry[] entries;
-	private int capacity;
+	private volatile Table table;
 	private int threshold;
-	private int andKey; 
-	private int size;
+	private volatile int size;
 	private int INT_MAX_BIT = 30;
+
+	/**
+	 * A table being moved to the current table.  null if no tables are being moved.
+	 */
+	private volatile Table migrating;
+
+	/**
+	 * The next bucket of the migrating table to be moved
+	 */
+	private int migrationIndex;
+
+	/**
+	 * References whose objects have been garbage-collected
+	 */
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	/**
+	 * A slot of ThreadContext to keep a cache of a thread
+	 */
+	private final int cacheSlot = ThreadContext.newSlot();
+
+	/**
+	 * The numbers of lookups answered by the caches of threads and the other lookups.
+	 * They are shared by threads, so that the caches are not kept after threads terminate.
+	 */
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
 	
 
 	/**
@@ -28,15 +97,15 @@ public class ObjectIdMap {
 		nextId = 1;
 		
 		// To ensure capacity == 0b100...000, so that andKey == 0b111...111
+		int capacity = 1;
 		for (int i=0; i<INT_MAX_BIT+1; ++i) {
 			capacity = 1 << i;
 			if (capacity > initialCapacity) {
 				break;
 			}
 		}
-		andKey = capacity - 1;
 		threshold = capacity / 2;
-		entries = new Entry[capacity];
+		table = new Table(capacity);
 	}
 	
 
@@ -46,41 +115,93 @@ public class ObjectIdMap {
 	 * @return an ID corresponding to the object.
 	 * 0 is returned for null.
 	 */
-	public synchronized long getId(Object o) {
+	public long getId(Object o) {
 		if (o == null) {
 			return 0L;
 		} 
 
 		int hash = System.identityHashCode(o);
-		
-		// Search the object.  If found, return the registered ID.
-        int index = hash & andKey;
-        Entry e = entries[index];
-        while (e != null) {
-            if (o == e.reference.get()) {
-            	return e.objectId;
-            }
-            e = e.next;
-        }
-        
-       	// If not found, create a new entry for the given object.
-        // First, prepares a new object
-        onNewObject(o); 
-
-        // Update an entry.  index is re-computed because andKey may be updated by onNewObject.
-       	index = hash & andKey;
-       	Entry oldEntry = entries[index];
-       	long id = nextId;
-       	nextId++;
-       	e = new Entry(o, id, oldEntry, hash);
-       	entries[index] = e;
-       	size++;
-       	onNewObjectId(o, id);
-        	
-        if (size >= threshold) {
-        	resize();
-        }
-        return id;
+
+		// Search the cache of the thread
+		ThreadContext ctx = ThreadContext.get();
+		Cache cache = (Cache)ctx.get(cacheSlot);
+		if (cache == null) {
+			cache = new Cache();
+			ctx.set(cacheSlot, cache);
+		}
+		int c = hash & (CACHE_SIZE - 1);
+		ObjectReference cached = cache.references[c];
+		if (cached != null && cached.get() == o) {
+			cacheHits.increment();
+			return cache.ids[c];
+		}
+		cacheMisses.increment();
+
+		// Search the object without locks.  
+		// The search is repeated if the tables are replaced during the search.
+		while (true) {
+			Table m = migrating;
+			Table t = table;
+			if (cache.fill(c, t, t.find(o, hash))) return cache.ids[c];
+			if (m != null) {
+				if (cache.fill(c, m, m.find(o, hash))) return cache.ids[c];
+			}
+			if (m == migrating && t == table) break;
+		}
+		return register(o, hash, cache, c);
+	}
+
+	/**
+	 * Search the object again and assign a new ID if it is not registered.
+	 * @param o is an object.
+	 * @param hash is the identity hash code of the object.
+	 * @param cache is the cache of the current thread.
+	 * @param c specifies an entry of the cache for the object.
+	 * @return an ID corresponding to the object.
+	 */
+	private synchronized long register(Object o, int hash, Cache cache, int c) {
+		Table t = table;
+		if (cache.fill(c, t, t.find(o, hash))) return cache.ids[c];
+		Table m = migrating;
+		if (m != null) {
+			if (cache.fill(c, m, m.find(o, hash))) return cache.ids[c];
+		}
+
+		// If not found, create a new entry for the given object.
+		// First, prepares a new object
+		onNewObject(o); 
+
+		// Update an entry.  The table is re-loaded because it may be updated by onNewObject.
+		long id = nextId;
+		nextId++;
+		if (size < threshold) {
+			ObjectReference ref = new ObjectReference(o, hash, queue);
+			table.add(ref, id);
+			size++;
+			cache.references[c] = ref;
+			cache.ids[c] = id;
+		} // else the table of the maximum capacity is full; the ID is not stored
+		onNewObjectId(o, id);
+
+		purge(PURGE_STEP);
+		if (migrating != null) {
+			migrate(MIGRATION_STEP);
+		}
+		t = table;
+		if (size >= threshold) {
+			// Remove all the collected objects before enlarging the table
+			purge(Integer.MAX_VALUE);
+		}
+		if (size >= threshold) {
+			// The table of the maximum capacity is not enlarged
+			if (t.length() < MAX_CAPACITY) {
+				resize(t.length() * 2);
+			}
+		} else if (t.getUsedSlots() >= t.length() - t.length() / 4) {
+			// Rebuild the table to remove the removed slots that make probing slow
+			resize(t.length());
+		}
+		return id;
 	}
  
 	/**
@@ -108,55 +229,104 @@ public class ObjectIdMap {
 	}
  
 	/**
-	 * Enlarge the internal array for entries.
-	 */
-	private void resize() {
-		if (capacity == (1<<INT_MAX_BIT)) {
-			capacity = Integer.MAX_VALUE;
-			threshold = Integer.MAX_VALUE;
-			andKey = capacity;
-		} else {
-			capacity = capacity * 2;
-			threshold = threshold * 2;
-			andKey = capacity - 1;
-		}
-
-		Entry[] newEntries = new Entry[capacity];
-		// Copy contents of the hash table
-		for (int from=0; from<entries.length; ++from) {
-			Entry fromEntry = entries[from];
-			entries[from] = null;
-			while (fromEntry != null) {
-				Entry nextEntry = fromEntry.next;
-				if (fromEntry.reference.get() != null) {
-					// Copy non-null entries 
-					int index = fromEntry.hashcode & andKey;
-					fromEntry.next = newEntries[index];
-					newEntries[index] = fromEntry;
+	 * Remove entries of garbage-collected objects.
+	 * An entry that is not moved to the current table yet is removed by the migration.
+	 * This method must be called while holding the lock.
+	 * @param count specifies the maximum number of entries to be removed.
+	 */
+	private void purge(int count) {
+		for (int i=0; i<count; ++i) {
+			ObjectReference ref = (ObjectReference)queue.poll();
+			if (ref == null) return;
+			if (table.remove(ref)) {
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * Start moving entries to a new table.
+	 * This method must be called while holding the lock.
+	 * @param capacity specifies the size of the new table.
+	 */
+	private void resize(int capacity) {
+		// Finish the previous resize
+		if (migrating != null) {
+			migrate(Integer.MAX_VALUE);
+		}
+		threshold = capacity / 2;
+		// Readers compare both fields after a search to detect this update
+		migrating = table;
+		migrationIndex = 0;
+		table = new Table(capacity);
+	}
+
+	/**
+	 * Move entries of the migrating table to the current table.
+	 * Entries of garbage-collected objects are removed.
+	 * The migrating table is not modified, so that concurrent readers can search it.
+	 * This method must be called while holding the lock.
+	 * @param slots specifies the maximum number of slots to be moved.
+	 */
+	private void migrate(int slots) {
+		Table from = migrating;
+		Table to = table;
+		int end = (int)Math.min(from.length(), (long)migrationIndex + slots);
+		for (int i=migrationIndex; i<end; ++i) {
+			ObjectReference ref = from.getReference(i);
+			if (ref != null && ref != ObjectReference.REMOVED) {
+				if (ref.get() != null) {
+					to.add(ref, from.getId(i));
 				} else {
-					// skip null object entry
-					fromEntry.next = null;
 					size--;
 				}
-				fromEntry = nextEntry;
 			}
 		}
-		entries = newEntries;
+		migrationIndex = end;
+		if (migrationIndex >= from.length()) {
+			migrating = null;
+		}
 	}
 	
 	/**
 	 * @return the number of objects stored in the map.
+	 * Entries of garbage-collected objects in the reference queue are removed before counting.
 	 */
-	public int size() {
+	public synchronized int size() {
+		purge(Integer.MAX_VALUE);
 		return size;
 	}
 	
+	/**
+	 * @return the number of lookups answered by the per-thread caches.
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that searched the table.
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * @return a message reporting the hit rate of the per-thread caches.
+	 */
+	public String getCacheStatistics() {
+		long hits = getCacheHits();
+		long total = hits + getCacheMisses();
+		String rate = total > 0 ? String.format(Locale.ROOT, "%.1f", hits * 100.0 / total) : "0.0";
+		return "ObjectIdMap: cache hits=" + hits + ", lookups=" + total + ", hit rate=" + rate + "%";
+	}
+
 	/**
 	 * @return the size of the hash table inside the map.
 	 * This method is declared for debugging. 
 	 */
 	public int capacity() {
-		return capacity;
+		return table.length();
 	}
 	
 	/**
@@ -168,31 +338,176 @@ public class ObjectIdMap {
 		if (value == null) return null;
 		long id = this.getId(value);
 		String typeName = value.getClass().getName();
-		String content = null;
+		return new ObjectId(id, typeName, getContent(value));
+	}
+
+	/**
+	 * @param value specifies an object.
+	 * @return a textual content recorded with the object ID.  
+	 * This is the string itself for a String, a message for a Throwable, and null for other objects.
+	 */
+	public static String getContent(Object value) {
 		if (value instanceof String) {
-			content = (String)value;
+			return (String)value;
 		} else if (value instanceof Throwable) {
-			content = ((Throwable)value).getMessage();
+			return ((Throwable)value).getMessage();
 		}
-		return new ObjectId(id, typeName, content);
+		return null;
 	}
 
 
 	
 	/**
-	 * A simple list structure to store a registered object and its ID.
+	 * A direct-mapped cache of a thread.
 	 */
-	private static class Entry {
-		private WeakReference<Object> reference;
-		private int hashcode;
-		private long objectId;
-		private Entry next;
-		
-		public Entry(Object o, long id, Entry e, int hashcode) {
-			this.reference = new WeakReference<Object>(o);
-			this.objectId = id;
-			this.next = e;
-			this.hashcode = hashcode;
+	private static class Cache {
+
+		private final ObjectReference[] references = new ObjectReference[CACHE_SIZE];
+		private final long[] ids = new long[CACHE_SIZE];
+
+		/**
+		 * Store an entry of a table in the cache.
+		 * @param c specifies an entry of the cache.
+		 * @param t is a table.
+		 * @param index is a slot of the table returned by Table.find.
+		 * @return true if the slot is found.
+		 */
+		public boolean fill(int c, Table t, int index) {
+			if (index < 0) return false;
+			// The slot is not reused while the object is alive
+			references[c] = t.getReference(index);
+			ids[c] = t.getId(index);
+			return true;
+		}
+	}
+
+	/**
+	 * A weak reference to a registered object.  
+	 * The reference keeps the hash code to find its slot after the object is collected.
+	 */
+	private static class ObjectReference extends WeakReference<Object> {
+
+		/**
+		 * A marker of a slot whose entry has been removed.
+		 * Probing continues over the slot.
+		 */
+		private static final ObjectReference REMOVED = new ObjectReference(null, 0, null);
+
+		private final int hash;
+
+		public ObjectReference(Object o, int hash, ReferenceQueue<Object> queue) {
+			super(o, queue);
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * An open-addressing hash table with linear probing.
+	 * A slot has a long value including a hash tag (the upper 24 bits of a hash code) 
+	 * in the upper bits and an ID in the lower 40 bits, 
+	 * so that probing a slot touches a cache line of the value array and a line of the reference array.
+	 * IDs must be less than 2^40.
+	 * A reference is published after its value, and a null reference indicates an empty slot.
+	 * A removed entry is replaced with a marker, and the slot is reused by a new entry.
+	 */
+	private static class Table {
+
+		private static final int ID_BITS = 40;
+		private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+		private final long[] tagAndIds;
+		private final AtomicReferenceArray<ObjectReference> references;
+		private final int andKey;
+
+		/**
+		 * The number of slots that are not empty, including removed entries
+		 */
+		private int usedSlots;
+
+		public Table(int capacity) {
+			this.tagAndIds = new long[capacity];
+			this.references = new AtomicReferenceArray<>(capacity);
+			this.andKey = capacity - 1;
+		}
+
+		public int length() {
+			return references.length();
+		}
+
+		public int getUsedSlots() {
+			return usedSlots;
+		}
+
+		public ObjectReference getReference(int index) {
+			return references.get(index);
+		}
+
+		public long getId(int index) {
+			return tagAndIds[index] & ID_MASK;
+		}
+
+		/**
+		 * @return the upper bits of a hash code.  
+		 * The lower bits are less useful because they are similar in a probe sequence.
+		 */
+		private static long tag(int hash) {
+			return (long)(hash >>> 8) << ID_BITS;
+		}
+
+		/**
+		 * @return the slot of the object, or -1 if the object is not found.
+		 */
+		public int find(Object o, int hash) {
+			long tag = tag(hash);
+			int index = hash & andKey;
+			while (true) {
+				ObjectReference ref = references.get(index);
+				if (ref == null) {
+					return -1;
+				}
+				if ((tagAndIds[index] & ~ID_MASK) == tag && ref.get() == o) {
+					return index;
+				}
+				index = (index + 1) & andKey;
+			}
+		}
+
+		/**
+		 * Add a new entry.  This method must be called while holding the lock of the map.
+		 * The entry may reuse a slot of a removed entry, since the object is not in the table.
+		 */
+		public void add(ObjectReference ref, long id) {
+			int index = ref.hash & andKey;
+			while (true) {
+				ObjectReference r = references.get(index);
+				if (r == null) {
+					usedSlots++;
+					break;
+				} else if (r == ObjectReference.REMOVED) {
+					break;
+				}
+				index = (index + 1) & andKey;
+			}
+			tagAndIds[index] = tag(ref.hash) | (id & ID_MASK);
+			references.set(index, ref);
+		}
+
+		/**
+		 * Remove an entry.  This method must be called while holding the lock of the map.
+		 * @return true if the entry is found and removed.
+		 */
+		public boolean remove(ObjectReference ref) {
+			int index = ref.hash & andKey;
+			while (true) {
+				ObjectReference r = references.get(index);
+				if (r == null) {
+					return false;
+				} else if (r == ref) {
+					references.set(index, ObjectReference.REMOVED);
+					return true;
+				}
+				index = (index + 1) & andKey;
+			}
 		}
 	}
 
@@ -2,17 +2,51 @@ package selogger.logging.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.fasterxml.jackson.core.io.JsonStringEncoder;
 
 
 /**
  * This class is to record the contents of String objects.
+ * Optionally, the content of a string is written only once;
+ * a string having the same content as a recently written string
+ * refers to the object ID of the written string.
+ * Long strings can be truncated.
  */
 public class StringContentFile {
+
+	/**
+	 * The number of distinct contents remembered for deduplication
+	 */
+	public static final int DEDUP_ENTRIES = 65536;
 	
 	private StringFileListStream stringList;
 
+	/**
+	 * The digests of recently written contents and their object IDs.  null if deduplication is disabled.
+	 * Digests are stored instead of the contents, so that the map does not keep strings of the application.
+	 */
+	private LinkedHashMap<Digest, Long> contents;
+
+	/**
+	 * An object to compute digests of contents
+	 */
+	private MessageDigest md5;
+
+	/**
+	 * A buffer to pass characters to the digest
+	 */
+	private byte[] digestBuffer;
+
+	/**
+	 * The maximum length of a content to be written.  0 indicates no limit.
+	 */
+	private int maxLength;
+
 	/**
 	 * Create an instance.
 	 * @param outputDir specifies a directory for storing output files.
@@ -23,30 +57,147 @@ public class StringContentFile {
 		stringList = new StringFileListStream(filenames);
 	}
 
+	/**
+	 * Enable or disable the deduplication of contents.
+	 * The most recently used DEDUP_ENTRIES contents are remembered.
+	 * @param deduplicate If true, each content is written only once while it is remembered.
+	 */
+	public synchronized void setDeduplication(boolean deduplicate) {
+		if (deduplicate) {
+			try {
+				md5 = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform supports MD5
+				contents = null;
+				return;
+			}
+			digestBuffer = new byte[1024];
+			contents = new LinkedHashMap<Digest, Long>(1024, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Digest, Long> eldest) {
+					return size() > DEDUP_ENTRIES;
+				}
+			};
+		} else {
+			contents = null;
+		}
+	}
+
+	/**
+	 * Specify the maximum length of contents.
+	 * @param maxLength specifies the number of characters.  0 indicates no limit.
+	 */
+	public synchronized void setMaxLength(int maxLength) {
+		this.maxLength = Math.max(0, maxLength);
+	}
+
 	/**
 	 * Record a String. 
 	 * @param objectId specifies the object ID of the content object.
 	 * @param content specifies the string to be recorded.
 	 * TODO Improve the file format 
 	 */
-	public void write(long objectId, String content) {
-		StringBuilder builder = new StringBuilder(content.length() + 32);
-		builder.append(objectId);
-		builder.append(",");
-		builder.append(content.length());
-		builder.append(",");
-		builder.append("\"");
-		JsonStringEncoder.getInstance().quoteAsString(content, builder);
-		builder.append("\"");
+	public synchronized void write(long objectId, String content) {
+		int length = content.length();
+		if (maxLength > 0 && length > maxLength) {
+			// Avoid splitting a surrogate pair
+			int end = Character.isHighSurrogate(content.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+			content = content.substring(0, end);
+		}
+		StringBuilder builder;
+		Digest key = contents != null ? computeDigest(content) : null;
+		Long first = key != null ? contents.get(key) : null;
+		if (first != null) {
+			builder = new StringBuilder(48);
+			builder.append(objectId);
+			builder.append(",");
+			builder.append(length);
+			builder.append(",=");
+			builder.append(first.longValue());
+		} else {
+			if (key != null) {
+				contents.put(key, objectId);
+			}
+			builder = new StringBuilder(content.length() + 32);
+			builder.append(objectId);
+			builder.append(",");
+			builder.append(length);
+			builder.append(",");
+			builder.append("\"");
+			JsonStringEncoder.getInstance().quoteAsString(content, builder);
+			builder.append("\"");
+		}
 		builder.append("\n");
 		stringList.write(builder.toString());
 	}
 
+	/**
+	 * @param content specifies a string.
+	 * @return a 128-bit digest of the UTF-16 characters of the string,
+	 * combined with String.hashCode() as an independent check.
+	 */
+	private Digest computeDigest(String content) {
+		int length = content.length();
+		int chunk = digestBuffer.length / 2;
+		for (int start=0; start<length; start+=chunk) {
+			int end = Math.min(length, start + chunk);
+			int pos = 0;
+			for (int i=start; i<end; i++) {
+				char c = content.charAt(i);
+				digestBuffer[pos++] = (byte)(c >>> 8);
+				digestBuffer[pos++] = (byte)c;
+			}
+			md5.update(digestBuffer, 0, pos);
+		}
+		byte[] d = md5.digest();
+		long high = 0;
+		long low = 0;
+		for (int i=0; i<8; i++) {
+			high = (high << 8) | (d[i] & 0xFF);
+			low = (low << 8) | (d[i + 8] & 0xFF);
+		}
+		return new Digest(high, low, content.hashCode(), length);
+	}
+
 	/**
 	 * Close the stream.
 	 */
 	public void close() {
 		stringList.close();
 	}
+
+	/**
+	 * A key to compare contents by their digests, hash codes, and lengths.
+	 * Two contents are regarded as the same if all of them are equal.
+	 */
+	private static class Digest {
+
+		private final long high;
+		private final long low;
+		private final int hash;
+		private final int length;
+
+		public Digest(long high, long low, int hash, int length) {
+			this.high = high;
+			this.low = low;
+			this.hash = hash;
+			this.length = length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int)low;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Digest) {
+				Digest another = (Digest)obj;
+				return high == another.high && low == another.low && hash == another.hash && length == another.length;
+			}
+			return false;
+		}
+	}
 	
 }
@@ -0,0 +1,119 @@
+package selogger.logging.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A per-thread context for recording events.
+ * A logger looks up the context once for each event,
+ * and then reads the thread ID and its own per-thread state
+ * (e.g. thread-local buffers) from the context without additional ThreadLocal lookups.
+ * The per-thread state is stored in a slot allocated by newSlot().
+ */
+public final class ThreadContext {
+
+	/**
+	 * An object to assign an integer for each thread.
+	 */
+	private static final AtomicInteger nextThreadId = new AtomicInteger(0);
+
+	/**
+	 * An object to assign an index of slots.
+	 */
+	private static final AtomicInteger nextSlot = new AtomicInteger(0);
+
+	/**
+	 * The initial number of slots for each thread.
+	 */
+	private static final int INITIAL_SLOTS = 8;
+
+	/**
+	 * This object keeps a context for each thread.
+	 */
+	private static final ThreadLocal<ThreadContext> contexts = new ThreadLocal<ThreadContext>() {
+		@Override
+		protected ThreadContext initialValue() {
+			return new ThreadContext(nextThreadId.getAndIncrement());
+		}
+	};
+
+	private final int threadId;
+	private Object[] slots;
+
+	/**
+	 * Create a context for a thread.
+	 */
+	private ThreadContext(int threadId) {
+		this.threadId = threadId;
+		this.slots = new Object[INITIAL_SLOTS];
+	}
+
+	/**
+	 * @return the context of the current thread.
+	 */
+	public static ThreadContext get() {
+		return contexts.get();
+	}
+
+	/**
+	 * Create a context for events recorded on behalf of another thread.
+	 * The context is not associated with any thread until attach is called.
+	 * @param threadId specifies the thread ID of the original thread.
+	 * @return a new context.
+	 */
+	public static ThreadContext create(int threadId) {
+		return new ThreadContext(threadId);
+	}
+
+	/**
+	 * Replace the context of the current thread.
+	 * A thread that records events on behalf of other threads
+	 * (e.g. a consumer of an asynchronous pipeline) uses this method 
+	 * so that loggers observe the thread IDs and per-thread state of the original threads.
+	 * @param ctx is a context created by create(int).
+	 */
+	public static void attach(ThreadContext ctx) {
+		contexts.set(ctx);
+	}
+
+	/**
+	 * Allocate a slot to store per-thread state.
+	 * A logger calls this method once (e.g. in its constructor)
+	 * and uses the index for all threads.
+	 * @return an index of the slot.
+	 */
+	public static int newSlot() {
+		return nextSlot.getAndIncrement();
+	}
+
+	/**
+	 * @return a thread ID assigned to the thread.
+	 * The IDs are sequential numbers in the order of threads that recorded events.
+	 */
+	public int getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * @param slot specifies a slot allocated by newSlot().
+	 * @return the object stored in the slot.  null if nothing is stored.
+	 */
+	public Object get(int slot) {
+		Object[] s = slots;
+		return slot < s.length ? s[slot] : null;
+	}
+
+	/**
+	 * Store an object in a slot.
+	 * Only the owner thread of the context may call this method.
+	 * @param slot specifies a slot allocated by newSlot().
+	 * @param value is an object to be stored.
+	 */
+	public void set(int slot, Object value) {
+		if (slots.length <= slot) {
+			slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+		}
+		slots[slot] = value;
+	}
+
+}
@@ -0,0 +1,130 @@
+package selogger.logging.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+import selogger.logging.IErrorLogger;
+
+/**
+ * A table to translate sequential numbers of events into timestamps.
+ * The table is sampled by a CoarseClock at each tick.
+ * Each line of the file is a pair of the number of events
+ * recorded so far and the time of the sampling in nanoseconds,
+ * e.g. "1200,1700000000001000000" indicates that
+ * the events whose sequential numbers are less than 1200
+ * occurred before the time.
+ * A line is written only if the number has been changed since the previous line,
+ * and the interval from the previous line is not less than a specified interval,
+ * so that the file does not grow at the resolution of the clock.
+ * The last number is written when the timeline is closed.
+ */
+public class Timeline {
+
+	public static final String FILENAME = "timeline.txt";
+
+	/**
+	 * The default interval of lines (100ms)
+	 */
+	public static final long DEFAULT_INTERVAL = 100000000;
+
+	private LongSupplier counter;
+	private IErrorLogger err;
+	private BufferedWriter out;
+	private long interval;
+	private long last = -1;
+
+	/**
+	 * The time of the last line
+	 */
+	private long lastTime = Long.MIN_VALUE;
+
+	/**
+	 * The time of the latest sampling
+	 */
+	private long sampledTime;
+
+	/**
+	 * Create a file for a timeline with the default interval.
+	 * @param file specifies a file to be written.
+	 * @param counter returns the number of events recorded so far.
+	 * @param err records errors.
+	 */
+	public Timeline(File file, LongSupplier counter, IErrorLogger err) {
+		this(file, counter, DEFAULT_INTERVAL, err);
+	}
+
+	/**
+	 * Create a file for a timeline.
+	 * @param file specifies a file to be written.
+	 * @param counter returns the number of events recorded so far.
+	 * @param interval specifies the minimum interval of lines in nanoseconds.
+	 * @param err records errors.
+	 */
+	public Timeline(File file, LongSupplier counter, long interval, IErrorLogger err) {
+		this.counter = counter;
+		this.interval = interval;
+		this.err = err;
+		try {
+			out = new BufferedWriter(new FileWriter(file));
+			out.write("Count,Timestamp\n");
+		} catch (IOException e) {
+			out = null;
+			err.log(e);
+		}
+	}
+
+	/**
+	 * Record the current number of events.
+	 * @param time is the current time in nanoseconds.
+	 */
+	public synchronized void sample(long time) {
+		sampledTime = time;
+		if (out == null || (last >= 0 && time - lastTime < interval)) return;
+		write(time);
+	}
+
+	/**
+	 * Write the current number of events if it has been changed.
+	 * @param time is the current time in nanoseconds.
+	 */
+	private void write(long time) {
+		long count = counter.getAsLong();
+		if (count == last) return;
+		last = count;
+		lastTime = time;
+		try {
+			out.write(Long.toString(count));
+			out.write(',');
+			out.write(Long.toString(time));
+			out.write('\n');
+		} catch (IOException e) {
+			closeFile();
+			err.log(e);
+		}
+	}
+
+	/**
+	 * Write the last number of events with the time of the latest sampling, and close the file.
+	 */
+	public synchronized void close() {
+		if (out == null) return;
+		if (sampledTime > lastTime) write(sampledTime);
+		closeFile();
+	}
+
+	/**
+	 * Close the file without writing the number.
+	 */
+	private void closeFile() {
+		if (out == null) return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			err.log(e);
+		}
+		out = null;
+	}
+}
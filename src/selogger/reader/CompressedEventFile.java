@@ -0,0 +1,125 @@
+package selogger.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import selogger.logging.io.CompressedEventOutput;
+
+/**
+ * This class reads the block index of a file written by CompressedEventOutput
+ * and decompresses a block on demand.
+ */
+public class CompressedEventFile {
+
+	private File file;
+	private long[] firstEventIds;
+	private long[] offsets;
+	private int[] lengths;
+
+	/**
+	 * Read the block index of a file.
+	 * @param file is an archive file.
+	 * @throws IOException if the file is not an archive file or broken.
+	 */
+	public CompressedEventFile(File file) throws IOException {
+		this.file = file;
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			long length = f.length();
+			if (length < CompressedEventOutput.TRAILER_BYTES) {
+				throw new IOException("Broken file: " + file.getAbsolutePath());
+			}
+			f.seek(length - CompressedEventOutput.TRAILER_BYTES);
+			int count = f.readInt();
+			int magic = f.readInt();
+			long indexStart = length - CompressedEventOutput.TRAILER_BYTES - (long)count * CompressedEventOutput.INDEX_ENTRY_BYTES;
+			if (magic != CompressedEventOutput.MAGIC || count < 0 || indexStart < 0) {
+				throw new IOException("Broken file: " + file.getAbsolutePath());
+			}
+			byte[] index = new byte[count * CompressedEventOutput.INDEX_ENTRY_BYTES];
+			f.seek(indexStart);
+			f.readFully(index);
+			ByteBuffer buf = ByteBuffer.wrap(index);
+			firstEventIds = new long[count];
+			offsets = new long[count];
+			lengths = new int[count];
+			for (int i=0; i<count; i++) {
+				firstEventIds[i] = buf.getLong();
+				offsets[i] = buf.getLong();
+				lengths[i] = buf.getInt();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of blocks in the file.
+	 */
+	public int getBlockCount() {
+		return firstEventIds.length;
+	}
+
+	/**
+	 * @param block specifies a block.
+	 * @return the event ID of the first event in the block.
+	 */
+	public long getFirstEventId(int block) {
+		return firstEventIds[block];
+	}
+
+	/**
+	 * @param eventId specifies an event.
+	 * @return the block including the event.  -1 if the event is before the first block.
+	 */
+	public int findBlock(long eventId) {
+		int low = 0;
+		int high = firstEventIds.length - 1;
+		int result = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (firstEventIds[mid] <= eventId) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decompress a block.
+	 * @param block specifies a block.
+	 * @param buffer receives the events in the fixed-length format.
+	 * The buffer is flipped so that a caller can read the events.
+	 * @throws IOException if the block is broken.
+	 */
+	public void readBlock(int block, ByteBuffer buffer) throws IOException {
+		byte[] data = new byte[lengths[block]];
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			f.seek(offsets[block]);
+			f.readFully(data);
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			int n = 0;
+			while (!inflater.finished() && n < buffer.capacity()) {
+				int inflated = inflater.inflate(buffer.array(), n, buffer.capacity() - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				n += inflated;
+			}
+			if (!inflater.finished()) {
+				throw new IOException("Broken block " + block + " in " + file.getAbsolutePath());
+			}
+			buffer.position(0);
+			buffer.limit(n);
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -1,18 +1,36 @@
 package selogger.reader;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.ListIterator;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import selogger.EventType;
 import selogger.logging.io.BinaryStreamLogger;
+import selogger.logging.io.CompressedEventOutput;
 
 /**
  * This class is to read a sequence of events from .slg files.
+ * If a directory includes no .slg files, this class reads .slc files 
+ * written in the compact encoding, or .slz files written in compressed blocks.
+ * If events are written to .slt files for each thread, this class merges
+ * the files by the ordering keys of events to reproduce the order of events.
+ * Events having the same key are ordered by their thread IDs.
+ * Since a key is the time of a coarse clock, the merged order is 
+ * the order of occurrence only up to the resolution of the clock;
+ * events of different threads within a tick may be reordered.
+ * The positions of events in the merged order are used as event IDs.
  */
 public class EventReader {
 	
@@ -27,6 +45,41 @@ public class EventReader {
 	protected boolean processParams;
 	private DataIdMap dataIdMap;
 
+	/**
+	 * If true, files are written in the compact encoding.
+	 */
+	private boolean compact;
+
+	/**
+	 * The previous data ID and thread ID to decode the compact encoding.
+	 */
+	private int prevDataId;
+	private int prevThreadId;
+
+	/**
+	 * The current archive file if files are compressed.
+	 * The file is in logFiles[fileIndex-1].
+	 */
+	private boolean compressed;
+	private CompressedEventFile archive;
+
+	/**
+	 * The next block to be decompressed in the archive
+	 */
+	private int blockIndex;
+
+	/**
+	 * Streams of threads if events are written to files for each thread.
+	 * The streams having the next events are ordered by the keys and the thread IDs of the events.
+	 */
+	private HashMap<Integer, ThreadEventStream> threadStreams;
+	private PriorityQueue<ThreadEventStream> mergedStreams;
+
+	/**
+	 * The IDs of events read by nextThreadEvent before the preceding events in the merged order.
+	 * They are skipped when the merged streams reach the events.
+	 */
+	private TreeSet<Long> takenEventIds;
 
 	/**
 	 * Events created for some reasons but not yet returned to a client.
@@ -36,13 +89,30 @@ public class EventReader {
 
 	/**
 	 * Create an instance for reading files from a specified directory.
-	 * @param dir is a directory containing *.slg files.
+	 * @param dir is a directory containing *.slg (*.slc, *.slz, or *.slt) files.
 	 * @param dataIdMap is a DataIdMap to analyze the *.slg files.
 	 */
 	public EventReader(File dir, DataIdMap dataIdMap) {
 		this.logFiles =  SequentialFileList.getSortedList(dir, BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX);
+		if (logFiles.length == 0) {
+			this.logFiles =  SequentialFileList.getSortedList(dir, BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX_COMPACT);
+			this.compact = logFiles.length > 0;
+		}
+		if (logFiles.length == 0) {
+			this.logFiles =  SequentialFileList.getSortedList(dir, BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX_COMPRESSED);
+			this.compressed = logFiles.length > 0;
+		}
+		if (logFiles.length == 0) {
+			openThreadStreams(dir);
+		}
 		this.dataIdMap = dataIdMap;
-		this.buffer = ByteBuffer.allocate(bufferSize);
+		if (threadStreams != null) {
+			this.buffer = ByteBuffer.allocate(0);
+		} else if (compressed) {
+			this.buffer = ByteBuffer.allocate(BinaryStreamLogger.BYTES_PER_EVENT * CompressedEventOutput.EVENTS_PER_BLOCK);
+		} else {
+			this.buffer = ByteBuffer.allocate(bufferSize);
+		}
 		this.fileIndex = 0;
 		this.unprocessed = new LinkedList<>();
 		load();
@@ -65,6 +135,8 @@ public class EventReader {
 	 * False indicates that no more files exist or an error occurred.  
 	 */
 	protected boolean load() {
+		if (threadStreams != null) return false;
+		if (compressed) return loadBlock();
 		// This method fails if no more files 
 		if (fileIndex >= logFiles.length) {
 			// Discard the data from the buffer
@@ -73,6 +145,10 @@ public class EventReader {
 			return false;
 		}
 		try {
+			// A compact file may be larger than the buffer in the worst case
+			if (logFiles[fileIndex].length() > buffer.capacity()) {
+				buffer = ByteBuffer.allocate((int)logFiles[fileIndex].length());
+			}
 			// Load a file content to the buffer
 			buffer.position(0);
 			buffer.limit(buffer.capacity());
@@ -82,7 +158,13 @@ public class EventReader {
 
 			// Make it accessible for nextEvent method
 			buffer.flip();
+			long count = readEventCount(logFiles[fileIndex]);
+			if (count >= 0) {
+				buffer.limit((int)Math.min(buffer.limit(), count * BinaryStreamLogger.BYTES_PER_EVENT));
+			}
 			fileIndex++;
+			prevDataId = 0;
+			prevThreadId = -1;
 			return true;
 		} catch (IOException e) {
 			// Discard the data from the buffer
@@ -93,6 +175,187 @@ public class EventReader {
 	}
 	
 	
+	/**
+	 * @param f specifies a log file.
+	 * @return the number of events recorded for a file that could not be truncated.
+	 * -1 if the number is not recorded.
+	 */
+	private static long readEventCount(File f) {
+		File countFile = new File(f.getAbsolutePath() + BinaryStreamLogger.LOG_SUFFIX_COUNT);
+		if (!countFile.exists()) return -1;
+		try (BufferedReader r = new BufferedReader(new FileReader(countFile))) {
+			String line = r.readLine();
+			return line != null ? Long.parseLong(line.trim()) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Open files written for threads.
+	 * @param dir is a directory containing *.slt files.
+	 */
+	private void openThreadStreams(File dir) {
+		final Pattern pattern = Pattern.compile(Pattern.quote(BinaryStreamLogger.LOG_PREFIX_THREAD) + "([0-9]+)-[0-9]+" + Pattern.quote(BinaryStreamLogger.LOG_SUFFIX_THREAD));
+		TreeSet<Integer> threads = new TreeSet<>();
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name: names) {
+				Matcher m = pattern.matcher(name);
+				if (m.matches()) threads.add(Integer.parseInt(m.group(1)));
+			}
+		}
+		if (threads.isEmpty()) return;
+		threadStreams = new HashMap<>();
+		takenEventIds = new TreeSet<>();
+		mergedStreams = new PriorityQueue<>(threads.size(), new Comparator<ThreadEventStream>() {
+			@Override
+			public int compare(ThreadEventStream o1, ThreadEventStream o2) {
+				int c = Long.compare(o1.getKey(), o2.getKey());
+				return c != 0 ? c : Integer.compare(o1.getThreadId(), o2.getThreadId());
+			}
+		});
+		for (int threadId: threads) {
+			File[] files = SequentialFileList.getSortedList(dir, BinaryStreamLogger.LOG_PREFIX_THREAD + threadId + "-", BinaryStreamLogger.LOG_SUFFIX_THREAD);
+			ThreadEventStream stream = new ThreadEventStream(threadId, files);
+			threadStreams.put(threadId, stream);
+			if (stream.hasNext()) mergedStreams.add(stream);
+		}
+	}
+
+	/**
+	 * Create an event from the next event of a stream, and move the stream to the next event.
+	 * @param stream is a stream having the next event.  It must not be in mergedStreams.
+	 * @param eventId specifies the ID of the event.
+	 * @return the event.
+	 */
+	private Event takeEvent(ThreadEventStream stream, long eventId) {
+		Event e = new Event(eventId, stream.getDataId(), stream.getThreadId(), stream.getValue(), dataIdMap);
+		stream.next();
+		if (stream.hasNext()) mergedStreams.add(stream);
+		return e;
+	}
+
+	/**
+	 * Read the next event on the same thread directly from the stream of the thread.
+	 * The stream of the thread is always after the base event,
+	 * because the base event has been read from the stream.
+	 * The event ID is the position in the merged order. 
+	 * The streams of the other threads usually count their events from their positions;
+	 * a stream searches its file only if it is far from the event.
+	 * @param e specifies the base event.
+	 * @return an event.  null if no more events exist in the thread.
+	 */
+	private Event readThreadEvent(Event e) {
+		ThreadEventStream stream = threadStreams.get(e.getThreadId());
+		if (stream == null || !stream.hasNext()) return null;
+		mergedStreams.remove(stream);
+		long eventId = countBefore(stream.getKey(), stream.getThreadId());
+		takenEventIds.add(eventId);
+		return takeEvent(stream, eventId);
+	}
+
+	/**
+	 * @param key specifies an ordering key.
+	 * @param threadId specifies a thread ID.
+	 * @return the number of events before an event of the key and the thread in the merged order.
+	 */
+	private long countBefore(long key, int threadId) {
+		long count = 0;
+		for (ThreadEventStream s: threadStreams.values()) {
+			count += s.countBefore(s.getThreadId() < threadId ? key + 1 : key);
+		}
+		return count;
+	}
+
+	/**
+	 * Move the streams of threads to a particular event.
+	 * This method looks for the largest key such that the number of events before the key
+	 * does not exceed the event ID, and then skips the events having the key.
+	 * @param eventId specifies the event location.
+	 */
+	private void seekThreadStreams(long eventId) {
+		long low = Long.MIN_VALUE;
+		long high = Long.MAX_VALUE;
+		while (low < high) {
+			// The average rounded up without overflow
+			long mid = (low | high) - ((low ^ high) >> 1);
+			if (countBefore(mid, Integer.MIN_VALUE) <= eventId) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		mergedStreams.clear();
+		takenEventIds.clear();
+		for (ThreadEventStream stream: threadStreams.values()) {
+			stream.seek(low);
+			if (stream.hasNext()) mergedStreams.add(stream);
+		}
+		nextEventId = countBefore(low, Integer.MIN_VALUE);
+		while (nextEventId < eventId && readEventFromBuffer() != null) {
+			// Skip events having the same key
+		}
+	}
+
+	/**
+	 * Decompress the next block.  The next file is opened if no more blocks exist in the current file.
+	 * @return true if a block is successfully loaded.
+	 * False indicates that no more blocks exist or an error occurred.  
+	 */
+	private boolean loadBlock() {
+		try {
+			while (archive == null || blockIndex >= archive.getBlockCount()) {
+				if (fileIndex >= logFiles.length) {
+					buffer.position(0);
+					buffer.limit(0);
+					return false;
+				}
+				archive = new CompressedEventFile(logFiles[fileIndex]);
+				fileIndex++;
+				blockIndex = 0;
+			}
+			archive.readBlock(blockIndex, buffer);
+			nextEventId = archive.getFirstEventId(blockIndex);
+			blockIndex++;
+			return true;
+		} catch (IOException e) {
+			// Discard the data from the buffer
+			buffer.position(0);
+			buffer.limit(0);
+			return false;
+		}
+	}
+
+	/**
+	 * Move to a particular event in compressed files.
+	 * Only the block including the event is decompressed.
+	 * @param eventId specifies the event location.
+	 */
+	private void seekBlock(long eventId) {
+		int file = (int)(eventId / BinaryStreamLogger.MAX_EVENTS_PER_FILE);
+		if (file >= logFiles.length) return;
+		if (archive == null || file != fileIndex-1) {
+			fileIndex = file;
+			archive = null;
+			blockIndex = 0;
+			if (!loadBlock()) return;
+		}
+		int block = archive.findBlock(eventId);
+		if (block < 0) return;
+		if (block != blockIndex-1) {
+			blockIndex = block;
+			if (!loadBlock()) return;
+		}
+		long first = archive.getFirstEventId(block);
+		int pos = (int)(BinaryStreamLogger.BYTES_PER_EVENT * (eventId - first));
+		if (pos > buffer.limit()) return;
+		buffer.position(pos);
+		nextEventId = eventId;
+	}
+
 	/**
 	 * Obtain the next event on the same thread.
 	 * Events skipped by the method are added to an internal buffer.
@@ -114,6 +377,12 @@ public class EventReader {
 				}
 			}
 		}
+		if (threadStreams != null) {
+			// The file of the thread includes the next event
+			Event u = readThreadEvent(e);
+			if (u != null && processParams) readSubevents(u);
+			return u;
+		}
 		Event u = readEventFromBuffer();
 		while (u != null && u.getThreadId() != e.getThreadId()) {
 			unprocessed.offer(u);
@@ -186,6 +455,15 @@ public class EventReader {
 	 * Null is returned if the method reached the end of files.
 	 */
 	protected Event readEventFromBuffer() {
+		if (threadStreams != null) {
+			ThreadEventStream stream = mergedStreams.poll();
+			if (stream == null) return null;
+			while (!takenEventIds.isEmpty() && takenEventIds.first() <= nextEventId) {
+				if (takenEventIds.pollFirst() == nextEventId) nextEventId++;
+			}
+			return takeEvent(stream, nextEventId++);
+		}
+
 		// try to read the next event from a stream.
 		while (buffer != null && buffer.remaining() == 0) {
 			boolean result = load();
@@ -193,12 +471,44 @@ public class EventReader {
 		}
 		if (buffer == null) return null; // end-of-streams
 
+		if (compact) {
+			long tag = getVarLong();
+			int dataId = prevDataId + (int)unzigzag(tag >>> 1);
+			int threadId = ((tag & 1) != 0) ? (int)getVarLong() : prevThreadId;
+			long value = unzigzag(getVarLong());
+			prevDataId = dataId;
+			prevThreadId = threadId;
+			return new Event(nextEventId++, dataId, threadId, value, dataIdMap);
+		}
+
 		int dataId = buffer.getInt();
 		int threadId = buffer.getInt();
 		long value = buffer.getLong();
 		return new Event(nextEventId++, dataId, threadId, value, dataIdMap);
 	}
 
+	/**
+	 * Read a variable-length value written by CompactEventOutput.
+	 */
+	private long getVarLong() {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			v |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return v;
+	}
+
+	/**
+	 * Translate a zigzag-encoded value into a signed value.
+	 */
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
 
 	/**
 	 * Move to a particular event.
@@ -207,12 +517,33 @@ public class EventReader {
 	 */
 	public void seek(long eventId) {
 		if (eventId == nextEventId) return;
+		if (compressed) {
+			seekBlock(eventId);
+			return;
+		}
+		if (threadStreams != null) {
+			seekThreadStreams(eventId);
+			return;
+		}
 		if ((eventId / BinaryStreamLogger.MAX_EVENTS_PER_FILE) != fileIndex-1) { // != on memory file
 			fileIndex = (int)(eventId / BinaryStreamLogger.MAX_EVENTS_PER_FILE);
 			nextEventId = fileIndex * BinaryStreamLogger.MAX_EVENTS_PER_FILE;
 			boolean success = load(); // load a file and fileIndex++
 			if (!success) return;
 		}
+		if (compact) {
+			// Events have different lengths; decode events from the beginning of the file
+			if (eventId < nextEventId) {
+				fileIndex = (int)(eventId / BinaryStreamLogger.MAX_EVENTS_PER_FILE);
+				nextEventId = fileIndex * BinaryStreamLogger.MAX_EVENTS_PER_FILE;
+				boolean success = load();
+				if (!success) return;
+			}
+			while (nextEventId < eventId && buffer.hasRemaining()) {
+				readEventFromBuffer();
+			}
+			return;
+		}
 		int pos = (int)(BinaryStreamLogger.BYTES_PER_EVENT * (eventId % BinaryStreamLogger.MAX_EVENTS_PER_FILE));
 		buffer.position(pos);
 		nextEventId = eventId;
@@ -0,0 +1,277 @@
+package selogger.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import selogger.logging.io.NearOmniBinaryWriter;
+
+/**
+ * This class is to read a near-omniscient trace written by NearOmniBinaryWriter.
+ * The file is mapped to memory, and each method reads only the requested data.
+ * A location is specified by its index in the location table.
+ * An event is specified by an index from 0 (the oldest event) to getRecordCount(location)-1.
+ */
+public class NearOmniTraceReader {
+
+	/**
+	 * The maximum size of a memory-mapped segment.
+	 * Since the writer aligns numbers, a number never spans two segments.
+	 */
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	/**
+	 * Fields of a location record
+	 */
+	private static final int DATAID_OFFSET = 0;
+	private static final int LOADED_FROM_OFFSET = 4;
+	private static final int FILENAME_OFFSET = 8;
+	private static final int CNAME_OFFSET = 12;
+	private static final int MNAME_OFFSET = 16;
+	private static final int MDESC_OFFSET = 20;
+	private static final int MHASH_OFFSET = 24;
+	private static final int EVENT_OFFSET = 28;
+	private static final int VALUETYPE_OFFSET = 32;
+	private static final int ATTR_OFFSET = 36;
+	private static final int LINE_OFFSET = 40;
+	private static final int INST_OFFSET = 44;
+	private static final int KIND_OFFSET = 48;
+	private static final int RECORD_OFFSET = 52;
+	private static final int FREQ_OFFSET = 56;
+	private static final int COLUMN_OFFSET = 64;
+
+	private MappedByteBuffer[] segments;
+	private int bufferSize;
+	private int locationCount;
+	private int stringCount;
+	private long stringTableOffset;
+	private long locationTableOffset;
+
+	/**
+	 * Open a trace file.
+	 * @param f specifies a file written by NearOmniBinaryWriter.
+	 * @throws IOException if the file is not a binary trace.
+	 */
+	public NearOmniTraceReader(File f) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			segments = new MappedByteBuffer[(int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for (int i=0; i<segments.length; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+			}
+			if (size < NearOmniBinaryWriter.HEADER_SIZE || getInt(0) != NearOmniBinaryWriter.MAGIC) {
+				throw new IOException(f.getAbsolutePath() + " is not a binary trace file");
+			}
+			if (getInt(4) != NearOmniBinaryWriter.VERSION) {
+				throw new IOException("Unsupported version " + getInt(4) + ": " + f.getAbsolutePath());
+			}
+		}
+		bufferSize = getInt(8);
+		locationCount = getInt(12);
+		stringCount = getInt(16);
+		stringTableOffset = getLong(24);
+		locationTableOffset = getLong(32);
+	}
+
+	/**
+	 * @return the maximum number of events recorded for each location.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return the number of locations in the file.
+	 */
+	public int getLocationCount() {
+		return locationCount;
+	}
+
+	/**
+	 * Find a location by a data ID.
+	 * @param dataId specifies a data ID.
+	 * @return the index of the location.  -1 if the data ID is not recorded.
+	 */
+	public int findLocation(int dataId) {
+		int low = 0;
+		int high = locationCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int id = getDataId(mid);
+			if (id < dataId) {
+				low = mid + 1;
+			} else if (id > dataId) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public int getDataId(int location) {
+		return getInt(getRecord(location) + DATAID_OFFSET);
+	}
+
+	public String getLoadedFrom(int location) {
+		return getString(getInt(getRecord(location) + LOADED_FROM_OFFSET));
+	}
+
+	public String getFileName(int location) {
+		return getString(getInt(getRecord(location) + FILENAME_OFFSET));
+	}
+
+	public String getClassName(int location) {
+		return getString(getInt(getRecord(location) + CNAME_OFFSET));
+	}
+
+	public String getMethodName(int location) {
+		return getString(getInt(getRecord(location) + MNAME_OFFSET));
+	}
+
+	public String getMethodDesc(int location) {
+		return getString(getInt(getRecord(location) + MDESC_OFFSET));
+	}
+
+	public String getMethodHash(int location) {
+		return getString(getInt(getRecord(location) + MHASH_OFFSET));
+	}
+
+	public String getEventType(int location) {
+		return getString(getInt(getRecord(location) + EVENT_OFFSET));
+	}
+
+	public String getValueType(int location) {
+		return getString(getInt(getRecord(location) + VALUETYPE_OFFSET));
+	}
+
+	/**
+	 * @return attributes of the location in a JSON format.  null if no attributes.
+	 */
+	public String getAttributes(int location) {
+		return getString(getInt(getRecord(location) + ATTR_OFFSET));
+	}
+
+	public int getLine(int location) {
+		return getInt(getRecord(location) + LINE_OFFSET);
+	}
+
+	public int getInstructionIndex(int location) {
+		return getInt(getRecord(location) + INST_OFFSET);
+	}
+
+	/**
+	 * @return a value kind defined in NearOmniBinaryWriter.
+	 */
+	public int getValueKind(int location) {
+		return getInt(getRecord(location) + KIND_OFFSET);
+	}
+
+	/**
+	 * @return the number of events recorded for the location.
+	 */
+	public int getRecordCount(int location) {
+		return getInt(getRecord(location) + RECORD_OFFSET);
+	}
+
+	/**
+	 * @return the number of event occurrences at the location.
+	 */
+	public long getFrequency(int location) {
+		return getLong(getRecord(location) + FREQ_OFFSET);
+	}
+
+	/**
+	 * @return a raw value of the i-th event.
+	 * This is an object ID in case of an object.
+	 */
+	public long getLongValue(int location, int i) {
+		return getLong(getColumns(location) + 8L * i);
+	}
+
+	public int getIntValue(int location, int i) {
+		return (int)getLongValue(location, i);
+	}
+
+	public boolean getBooleanValue(int location, int i) {
+		return getLongValue(location, i) != 0;
+	}
+
+	public float getFloatValue(int location, int i) {
+		return Float.intBitsToFloat((int)getLongValue(location, i));
+	}
+
+	public double getDoubleValue(int location, int i) {
+		return Double.longBitsToDouble(getLongValue(location, i));
+	}
+
+	public long getSeqnum(int location, int i) {
+		return getLong(getColumns(location) + 8L * getRecordCount(location) + 8L * i);
+	}
+
+	public int getThreadId(int location, int i) {
+		return getInt(getColumns(location) + 16L * getRecordCount(location) + 4L * i);
+	}
+
+	/**
+	 * @return the type name of the i-th object.
+	 * null if the object is null or garbage-collected.
+	 */
+	public String getObjectType(int location, int i) {
+		return getString(getInt(getColumns(location) + 20L * getRecordCount(location) + 4L * i));
+	}
+
+	/**
+	 * @return the content of the i-th object if it is a string.
+	 */
+	public String getStringContent(int location, int i) {
+		return getString(getInt(getColumns(location) + 24L * getRecordCount(location) + 4L * i));
+	}
+
+	/**
+	 * @param index specifies an entry of the string table.
+	 * @return the string.  null if the index is NO_STRING.
+	 */
+	public String getString(int index) {
+		if (index == NearOmniBinaryWriter.NO_STRING) return null;
+		if (index < 0 || index >= stringCount) throw new IndexOutOfBoundsException(Integer.toString(index));
+		long start = getLong(stringTableOffset + 8L * index);
+		long end = getLong(stringTableOffset + 8L * (index + 1));
+		long base = stringTableOffset + 8L * (stringCount + 1);
+		byte[] bytes = new byte[(int)(end - start)];
+		for (int i=0; i<bytes.length; i++) {
+			long pos = base + start + i;
+			bytes[i] = segments[(int)(pos / SEGMENT_SIZE)].get((int)(pos % SEGMENT_SIZE));
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the position of a location record.
+	 */
+	private long getRecord(int location) {
+		if (location < 0 || location >= locationCount) throw new IndexOutOfBoundsException(Integer.toString(location));
+		return locationTableOffset + (long)NearOmniBinaryWriter.LOCATION_RECORD_SIZE * location;
+	}
+
+	/**
+	 * @return the position of the column data of a location.
+	 */
+	private long getColumns(int location) {
+		return getLong(getRecord(location) + COLUMN_OFFSET);
+	}
+
+	private int getInt(long pos) {
+		return segments[(int)(pos / SEGMENT_SIZE)].getInt((int)(pos % SEGMENT_SIZE));
+	}
+
+	private long getLong(long pos) {
+		return segments[(int)(pos / SEGMENT_SIZE)].getLong((int)(pos % SEGMENT_SIZE));
+	}
+
+}
@@ -0,0 +1,325 @@
+package selogger.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import selogger.logging.io.BinaryStreamLogger;
+
+/**
+ * This class reads events of a thread from .slt files.
+ * The stream keeps the next event so that EventReader can merge
+ * the streams of threads by the ordering keys of the events.
+ * The keys of a thread are strictly increasing.
+ * The numbers of events and the first and last keys of the files are cached when the stream is created,
+ * so that the number of events before a key is computed from the position of the stream
+ * or by searching a single file.
+ */
+class ThreadEventStream {
+
+	private static final int RECORD = BinaryStreamLogger.BYTES_PER_THREAD_EVENT;
+	private static final int BUFFER_SIZE = RECORD * 65536;
+
+	private int threadId;
+	private File[] files;
+	private int fileIndex;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	/**
+	 * The index of the first event of each file in the stream.
+	 * The last element is the total number of events.
+	 */
+	private long[] starts;
+
+	/**
+	 * The first and last keys of each file
+	 */
+	private long[] firstKeys;
+	private long[] lastKeys;
+
+	/**
+	 * A file kept open to search keys in countBefore
+	 */
+	private RandomAccessFile searchFile;
+	private int searchFileIndex = -1;
+
+	private boolean hasNext;
+	private long key;
+	private int dataId;
+	private long value;
+
+	/**
+	 * The index of the next event in the stream
+	 */
+	private long position;
+
+	/**
+	 * A key larger than or equal to the keys of the events before the position
+	 */
+	private long lastKey = Long.MIN_VALUE;
+
+	/**
+	 * Open the first file and read the first event.
+	 * @param threadId specifies the thread of the files.
+	 * @param files is a list of files of the thread.
+	 */
+	public ThreadEventStream(int threadId, File[] files) {
+		this.threadId = threadId;
+		this.files = files;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.buffer.limit(0);
+		this.fileIndex = 0;
+		readFileHeaders();
+		openFile(0);
+		next();
+	}
+
+	/**
+	 * Cache the numbers of events and the first and last keys of the files.
+	 * A file that cannot be read is regarded as empty.
+	 */
+	private void readFileHeaders() {
+		starts = new long[files.length + 1];
+		firstKeys = new long[files.length];
+		lastKeys = new long[files.length];
+		for (int i=0; i<files.length; i++) {
+			long n = 0;
+			try (RandomAccessFile f = new RandomAccessFile(files[i], "r")) {
+				n = f.length() / RECORD;
+				if (n > 0) {
+					firstKeys[i] = f.readLong();
+					f.seek((n - 1) * RECORD);
+					lastKeys[i] = f.readLong();
+				}
+			} catch (IOException e) {
+				n = 0;
+			}
+			starts[i+1] = starts[i] + n;
+		}
+	}
+
+	/**
+	 * @param i specifies a file.
+	 * @return the number of events in the file.
+	 */
+	private long getEventCount(int i) {
+		return starts[i+1] - starts[i];
+	}
+
+	/**
+	 * @param target specifies a key.
+	 * @return the first file including an event whose key is the same as or larger than the target.
+	 * The number of files if no such files exist.
+	 */
+	private int findFile(long target) {
+		for (int i=0; i<files.length; i++) {
+			if (getEventCount(i) > 0 && lastKeys[i] >= target) return i;
+		}
+		return files.length;
+	}
+
+	/**
+	 * @param f is a file of the stream.
+	 * @param count specifies the number of events in the file.
+	 * @param target specifies a key.
+	 * @return the index of the first event in the file whose key is not before the target.
+	 */
+	private static long search(RandomAccessFile f, long count, long target) throws IOException {
+		long low = 0;
+		long high = count;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			f.seek(mid * RECORD);
+			if (f.readLong() < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the thread ID of this stream.
+	 */
+	public int getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * @return true if the next event is available.
+	 */
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	/**
+	 * @return the ordering key of the next event.
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the data ID of the next event.
+	 */
+	public int getDataId() {
+		return dataId;
+	}
+
+	/**
+	 * @return the value of the next event.
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * Open a file and discard the buffered data.
+	 * @param index specifies a file.
+	 * @return true if the file is opened.
+	 */
+	private boolean openFile(int index) {
+		closeFile();
+		buffer.position(0);
+		buffer.limit(0);
+		fileIndex = index;
+		if (index >= files.length) return false;
+		try {
+			file = new RandomAccessFile(files[index], "r");
+			channel = file.getChannel();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Move to the next event.
+	 */
+	public void next() {
+		if (hasNext) {
+			lastKey = key;
+			position++;
+		}
+		while (buffer.remaining() < RECORD) {
+			if (!fill()) {
+				hasNext = false;
+				return;
+			}
+		}
+		key = buffer.getLong();
+		dataId = buffer.getInt();
+		value = buffer.getLong();
+		hasNext = true;
+	}
+
+	/**
+	 * Read the next part of the current file, or open the next file.
+	 * @return false if no more data is available.
+	 */
+	private boolean fill() {
+		try {
+			if (channel != null) {
+				buffer.compact();
+				int n = channel.read(buffer);
+				buffer.flip();
+				if (n > 0) return true;
+			}
+			// An incomplete record at the end of a file is discarded
+			return openFile(fileIndex + 1);
+		} catch (IOException e) {
+			return openFile(fileIndex + 1);
+		}
+	}
+
+	/**
+	 * Move to the first event whose key is the same as or larger than a specified key.
+	 * @param target specifies a key.
+	 */
+	public void seek(long target) {
+		int index = findFile(target);
+		hasNext = false;
+		if (openFile(index)) {
+			try {
+				long offset = firstKeys[index] >= target ? 0 : search(file, getEventCount(index), target);
+				channel.position(offset * RECORD);
+				next();
+				position = starts[index] + offset;
+			} catch (IOException e) {
+				hasNext = false;
+			}
+		}
+		if (!hasNext) {
+			position = starts[files.length];
+		}
+		lastKey = (target == Long.MIN_VALUE) ? target : target - 1;
+	}
+
+	/**
+	 * Count events without moving the stream.
+	 * If the target is between the last key and the next key of the stream, 
+	 * the position of the stream is returned without reading files.
+	 * @param target specifies a key.
+	 * @return the number of events whose keys are less than the target.
+	 */
+	public long countBefore(long target) {
+		if (lastKey < target && (!hasNext || target <= key)) {
+			return position;
+		}
+		int index = findFile(target);
+		if (index >= files.length) return starts[files.length];
+		if (firstKeys[index] >= target) return starts[index];
+		try {
+			if (searchFileIndex != index) {
+				closeSearchFile();
+				searchFile = new RandomAccessFile(files[index], "r");
+				searchFileIndex = index;
+			}
+			return starts[index] + search(searchFile, getEventCount(index), target);
+		} catch (IOException e) {
+			closeSearchFile();
+			return starts[index];
+		}
+	}
+
+	/**
+	 * Close the file used by countBefore.
+	 */
+	private void closeSearchFile() {
+		if (searchFile != null) {
+			try {
+				searchFile.close();
+			} catch (IOException e) {
+			}
+			searchFile = null;
+			searchFileIndex = -1;
+		}
+	}
+
+	/**
+	 * Close the files.
+	 */
+	public void close() {
+		closeFile();
+		closeSearchFile();
+	}
+
+	/**
+	 * Close the current file.
+	 */
+	private void closeFile() {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+			}
+			file = null;
+			channel = null;
+		}
+	}
+}
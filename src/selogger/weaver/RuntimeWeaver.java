@@ -10,17 +10,23 @@ import java.lang.instrument.Instrumentation;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 import java.util.Map;
+import java.util.function.LongSupplier;
 
 import org.objectweb.asm.ClassReader;
 
 import selogger.logging.Logging;
+import selogger.logging.io.AsyncEventLogger;
 import selogger.logging.io.BinaryStreamLogger;
 import selogger.logging.io.DiscardLogger;
 import selogger.logging.io.EventFrequencyLogger;
 import selogger.logging.io.ExecuteBeforeLogger;
 import selogger.logging.io.FilterLogger;
 import selogger.logging.io.LatestEventLogger;
+import selogger.logging.io.OffHeapEventLogger;
+import selogger.logging.io.SamplingLogger;
 import selogger.logging.io.TextStreamLogger;
+import selogger.logging.util.CoarseClock;
+import selogger.logging.util.Timeline;
 import selogger.logging.IEventLogger;
 
 /**
@@ -66,6 +72,11 @@ public class RuntimeWeaver implements ClassFileTransformer {
 	protected IEventLogger logger;
 	
 	private LogMessageFile logMessageFile;
+
+	/**
+	 * A clock for timestamps.  This is null if timestamps are not recorded.
+	 */
+	private CoarseClock clock;
 	
 	private long startTime;
 	
@@ -104,11 +115,40 @@ public class RuntimeWeaver implements ClassFileTransformer {
 			}
 			weaver.setDumpEnabled(params.isDumpClassEnabled());
 			
+			// Files other than traces are written to the output directory or the directory of the trace file
+			File metadataDir = outputDir != null ? outputDir : traceFile.getAbsoluteFile().getParentFile();
+			// The clock is also used to order events in thread files
+			boolean threadFiles = params.getMode() == Mode.BinaryStream && params.isThreadFilesEnabled();
+			if (params.isRecordingTime() || threadFiles) {
+				clock = new CoarseClock(params.getTimeResolution());
+				logMessageFile.log("CoarseClock:resolution=" + clock.getResolution() + "ns");
+			}
+
 			// Create a logger called from the logging code
 			logMessageFile.log("Selected File Format: " + params.getMode().toString());
+			for (String warning: params.getWarnings()) {
+				logMessageFile.log("Warning: " + warning);
+			}
 			switch (params.getMode()) {
 			case FixedSize:
-				logger = new LatestEventLogger(traceFile, params.getBufferSize(), params.getObjectRecordingStrategy(), params.isOutputJsonEnabled(), logMessageFile);
+				if (params.isOffHeapStorageEnabled()) {
+					OffHeapEventLogger offheap = new OffHeapEventLogger(traceFile, params.getBufferSize(), params.getMemoryBudget(), params.isOutputJsonEnabled(), logMessageFile);
+					offheap.setThreadLocalSeqnum(params.isThreadLocalSeqnumEnabled());
+					offheap.setSaveThreads(params.getSaveThreads());
+					offheap.setOutputBinary(params.isOutputBinaryEnabled());
+					addSeqnumTimeline(metadataDir);
+					logger = offheap;
+					break;
+				}
+				LatestEventLogger latest = new LatestEventLogger(traceFile, params.getBufferSize(), params.getObjectRecordingStrategy(), params.isOutputJsonEnabled(), logMessageFile);
+				latest.setThreadLocalBuffers(params.isThreadLocalBufferEnabled());
+				latest.setThreadLocalSeqnum(params.isThreadLocalSeqnumEnabled());
+				latest.setMemoryThreshold(params.getMemoryBudget());
+				latest.setSaveThreads(params.getSaveThreads());
+				latest.setSnapshotInterval(params.getSnapshotInterval());
+				latest.setOutputBinary(params.isOutputBinaryEnabled());
+				addSeqnumTimeline(metadataDir);
+				logger = latest;
 				break;
 			
 			case Frequency:
@@ -117,13 +157,39 @@ public class RuntimeWeaver implements ClassFileTransformer {
 				
 			case BinaryStream:
 				if (outputDir != null && outputDir.canWrite()) {
-					logger = new BinaryStreamLogger(logMessageFile, outputDir, params.isRecordingString(), params.isRecordingExceptions());
+					BinaryStreamLogger.Output output = BinaryStreamLogger.Output.Stream;
+					if (params.isThreadFilesEnabled()) {
+						output = BinaryStreamLogger.Output.ThreadFiles;
+					} else if (params.isCompactEncodingEnabled()) {
+						output = BinaryStreamLogger.Output.Compact;
+					} else if (params.isCompressedEncodingEnabled()) {
+						output = BinaryStreamLogger.Output.Compressed;
+					} else if (params.isMappedOutputEnabled()) {
+						output = BinaryStreamLogger.Output.Mapped;
+					}
+					BinaryStreamLogger stream = new BinaryStreamLogger(logMessageFile, outputDir, params.isRecordingString(), params.isRecordingExceptions(), output, clock);
+					stream.setThreadLocalBuffers(params.isThreadLocalBufferEnabled());
+					stream.setStringOptions(params.isStringDedupEnabled(), params.getStringLimit());
+					if (params.isRecordingTime()) {
+						final BinaryStreamLogger counted = stream;
+						counted.setEventCounter(true);
+						clock.addTimeline(new Timeline(new File(outputDir, Timeline.FILENAME), new LongSupplier() {
+							@Override
+							public long getAsLong() {
+								return counted.getEventCount();
+							}
+						}, logMessageFile));
+					}
+					logger = stream;
 				}
 				break;
 
 			case TextStream:
 				if (outputDir != null && outputDir.canWrite()) {
-					logger = new TextStreamLogger(logMessageFile, outputDir, params.isRecordingString(), params.isRecordingExceptions(), params.isRecordingTime());
+					TextStreamLogger text = new TextStreamLogger(logMessageFile, outputDir, params.isRecordingString(), params.isRecordingExceptions(), params.isRecordingTime());
+					text.setClock(clock);
+					text.setStringOptions(params.isStringDedupEnabled(), params.getStringLimit());
+					logger = text;
 				}
 				break;
 
@@ -154,7 +220,17 @@ public class RuntimeWeaver implements ClassFileTransformer {
 					weaver.addDataInfoListener((IDataInfoListener)logger);
 				}
 
+				if (params.getAsyncPolicy() != null) {
+					logger = new AsyncEventLogger(logger, params.getAsyncPolicy(), params.getAsyncBufferSize(), logMessageFile, new File(metadataDir, AsyncEventLogger.FILENAME_DROPPED));
+					logMessageFile.log("AsyncEventLogger:policy=" + params.getAsyncPolicy().name());
+				}
+
 				Map<String, DataInfoPattern> patterns = params.getLoggingTargetOptions();
+				if (params.isSamplingEnabled()) {
+					logger = new SamplingLogger(logger, patterns.get("sample"), params.getSampleFirst(), params.getSampleInterval(), logMessageFile, new File(metadataDir, SamplingLogger.FILENAME));
+					logMessageFile.log("SamplingLogger:first=" + params.getSampleFirst() + ",interval=" + params.getSampleInterval() + ",target=" + patterns.get("sample"));
+				}
+
 				if (patterns.get("logstart") != null && patterns.get("logend") != null) {
 					logger = new FilterLogger(logger, patterns.get("logstart"), patterns.get("logend") , logMessageFile, params.isNestedIntervalsAllowed(), params.getPartialSaveStrategy());
 					logMessageFile.log("FilterLogger:start=" + patterns.get("logstart").toString());
@@ -173,6 +249,21 @@ public class RuntimeWeaver implements ClassFileTransformer {
 		}
 	}
 	
+	/**
+	 * Record a timeline of the sequential numbers of the nearomni mode.
+	 * @param dir specifies a directory for the timeline file.
+	 */
+	private void addSeqnumTimeline(File dir) {
+		if (clock != null) {
+			clock.addTimeline(new Timeline(new File(dir, Timeline.FILENAME), new LongSupplier() {
+				@Override
+				public long getAsLong() {
+					return LatestEventLogger.getSeqnum();
+				}
+			}, logMessageFile));
+		}
+	}
+
 	private File makeDefaultDirectory() {
 		File outputDir = new File(DEFAULT_DIRECTORY);
 		if (!outputDir.exists()) {
@@ -193,6 +284,7 @@ public class RuntimeWeaver implements ClassFileTransformer {
 	 */
 	public void close() {
 		if (logger != null) logger.close();
+		if (clock != null) clock.close();
 		if (weaver != null) weaver.close();
 		long t = System.currentTimeMillis() - startTime;
 		logMessageFile.log("Elapsed time: " + t + "ms");
@@ -9,6 +9,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import selogger.logging.io.AsyncEventLogger;
+import selogger.logging.util.CoarseClock;
 import selogger.logging.io.FilterLogger.PartialSaveStrategy;
 import selogger.logging.io.LatestEventLogger.ObjectRecordingStrategy;
 import selogger.logging.util.ObjectIdFile.ExceptionRecording;
@@ -37,6 +39,11 @@ public class RuntimeWeaverParameters {
 
 	private boolean outputJson = true;
 
+	/**
+	 * If true, the nearomni mode writes a trace in a binary format
+	 */
+	private boolean outputBinary = false;
+
 	/**
 	 * Dump woven class files (mainly for debugging)
 	 */
@@ -47,6 +54,85 @@ public class RuntimeWeaverParameters {
 	 */
 	private int bufferSize = 32;
 
+	/**
+	 * If true, the nearomni mode uses buffers owned by each thread
+	 */
+	private boolean threadLocalBuffers = false;
+
+	/**
+	 * If true, the nearomni mode assigns sequence numbers reserved by each thread.
+	 * The numbers do not follow the global order of events within a reserved block, 
+	 * so that the latest k events of a location recorded by multiple threads 
+	 * (e.g. merged from thread-local buffers) may not be the actual latest ones.
+	 */
+	private boolean threadLocalSeqnum = false;
+
+	/**
+	 * If true, the nearomni mode stores events in direct memory
+	 */
+	private boolean offHeapStorage = false;
+
+	/**
+	 * The number of bytes available for the nearomni mode.  
+	 * 0 indicates the default.
+	 */
+	private long memoryBudget = 0;
+
+	/**
+	 * If true, the omnibinary mode writes events to memory-mapped files
+	 */
+	private boolean mappedOutput = false;
+
+	/**
+	 * If true, the omnibinary mode writes events in a variable-length encoding.
+	 * This option takes precedence over mappedOutput.
+	 */
+	private boolean compactEncoding = false;
+
+	/**
+	 * If true, the omnibinary mode writes blocks of events compressed by Deflater.
+	 * This option takes precedence over mappedOutput.
+	 */
+	private boolean compressedEncoding = false;
+
+	/**
+	 * If true, the omnibinary mode writes events of each thread to its own files.
+	 * This option takes precedence over the other output options.
+	 */
+	private boolean threadFiles = false;
+
+	/**
+	 * A policy of an asynchronous pipeline between Logging and a logger.
+	 * null indicates that events are directly passed to a logger.
+	 */
+	private AsyncEventLogger.Policy asyncPolicy = null;
+
+	/**
+	 * The number of events in the buffer of the asynchronous pipeline
+	 */
+	private int asyncBufferSize = AsyncEventLogger.DEFAULT_CAPACITY;
+
+	/**
+	 * The number of occurrences recorded for each location before sampling.
+	 */
+	private int sampleFirst = 0;
+
+	/**
+	 * One of the specified number of occurrences is recorded after the first occurrences.
+	 * 0 disables sampling.
+	 */
+	private int sampleInterval = 0;
+
+	/**
+	 * The number of threads to write a trace file in the nearomni mode
+	 */
+	private int saveThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The interval of snapshots in milliseconds.  0 disables snapshots. 
+	 */
+	private long snapshotInterval = 0;
+
 	/**
 	 * Strategy to keep objects on memory
 	 */
@@ -62,11 +148,26 @@ public class RuntimeWeaverParameters {
 	 */
 	private boolean recordString = true;
 
+	/**
+	 * If true, the content of a String is written only once.
+	 */
+	private boolean stringDedup = false;
+
+	/**
+	 * The maximum length of a String content.  0 indicates no limit.
+	 */
+	private int stringLimit = 0;
+
 	/**
 	 * If true, timestamps are recorded for each event.
 	 */
 	private boolean recordTime = false;
 
+	/**
+	 * The resolution of timestamps in nanoseconds
+	 */
+	private long timeResolution = CoarseClock.DEFAULT_RESOLUTION;
+
 	/**
 	 * Strategy to record exceptions
 	 */
@@ -102,6 +203,11 @@ public class RuntimeWeaverParameters {
 
 	private Mode mode = Mode.FixedSize;
 
+	/**
+	 * Messages on options that are ignored in the specified configuration
+	 */
+	private ArrayList<String> warnings = new ArrayList<>();
+
 	/**
 	 * A shared instance to generate the same datetime for files
 	 */
@@ -118,6 +224,7 @@ public class RuntimeWeaverParameters {
 		for (String pkg : SYSTEM_PACKAGES)
 			excludedNames.add(pkg);
 
+		boolean keepObjectSpecified = false;
 		for (String arg : a) {
 			if (arg.startsWith("output=")) {
 				output_dirname = fillTimePattern(arg.substring("output=".length()));
@@ -139,8 +246,12 @@ public class RuntimeWeaverParameters {
 			} else if (arg.startsWith("json=")) {
 				String param = arg.substring("json=".length());
 				outputJson = param.equalsIgnoreCase("true");
+			} else if (arg.startsWith("binary=")) {
+				String param = arg.substring("binary=".length());
+				outputBinary = param.equalsIgnoreCase("true");
 			} else if (arg.startsWith("keepobj=")) {
 				String param = arg.substring("keepobj=".length());
+				keepObjectSpecified = true;
 				if (param.equalsIgnoreCase("true") || param.equalsIgnoreCase("strong")) {
 					keepObject = ObjectRecordingStrategy.Strong;
 				} else if (param.equalsIgnoreCase("false") || param.equalsIgnoreCase("weak")) {
@@ -148,6 +259,59 @@ public class RuntimeWeaverParameters {
 				} else if (param.equalsIgnoreCase("id")) {
 					keepObject = ObjectRecordingStrategy.Id;
 				}
+			} else if (arg.startsWith("buffer=")) {
+				String param = arg.substring("buffer=".length());
+				threadLocalBuffers = param.equalsIgnoreCase("thread");
+			} else if (arg.startsWith("seqnum=")) {
+				String param = arg.substring("seqnum=".length());
+				threadLocalSeqnum = param.equalsIgnoreCase("thread");
+			} else if (arg.startsWith("mmap=")) {
+				String param = arg.substring("mmap=".length());
+				mappedOutput = param.equalsIgnoreCase("true");
+			} else if (arg.startsWith("encoding=")) {
+				String param = arg.substring("encoding=".length());
+				compactEncoding = param.equalsIgnoreCase("compact");
+				compressedEncoding = param.equalsIgnoreCase("deflate");
+			} else if (arg.startsWith("files=")) {
+				String param = arg.substring("files=".length());
+				threadFiles = param.equalsIgnoreCase("thread");
+			} else if (arg.startsWith("async=")) {
+				String param = arg.substring("async=".length());
+				if (param.equalsIgnoreCase("block")) {
+					asyncPolicy = AsyncEventLogger.Policy.Block;
+				} else if (param.equalsIgnoreCase("drop")) {
+					asyncPolicy = AsyncEventLogger.Policy.Drop;
+				} else if (param.equalsIgnoreCase("sample")) {
+					asyncPolicy = AsyncEventLogger.Policy.Sample;
+				} else {
+					asyncPolicy = null;
+				}
+			} else if (arg.startsWith("sample=")) {
+				// sample=N:M or sample=N:M:pattern
+				String[] tokens = arg.substring("sample=".length()).split(":", 3);
+				if (tokens.length >= 2) {
+					sampleFirst = Math.max(0, Integer.parseInt(tokens[0]));
+					sampleInterval = Math.max(1, Integer.parseInt(tokens[1]));
+					if (tokens.length == 3) {
+						DataInfoPattern p = new DataInfoPattern(tokens[2]);
+						dataIdPatterns.put("sample", p);
+					}
+				}
+			} else if (arg.startsWith("asyncsize=")) {
+				asyncBufferSize = Integer.parseInt(arg.substring("asyncsize=".length()));
+				if (asyncBufferSize < 2)
+					asyncBufferSize = 2;
+			} else if (arg.startsWith("storage=")) {
+				String param = arg.substring("storage=".length());
+				offHeapStorage = param.equalsIgnoreCase("offheap");
+			} else if (arg.startsWith("savethreads=")) {
+				saveThreads = Integer.parseInt(arg.substring("savethreads=".length()));
+				if (saveThreads < 1)
+					saveThreads = 1;
+			} else if (arg.startsWith("snapshot=")) {
+				snapshotInterval = parseDuration(arg.substring("snapshot=".length()));
+			} else if (arg.startsWith("memory=")) {
+				memoryBudget = parseSize(arg.substring("memory=".length()));
 			} else if (arg.startsWith("logstart=")) {
 				DataInfoPattern p = new DataInfoPattern(arg.substring("logstart=".length()));
 				if (p != null)
@@ -174,9 +338,18 @@ public class RuntimeWeaverParameters {
 			} else if (arg.startsWith("string=")) {
 				String param = arg.substring("string=".length());
 				recordString = Boolean.parseBoolean(param);
+			} else if (arg.startsWith("stringdedup=")) {
+				String param = arg.substring("stringdedup=".length());
+				stringDedup = Boolean.parseBoolean(param);
+			} else if (arg.startsWith("stringlimit=")) {
+				stringLimit = Integer.parseInt(arg.substring("stringlimit=".length()));
+				if (stringLimit < 0)
+					stringLimit = 0;
 			} else if (arg.startsWith("timestamp=")) {
 				String param = arg.substring("timestamp=".length());
 				recordTime = Boolean.parseBoolean(param);
+			} else if (arg.startsWith("timeres=")) {
+				timeResolution = parseResolution(arg.substring("timeres=".length()));
 			} else if (arg.startsWith("exception=")) {
 				String param = arg.substring("exception=".length());
 				if (param.equalsIgnoreCase("message")) {
@@ -222,6 +395,91 @@ public class RuntimeWeaverParameters {
 				}
 			}
 		}
+		
+		if (offHeapStorage) {
+			// The off-heap storage records objects by IDs in fixed-size regions shared by threads
+			if (keepObjectSpecified && keepObject != ObjectRecordingStrategy.Id) {
+				warnings.add("storage=offheap records objects by IDs.  keepobj=" + keepObject.name().toLowerCase() + " is ignored.");
+			}
+			keepObject = ObjectRecordingStrategy.Id;
+			if (threadLocalBuffers) {
+				warnings.add("storage=offheap does not support buffer=thread.  buffer=shared is used.");
+				threadLocalBuffers = false;
+			}
+			if (snapshotInterval > 0) {
+				warnings.add("storage=offheap does not support snapshot=.  Snapshots are disabled.");
+				snapshotInterval = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return messages on options ignored in the specified configuration.
+	 * The list is empty if all the options are effective.
+	 */
+	public ArrayList<String> getWarnings() {
+		return warnings;
+	}
+
+	/**
+	 * Parse a size with an optional unit (k, m, or g).
+	 * @param size is a string such as "512m".
+	 * @return the number of bytes.
+	 */
+	private static long parseSize(String size) {
+		long unit = 1;
+		String s = size.trim().toLowerCase();
+		if (s.endsWith("k")) {
+			unit = 1024;
+		} else if (s.endsWith("m")) {
+			unit = 1024 * 1024;
+		} else if (s.endsWith("g")) {
+			unit = 1024 * 1024 * 1024;
+		}
+		if (unit > 1) s = s.substring(0, s.length() - 1);
+		return Long.parseLong(s) * unit;
+	}
+
+	/**
+	 * Parse a duration with an optional unit (ms, s, m, or h).
+	 * A number without a unit is regarded as seconds.
+	 * @param duration is a string such as "30s".
+	 * @return the duration in milliseconds.
+	 */
+	private static long parseDuration(String duration) {
+		String s = duration.trim().toLowerCase();
+		if (s.endsWith("ms")) {
+			return Long.parseLong(s.substring(0, s.length() - 2));
+		} else if (s.endsWith("s")) {
+			return Long.parseLong(s.substring(0, s.length() - 1)) * 1000;
+		} else if (s.endsWith("m")) {
+			return Long.parseLong(s.substring(0, s.length() - 1)) * 60 * 1000;
+		} else if (s.endsWith("h")) {
+			return Long.parseLong(s.substring(0, s.length() - 1)) * 60 * 60 * 1000;
+		} else {
+			return Long.parseLong(s) * 1000;
+		}
+	}
+
+	/**
+	 * Parse a resolution of a clock with an optional unit (ns, us, ms, or s).
+	 * A number without a unit is regarded as milliseconds.
+	 * @param resolution is a string such as "100us".
+	 * @return the resolution in nanoseconds.
+	 */
+	private static long parseResolution(String resolution) {
+		String s = resolution.trim().toLowerCase();
+		if (s.endsWith("ns")) {
+			return Long.parseLong(s.substring(0, s.length() - 2));
+		} else if (s.endsWith("us")) {
+			return Long.parseLong(s.substring(0, s.length() - 2)) * 1000;
+		} else if (s.endsWith("ms")) {
+			return Long.parseLong(s.substring(0, s.length() - 2)) * 1000 * 1000;
+		} else if (s.endsWith("s")) {
+			return Long.parseLong(s.substring(0, s.length() - 1)) * 1000 * 1000 * 1000;
+		} else {
+			return Long.parseLong(s) * 1000 * 1000;
+		}
 	}
 
 	/**
@@ -234,7 +492,7 @@ public class RuntimeWeaverParameters {
 
 	public File getTraceFile() {
 		if (traceFileName == null) {
-			String filename = DEFAULT_TRACE_FILENAME + (outputJson ? ".json" : ".txt");
+			String filename = DEFAULT_TRACE_FILENAME + (isOutputBinaryEnabled() ? ".bin" : outputJson ? ".json" : ".txt");
 			if (getOutputDirname() != null) {
 				return new File(getOutputDir(), filename);
 			} else {
@@ -289,10 +547,80 @@ public class RuntimeWeaverParameters {
 		return keepObject;
 	}
 
+	public boolean isThreadLocalBufferEnabled() {
+		return threadLocalBuffers;
+	}
+
+	public boolean isThreadLocalSeqnumEnabled() {
+		return threadLocalSeqnum;
+	}
+
+	public boolean isOffHeapStorageEnabled() {
+		return offHeapStorage;
+	}
+
+	public boolean isMappedOutputEnabled() {
+		return mappedOutput;
+	}
+
+	public boolean isCompactEncodingEnabled() {
+		return compactEncoding;
+	}
+
+	public boolean isCompressedEncodingEnabled() {
+		return compressedEncoding;
+	}
+
+	public boolean isThreadFilesEnabled() {
+		return threadFiles;
+	}
+
+	public AsyncEventLogger.Policy getAsyncPolicy() {
+		return asyncPolicy;
+	}
+
+	public int getAsyncBufferSize() {
+		return asyncBufferSize;
+	}
+
+	/**
+	 * @return true if events are sampled for each location.
+	 */
+	public boolean isSamplingEnabled() {
+		return sampleInterval > 0;
+	}
+
+	public int getSampleFirst() {
+		return sampleFirst;
+	}
+
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public int getSaveThreads() {
+		return saveThreads;
+	}
+
+	public long getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
 	public boolean isOutputJsonEnabled() {
 		return outputJson;
 	}
 
+	/**
+	 * @return true if the nearomni mode writes a binary trace.
+	 */
+	public boolean isOutputBinaryEnabled() {
+		return outputBinary && mode == Mode.FixedSize;
+	}
+
 	public ExceptionRecording isRecordingExceptions() {
 		return recordExceptions;
 	}
@@ -301,10 +629,28 @@ public class RuntimeWeaverParameters {
 		return recordString;
 	}
 
+	public boolean isStringDedupEnabled() {
+		return stringDedup;
+	}
+
+	/**
+	 * @return the maximum length of a String content.  0 indicates no limit.
+	 */
+	public int getStringLimit() {
+		return stringLimit;
+	}
+
 	public boolean isRecordingTime() {
 		return recordTime;
 	}
 
+	/**
+	 * @return the resolution of timestamps in nanoseconds.
+	 */
+	public long getTimeResolution() {
+		return timeResolution;
+	}
+
 	public boolean isWeaveSecurityManagerClassEnabled() {
 		return weaveSecurityManagerClass;
 	}
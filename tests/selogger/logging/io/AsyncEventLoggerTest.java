@@ -0,0 +1,182 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import selogger.logging.io.FilterLoggerTest.StringLogger;
+import selogger.logging.util.ThreadId;
+
+public class AsyncEventLoggerTest {
+
+	/**
+	 * A temporary folder for the dropped event file
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A logger that also records the thread IDs of events
+	 */
+	private static class ThreadMemoryLogger extends MemoryLogger {
+
+		private ArrayList<Integer> threads = new ArrayList<>();
+
+		@Override
+		public void recordEvent(int dataId, int value) {
+			threads.add(ThreadId.get());
+			super.recordEvent(dataId, value);
+		}
+	}
+
+	/**
+	 * A logger that waits until a latch is released
+	 */
+	private static class SlowLogger extends MemoryLogger {
+
+		private CountDownLatch latch = new CountDownLatch(1);
+
+		@Override
+		public void recordEvent(int dataId, int value) {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+			}
+			super.recordEvent(dataId, value);
+		}
+	}
+
+	@Test
+	public void testBlock() throws InterruptedException {
+		ThreadMemoryLogger mem = new ThreadMemoryLogger();
+		StringLogger messages = new StringLogger();
+		final AsyncEventLogger async = new AsyncEventLogger(mem, AsyncEventLogger.Policy.Block, 4, messages, null);
+		int main = ThreadId.get();
+		async.recordEvent(1, 10);
+		async.recordEvent(2, 20L);
+		async.recordEvent(3, 1.5);
+		async.recordEvent(4, "s");
+		async.recordEvent(5, true);
+		final int[] other = new int[1];
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				other[0] = ThreadId.get();
+				for (int i=0; i<100; i++) {
+					async.recordEvent(6, i);
+				}
+			}
+		});
+		t.start();
+		t.join();
+		async.save(false);
+		Assert.assertEquals(105, mem.getEvents().size());
+		async.close();
+
+		List<MemoryLogger.Event> events = mem.getEvents();
+		Assert.assertEquals(10, events.get(0).getIntValue());
+		Assert.assertEquals(20L, events.get(1).getLongValue());
+		Assert.assertEquals(1.5, events.get(2).getDoubleValue(), 0);
+		Assert.assertEquals("s", events.get(3).getObjectValue());
+		Assert.assertTrue(events.get(4).getBooleanValue());
+		for (int i=0; i<100; i++) {
+			Assert.assertEquals(i, events.get(5 + i).getIntValue());
+		}
+		Assert.assertEquals(main, mem.threads.get(0).intValue());
+		for (int i=1; i<=100; i++) {
+			Assert.assertEquals(other[0], mem.threads.get(i).intValue());
+		}
+		Assert.assertEquals(0, async.getDroppedCount());
+		Assert.assertEquals(1, messages.getMessageCount());
+	}
+
+	@Test
+	public void testDrop() throws IOException {
+		SlowLogger slow = new SlowLogger();
+		StringLogger messages = new StringLogger();
+		File dropped = new File(folder.getRoot(), AsyncEventLogger.FILENAME_DROPPED);
+		AsyncEventLogger async = new AsyncEventLogger(slow, AsyncEventLogger.Policy.Drop, 4, messages, dropped);
+		for (int i=0; i<100; i++) {
+			async.recordEvent(1, i);
+		}
+		slow.latch.countDown();
+		async.close();
+
+		// The buffer and the consumer keep at most 5 events
+		long count = async.getDroppedCount();
+		Assert.assertTrue(count >= 95);
+		Assert.assertEquals(100, slow.getEvents().size() + count);
+		List<String> lines = Files.readAllLines(dropped.toPath());
+		Assert.assertEquals(1, lines.size());
+		Assert.assertEquals("1," + count, lines.get(0));
+		Assert.assertEquals(1, messages.getMessageCount());
+	}
+
+	@Test(timeout = 60000)
+	public void testCloseWhileBlocked() throws InterruptedException {
+		final SlowLogger slow = new SlowLogger();
+		StringLogger messages = new StringLogger();
+		final AsyncEventLogger async = new AsyncEventLogger(slow, AsyncEventLogger.Policy.Block, 2, messages, null);
+		ThreadId.get();
+		// A thread is blocked because the buffer is full
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i=0; i<10; i++) {
+					async.recordEvent(1, i);
+				}
+			}
+		});
+		producer.start();
+		Thread.sleep(50);
+		Thread release = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				slow.latch.countDown();
+			}
+		});
+		release.start();
+		// close waits for the blocked thread, and the following events are counted 
+		async.close();
+		producer.join();
+		release.join();
+		long count = async.getDroppedCount();
+		Assert.assertTrue(slow.getEvents().size() >= 3);
+		Assert.assertEquals(10, slow.getEvents().size() + count);
+
+		// An event after close is counted
+		async.recordEvent(2, 0);
+		Assert.assertEquals(count + 1, async.getDroppedCount());
+	}
+
+	@Test
+	public void testSample() {
+		SlowLogger slow = new SlowLogger();
+		StringLogger messages = new StringLogger();
+		AsyncEventLogger async = new AsyncEventLogger(slow, AsyncEventLogger.Policy.Sample, 1024, messages, null);
+		for (int i=0; i<10000; i++) {
+			async.recordEvent(i % 2, i);
+		}
+		slow.latch.countDown();
+		async.close();
+
+		// Events are sampled after the buffer is half full
+		long count = async.getDroppedCount();
+		Assert.assertTrue(count > 0);
+		Assert.assertTrue(slow.getEvents().size() > 512);
+		Assert.assertEquals(10000, slow.getEvents().size() + count);
+		Assert.assertEquals(2, async.getDroppedCounts().size());
+	}
+}
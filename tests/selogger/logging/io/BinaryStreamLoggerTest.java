@@ -0,0 +1,472 @@
+package selogger.logging.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import selogger.logging.IErrorLogger;
+import selogger.logging.util.CoarseClock;
+import selogger.logging.util.ObjectIdFile.ExceptionRecording;
+import selogger.logging.util.ThreadContext;
+import selogger.logging.util.ThreadId;
+import selogger.reader.Event;
+import selogger.reader.EventReader;
+import selogger.reader.SequentialFileList;
+
+
+public class BinaryStreamLoggerTest {
+
+	/**
+	 * A temporary folder for execution traces
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class ErrorCollector implements IErrorLogger {
+
+		private int errors;
+
+		@Override
+		public void log(Throwable t) {
+			errors++;
+		}
+
+		@Override
+		public void log(String msg) {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Read all the events in the output directory.
+	 * @return the number of events for each thread.
+	 * The values of each thread must be 0, 1, 2, ... in the order.
+	 */
+	private HashMap<Integer, Integer> readEvents(File dir) throws IOException {
+		HashMap<Integer, Integer> counts = new HashMap<>();
+		for (File f: SequentialFileList.getSortedList(dir, BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX)) {
+			try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+				for (long i=0; i<f.length() / BinaryStreamLogger.BYTES_PER_EVENT; i++) {
+					int dataId = in.readInt();
+					int threadId = in.readInt();
+					long value = in.readLong();
+					int count = counts.containsKey(threadId) ? counts.get(threadId) : 0;
+					Assert.assertEquals(1, dataId);
+					Assert.assertEquals(count, value);
+					counts.put(threadId, count + 1);
+				}
+			}
+		}
+		return counts;
+	}
+
+	@Test
+	public void testSharedOutput() throws IOException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled);
+		for (int i=0; i<100; i++) {
+			logger.recordEvent(1, i);
+		}
+		logger.close();
+		HashMap<Integer, Integer> counts = readEvents(folder.getRoot());
+		Assert.assertEquals(1, counts.size());
+		Assert.assertEquals(100, counts.get(ThreadId.get()).intValue());
+		Assert.assertEquals(0, err.errors);
+	}
+
+	@Test
+	public void testThreadLocalBuffers() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled);
+		logger.setThreadLocalBuffers(true);
+		recordInThreads(logger, err);
+	}
+
+	@Test(timeout = 60000)
+	public void testThreadLocalBuffersOfManyThreads() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled);
+		logger.setThreadLocalBuffers(true);
+		// Partially filled blocks of terminated threads do not block the other threads
+		recordInThreads(logger, err, EventBlockWriter.MAX_BLOCKS + 44, 10);
+	}
+
+	@Test
+	public void testMappedOutput() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled, BinaryStreamLogger.Output.Mapped);
+		recordInThreads(logger, err);
+		// The pre-allocated file is truncated
+		File[] files = SequentialFileList.getSortedList(folder.getRoot(), BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX);
+		Assert.assertEquals(1, files.length);
+	}
+
+	@Test
+	public void testMappedOutputNotTruncated() throws IOException {
+		// A file that could not be truncated includes unused space 
+		File f = new File(folder.getRoot(), BinaryStreamLogger.LOG_PREFIX + "00001" + BinaryStreamLogger.LOG_SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(f))) {
+			for (int i=0; i<5; i++) {
+				out.writeInt(i < 3 ? 1 : 0);
+				out.writeInt(0);
+				out.writeLong(i < 3 ? i : 0);
+			}
+		}
+		try (PrintWriter w = new PrintWriter(new FileWriter(f.getAbsolutePath() + BinaryStreamLogger.LOG_SUFFIX_COUNT))) {
+			w.println(3);
+		}
+		EventReader reader = new EventReader(folder.getRoot(), null);
+		for (int i=0; i<3; i++) {
+			assertEvent(reader.nextEvent(), i, 1, 0, i);
+		}
+		Assert.assertNull(reader.nextEvent());
+	}
+
+	@Test
+	public void testMappedOutputWithThreadLocalBuffers() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled, BinaryStreamLogger.Output.Mapped);
+		logger.setThreadLocalBuffers(true);
+		recordInThreads(logger, err);
+	}
+
+	@Test
+	public void testCompactOutput() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled, BinaryStreamLogger.Output.Compact);
+		logger.recordEvent(1, 0);
+		logger.recordEvent(3, -1);
+		logger.recordEvent(2, Long.MIN_VALUE);
+		logger.recordEvent(Integer.MAX_VALUE, Long.MAX_VALUE);
+		logger.recordEvent(0, 1.5);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				logger.recordEvent(4, true);
+			}
+		});
+		t.start();
+		t.join();
+		logger.recordEvent(5, 'a');
+		logger.close();
+		Assert.assertEquals(0, err.errors);
+		Assert.assertEquals(0, SequentialFileList.getSortedList(folder.getRoot(), BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX).length);
+
+		int main = ThreadId.get();
+		EventReader reader = new EventReader(folder.getRoot(), null);
+		assertEvent(reader.nextEvent(), 0, 1, main, 0);
+		assertEvent(reader.nextEvent(), 1, 3, main, -1);
+		assertEvent(reader.nextEvent(), 2, 2, main, Long.MIN_VALUE);
+		assertEvent(reader.nextEvent(), 3, Integer.MAX_VALUE, main, Long.MAX_VALUE);
+		assertEvent(reader.nextEvent(), 4, 0, main, Double.doubleToRawLongBits(1.5));
+		Event e = reader.nextEvent();
+		Assert.assertNotEquals(main, e.getThreadId());
+		assertEvent(e, 5, 4, e.getThreadId(), 1);
+		assertEvent(reader.nextEvent(), 6, 5, main, 'a');
+		Assert.assertNull(reader.nextEvent());
+
+		// Seek a compact file
+		reader.seek(2);
+		assertEvent(reader.nextEvent(), 2, 2, main, Long.MIN_VALUE);
+		reader.seek(6);
+		assertEvent(reader.nextEvent(), 6, 5, main, 'a');
+	}
+
+	@Test
+	public void testCompressedOutput() throws IOException {
+		ErrorCollector err = new ErrorCollector();
+		BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled, BinaryStreamLogger.Output.Compressed);
+		final int EVENTS = CompressedEventOutput.EVENTS_PER_BLOCK * 2 + 100;
+		for (int i=0; i<EVENTS; i++) {
+			logger.recordEvent(i % 7, (long)i);
+		}
+		logger.close();
+		Assert.assertEquals(0, err.errors);
+		File[] files = SequentialFileList.getSortedList(folder.getRoot(), BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX_COMPRESSED);
+		Assert.assertEquals(1, files.length);
+		Assert.assertTrue(files[0].length() < EVENTS * BinaryStreamLogger.BYTES_PER_EVENT / 2);
+
+		int main = ThreadId.get();
+		EventReader reader = new EventReader(folder.getRoot(), null);
+		for (int i=0; i<EVENTS; i++) {
+			assertEvent(reader.nextEvent(), i, i % 7, main, i);
+		}
+		Assert.assertNull(reader.nextEvent());
+
+		// Seek events in different blocks
+		long[] targets = { CompressedEventOutput.EVENTS_PER_BLOCK + 5, 3, CompressedEventOutput.EVENTS_PER_BLOCK * 2, EVENTS - 1 };
+		for (long t: targets) {
+			reader.seek(t);
+			assertEvent(reader.nextEvent(), t, (int)(t % 7), main, t);
+		}
+		Assert.assertNull(reader.nextEvent());
+	}
+
+	@Test
+	public void testThreadFiles() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		final BinaryStreamLogger logger = new BinaryStreamLogger(err, folder.getRoot(), false, ExceptionRecording.Disabled, BinaryStreamLogger.Output.ThreadFiles);
+		final int THREADS = 4;
+		final int EVENTS = 10000;
+		ThreadId.get();
+		Thread[] threads = new Thread[THREADS];
+		for (int t=0; t<THREADS; t++) {
+			final int dataId = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i=0; i<EVENTS; i++) {
+						logger.recordEvent(dataId, i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		logger.close();
+		Assert.assertEquals(0, err.errors);
+		Assert.assertEquals(0, SequentialFileList.getSortedList(folder.getRoot(), BinaryStreamLogger.LOG_PREFIX, BinaryStreamLogger.LOG_SUFFIX).length);
+
+		// The merged events are ordered by event IDs
+		EventReader reader = new EventReader(folder.getRoot(), null);
+		HashMap<Integer, Integer> counts = new HashMap<>();
+		HashMap<Integer, Integer> threadOfData = new HashMap<>();
+		for (int i=0; i<THREADS * EVENTS; i++) {
+			Event e = reader.nextEvent();
+			Assert.assertEquals(i, e.getEventId());
+			int count = counts.containsKey(e.getDataId()) ? counts.get(e.getDataId()) : 0;
+			Assert.assertEquals(count, e.getRawValue());
+			counts.put(e.getDataId(), count + 1);
+			if (threadOfData.containsKey(e.getDataId())) {
+				Assert.assertEquals(threadOfData.get(e.getDataId()).intValue(), e.getThreadId());
+			} else {
+				threadOfData.put(e.getDataId(), e.getThreadId());
+			}
+		}
+		Assert.assertNull(reader.nextEvent());
+
+		// Read events of a thread
+		reader = new EventReader(folder.getRoot(), null);
+		Event first = reader.nextEvent();
+		Event e = first;
+		for (int i=1; i<EVENTS; i++) {
+			Event next = reader.nextThreadEvent(e);
+			Assert.assertEquals(first.getThreadId(), next.getThreadId());
+			Assert.assertTrue(e.getEventId() < next.getEventId());
+			Assert.assertEquals(i, next.getRawValue());
+			e = next;
+		}
+		Assert.assertNull(reader.nextThreadEvent(e));
+		// The other events are still available, and their IDs are not used by the thread
+		HashSet<Long> ids = new HashSet<>();
+		for (int i=0; i<(THREADS - 1) * EVENTS; i++) {
+			Event other = reader.nextEvent();
+			Assert.assertNotEquals(first.getThreadId(), other.getThreadId());
+			Assert.assertTrue(ids.add(other.getEventId()));
+		}
+		Assert.assertNull(reader.nextEvent());
+		Assert.assertEquals((THREADS - 1) * EVENTS, ids.size());
+		Assert.assertFalse(ids.contains(e.getEventId()));
+
+		// Seek an event
+		reader = new EventReader(folder.getRoot(), null);
+		Event[] events = new Event[THREADS * EVENTS];
+		for (int i=0; i<events.length; i++) {
+			events[i] = reader.nextEvent();
+		}
+		for (int id: new int[] {12345, 10, 0, events.length - 1}) {
+			reader.seek(id);
+			Event found = reader.nextEvent();
+			Assert.assertEquals(id, found.getEventId());
+			Assert.assertEquals(events[id].getThreadId(), found.getThreadId());
+			Assert.assertEquals(events[id].getRawValue(), found.getRawValue());
+		}
+		reader.seek(10);
+		Assert.assertEquals(10, reader.nextEvent().getEventId());
+		Assert.assertEquals(11, reader.nextEvent().getEventId());
+	}
+
+	@Test
+	public void testThreadFilesOfTerminatedThreads() throws IOException, InterruptedException {
+		ErrorCollector err = new ErrorCollector();
+		final ThreadFileWriter writer = new ThreadFileWriter(folder.getRoot(), err);
+		ThreadId.get();
+		for (int t=0; t<10; t++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writer.write(ThreadContext.get(), 1, 0);
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		// The files of the terminated threads are closed by a new thread
+		writer.write(ThreadContext.get(), 1, 0);
+		Assert.assertEquals(1, writer.getOpenFileCount());
+		writer.close();
+		Assert.assertEquals(0, err.errors);
+
+		EventReader reader = new EventReader(folder.getRoot(), null);
+		for (int i=0; i<11; i++) {
+			Assert.assertEquals(i, reader.nextEvent().getEventId());
+		}
+		Assert.assertNull(reader.nextEvent());
+	}
+
+	@Test
+	public void testThreadFilesMergedOrder() throws IOException {
+		// Write files of threads having the same keys across threads
+		final int THREADS = 3;
+		final int FILES = 3;
+		Random random = new Random(0);
+		ArrayList<long[]> expected = new ArrayList<>();
+		for (int t=0; t<THREADS; t++) {
+			long key = 1000;
+			for (int f=1; f<=FILES; f++) {
+				int count = (f == 2 && t == 1) ? 0 : 50 + random.nextInt(50);
+				File file = new File(folder.getRoot(), BinaryStreamLogger.LOG_PREFIX_THREAD + t + "-" + String.format("%05d", f) + BinaryStreamLogger.LOG_SUFFIX_THREAD);
+				try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+					for (int i=0; i<count; i++) {
+						key += 1 + random.nextInt(3);
+						out.writeLong(key);
+						out.writeInt(t);
+						out.writeLong(expected.size());
+						expected.add(new long[] {key, t, expected.size()});
+					}
+				}
+			}
+		}
+		Collections.sort(expected, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) {
+				int c = Long.compare(o1[0], o2[0]);
+				return c != 0 ? c : Long.compare(o1[1], o2[1]);
+			}
+		});
+		HashMap<Long, Long> eventIds = new HashMap<>();
+		for (int i=0; i<expected.size(); i++) {
+			eventIds.put(expected.get(i)[2], (long)i);
+		}
+
+		EventReader reader = new EventReader(folder.getRoot(), null);
+		for (int i=0; i<expected.size(); i++) {
+			Event e = reader.nextEvent();
+			assertEvent(e, i, (int)expected.get(i)[1], (int)expected.get(i)[1], expected.get(i)[2]);
+		}
+		Assert.assertNull(reader.nextEvent());
+
+		// Events read by nextThreadEvent have the IDs in the merged order 
+		for (int t=0; t<THREADS; t++) {
+			for (long start: new long[] {0, expected.size() / 2}) {
+				reader = new EventReader(folder.getRoot(), null);
+				reader.seek(start);
+				Event e = reader.nextEvent();
+				while (e.getThreadId() != t) {
+					e = reader.nextEvent();
+				}
+				HashSet<Long> taken = new HashSet<>();
+				for (Event next = reader.nextThreadEvent(e); next != null; next = reader.nextThreadEvent(next)) {
+					Assert.assertEquals(t, next.getThreadId());
+					Assert.assertEquals(eventIds.get(next.getRawValue()).longValue(), next.getEventId());
+					taken.add(next.getEventId());
+				}
+				for (Event other = reader.nextEvent(); other != null; other = reader.nextEvent()) {
+					Assert.assertEquals(eventIds.get(other.getRawValue()).longValue(), other.getEventId());
+					Assert.assertFalse(taken.contains(other.getEventId()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testThreadFilesWithSharedClock() throws IOException {
+		ErrorCollector err = new ErrorCollector();
+		// The clock does not tick during the test
+		CoarseClock clock = new CoarseClock(10000000000L);
+		long time = clock.now();
+		ThreadFileWriter writer = new ThreadFileWriter(folder.getRoot(), err, clock);
+		writer.write(ThreadContext.get(), 1, 0);
+		writer.close();
+		Assert.assertEquals(0, err.errors);
+
+		// The key is taken from the clock, and the clock is not closed by the writer 
+		File[] files = folder.getRoot().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(BinaryStreamLogger.LOG_SUFFIX_THREAD);
+			}
+		});
+		Assert.assertEquals(1, files.length);
+		try (DataInputStream in = new DataInputStream(new FileInputStream(files[0]))) {
+			Assert.assertEquals(time, in.readLong());
+		}
+		Assert.assertEquals(time, clock.now());
+		clock.close();
+		Assert.assertNotEquals(time, clock.now());
+	}
+
+	private void assertEvent(Event e, long eventId, int dataId, int threadId, long value) {
+		Assert.assertEquals(eventId, e.getEventId());
+		Assert.assertEquals(dataId, e.getDataId());
+		Assert.assertEquals(threadId, e.getThreadId());
+		Assert.assertEquals(value, e.getRawValue());
+	}
+
+	/**
+	 * Record events in multiple threads and check the output files.
+	 */
+	private void recordInThreads(final BinaryStreamLogger logger, ErrorCollector err) throws IOException, InterruptedException {
+		// Some blocks are full and the others are partially filled
+		recordInThreads(logger, err, 4, EventBlockWriter.EVENTS_PER_BLOCK * 3 + 10);
+	}
+
+	private void recordInThreads(final BinaryStreamLogger logger, ErrorCollector err, final int THREADS, final int EVENTS) throws IOException, InterruptedException {
+		ThreadId.get();
+		Thread[] threads = new Thread[THREADS];
+		for (int t=0; t<THREADS; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i=0; i<EVENTS; i++) {
+						logger.recordEvent(1, i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		logger.close();
+
+		HashMap<Integer, Integer> counts = readEvents(folder.getRoot());
+		Assert.assertEquals(THREADS, counts.size());
+		for (Integer c: counts.values()) {
+			Assert.assertEquals(EVENTS, c.intValue());
+		}
+		Assert.assertEquals(0, err.errors);
+	}
+}
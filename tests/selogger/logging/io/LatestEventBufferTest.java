@@ -2,6 +2,7 @@ package selogger.logging.io;
 
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -19,7 +20,7 @@ public class LatestEventBufferTest {
 	@Test
 	public void testSizeExtension() {
 		int SIZE = 2048;
-		LatestEventBuffer buf = new LatestEventBuffer(int.class, SIZE, null);
+		IntEventBuffer buf = (IntEventBuffer)LatestEventBuffer.create(int.class, SIZE, null);
 		for (int i=1; i<=65536; i++) {
 			buf.addInt(i, i, i);
 			Assert.assertEquals(Math.min(i, SIZE), buf.size());
@@ -29,18 +30,18 @@ public class LatestEventBufferTest {
 			Assert.assertEquals(i < SIZE ? 1 : i-SIZE+1, buf.getThreadId(0));
 		}
 
-		buf = new LatestEventBuffer(long.class,SIZE, null);
+		LongEventBuffer longBuf = (LongEventBuffer)LatestEventBuffer.create(long.class, SIZE, null);
 		for (int i=1; i<=65536; i++) {
-			buf.addLong(i, i, i);
-			Assert.assertEquals(Math.min(i, SIZE), buf.size());
-			Assert.assertEquals(i, buf.count());
-			Assert.assertEquals(i < SIZE ? 1 : i-SIZE+1, buf.getLong(0));
+			longBuf.addLong(i, i, i);
+			Assert.assertEquals(Math.min(i, SIZE), longBuf.size());
+			Assert.assertEquals(i, longBuf.count());
+			Assert.assertEquals(i < SIZE ? 1 : i-SIZE+1, longBuf.getLong(0));
 		}
 	}
 	
 	@Test
 	public void testToString() {
-		LatestEventBuffer buf = new LatestEventBuffer(int.class, 4, null);
+		IntEventBuffer buf = (IntEventBuffer)LatestEventBuffer.create(int.class, 4, null);
 		buf.addInt(1, 0, 0);
 		buf.addInt(2, 1, 0);
 		buf.addInt(3, 2, 0);
@@ -53,7 +54,7 @@ public class LatestEventBufferTest {
 	
 	@Test
 	public void testWriteJson() {
-		LatestEventBuffer buf = new LatestEventBuffer(double.class, 4, null);
+		DoubleEventBuffer buf = (DoubleEventBuffer)LatestEventBuffer.create(double.class, 4, null);
 		buf.addDouble(0, 0, 0);
 		buf.addDouble(1.0, 0, 0);
 		buf.addDouble(2.0, 0, 0);
@@ -75,7 +76,7 @@ public class LatestEventBufferTest {
 
 	@Test
 	public void testWriteJsonObjectId() {
-		LatestEventBuffer buf = new LatestEventBuffer(ObjectId.class, 4, ObjectRecordingStrategy.Id);
+		ObjectIdEventBuffer buf = (ObjectIdEventBuffer)LatestEventBuffer.create(ObjectId.class, 4, ObjectRecordingStrategy.Id);
 		buf.addObjectId(new ObjectId(1, "Ljava/lang/String;", "def"), 0, 0);
 		JsonBuffer json = new JsonBuffer();
 		buf.writeJson(json, false);
@@ -95,7 +96,7 @@ public class LatestEventBufferTest {
 
 	@Test
 	public void testWriteJsonObject() {
-		LatestEventBuffer buf = new LatestEventBuffer(Object.class, 4, ObjectRecordingStrategy.Strong);
+		ObjectEventBuffer buf = (ObjectEventBuffer)LatestEventBuffer.create(Object.class, 4, ObjectRecordingStrategy.Strong);
 		buf.addObject("abc", 0, 0);
 		JsonBuffer json = new JsonBuffer();
 		buf.writeJson(json, false);
@@ -113,5 +114,71 @@ public class LatestEventBufferTest {
 		}
 	}
 
+	@Test
+	public void testMerge() {
+		IntEventBuffer buf1 = (IntEventBuffer)LatestEventBuffer.create(int.class, 4, null);
+		buf1.addInt(1, 1, 0);
+		buf1.addInt(4, 4, 0);
+		buf1.addInt(5, 5, 0);
+		IntEventBuffer buf2 = (IntEventBuffer)LatestEventBuffer.create(int.class, 4, null);
+		buf2.addInt(2, 2, 1);
+		buf2.addInt(3, 3, 1);
+		buf2.addInt(6, 6, 1);
+		
+		LatestEventBuffer merged = LatestEventBuffer.merge(Arrays.asList(buf1, buf2));
+		Assert.assertEquals("6,4,3,3,1,4,4,0,5,5,0,6,6,1", merged.toString());
+		Assert.assertEquals(6, merged.count());
+		Assert.assertEquals(4, merged.size());
+		
+		merged = LatestEventBuffer.merge(Arrays.asList(buf1));
+		Assert.assertEquals("3,3,1,1,0,4,4,0,5,5,0,,,", merged.toString());
+	}
+
+	@Test
+	public void testShrink() {
+		IntEventBuffer buf = (IntEventBuffer)LatestEventBuffer.create(int.class, 8, null);
+		for (int i=1; i<=10; i++) {
+			buf.addInt(i, i, 0);
+		}
+		Assert.assertTrue(buf.shrink(4) > 0);
+		Assert.assertEquals("10,4,7,7,0,8,8,0,9,9,0,10,10,0", buf.toString());
+		buf.addInt(11, 11, 0);
+		Assert.assertEquals("11,4,8,8,0,9,9,0,10,10,0,11,11,0", buf.toString());
+
+		// A small buffer only reduces its maximum size
+		buf = (IntEventBuffer)LatestEventBuffer.create(int.class, 64, null);
+		buf.addInt(1, 1, 0);
+		Assert.assertEquals(0, buf.shrink(32));
+		Assert.assertEquals(1, buf.size());
+	}
+
+	@Test
+	public void testMemoryBudget() {
+		IntEventBuffer buf = (IntEventBuffer)LatestEventBuffer.create(int.class, 64, null);
+		MemoryBudget budget = new MemoryBudget(buf.getMemoryUsage());
+		Assert.assertTrue(budget.reserve(buf.getMemoryUsage()));
+		buf.setMemoryBudget(budget);
+		// The buffer cannot grow beyond the initial capacity 
+		for (int i=1; i<=40; i++) {
+			buf.addInt(i, i, 0);
+		}
+		Assert.assertTrue(budget.isExceeded());
+		Assert.assertEquals(32, buf.size());
+		Assert.assertEquals(9, buf.getInt(0));
+	}
+
+	@Test
+	public void testMemoryBudgetFreeze() {
+		MemoryBudget budget = new MemoryBudget(1000);
+		Assert.assertTrue(budget.reserve(100));
+		budget.freeze();
+		Assert.assertFalse(budget.reserve(1));
+		// The frozen limit is kept until the released buffers become garbage
+		budget.reset();
+		Assert.assertEquals(100, budget.getLimit());
+		budget.restoreLimit();
+		Assert.assertEquals(1000, budget.getLimit());
+		Assert.assertTrue(budget.reserve(1000));
+	}
 
 }
@@ -1,11 +1,15 @@
 package selogger.logging.io;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.junit.Assert;
@@ -95,7 +99,15 @@ public class LatestEventLoggerTest {
 	 * @return a logger object for test cases
 	 */
 	private LatestEventLogger createLog() {
-		LatestEventLogger log = new LatestEventLogger(null, 4, ObjectRecordingStrategy.Weak, true, null);
+		return createLog(null);
+	}
+
+	/**
+	 * @param traceFile specifies a file written by the logger when it is closed.
+	 * @return a logger object for test cases
+	 */
+	private LatestEventLogger createLog(File traceFile) {
+		LatestEventLogger log = new LatestEventLogger(traceFile, 4, ObjectRecordingStrategy.Weak, true, null);
 		DataInfo d1 = new DataInfo(0, 0, 0, 0, 0, EventType.METHOD_ENTRY, Descriptor.Void, null);
 		DataInfo d2 = new DataInfo(0, 0, 1, 0, 0, EventType.METHOD_NORMAL_EXIT, Descriptor.Integer, null);
 		MethodInfo m = new MethodInfo(0, 0, "myClass", "myMethod", "()I", 0, "myClass.java", "0123456789abcdef", null, null);
@@ -203,7 +215,7 @@ public class LatestEventLoggerTest {
 		logger.recordEvent(0, obj);
 		logger.recordEvent(0, new Throwable("test"));
 
-		LatestEventBuffer buffer = logger.prepareBuffer(ObjectId.class, 0);
+		ObjectIdEventBuffer buffer = (ObjectIdEventBuffer)logger.prepareBuffer(ObjectId.class, 0);
 		ObjectId strId = buffer.getObjectId(0);
 		Assert.assertEquals(1, strId.getId());
 		Assert.assertTrue(obj == strId.getContent());
@@ -237,4 +249,243 @@ public class LatestEventLoggerTest {
 		seq = buf.getSeqNum(0);
 		Assert.assertEquals("1,1,NaN," + seq + "," + ThreadId.get(), buf.toString());
 	}
+
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		// Assign a thread ID to the main thread before other threads for testLatestTimeLogger 
+		ThreadId.get();
+		final LatestEventLogger logger = new LatestEventLogger(null, 4, ObjectRecordingStrategy.Weak, true, null);
+		final int THREADS = 8;
+		final int EVENTS = 10000;
+		Thread[] threads = new Thread[THREADS];
+		for (int t=0; t<THREADS; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i=0; i<EVENTS; i++) {
+						// dataId beyond the initial table size extends the table 
+						logger.recordEvent(i % 4, i);
+						logger.recordEvent(100000 + (i % 4), i);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		for (int i=0; i<4; i++) {
+			Assert.assertEquals(THREADS * EVENTS / 4, logger.prepareBuffer(int.class, i).count());
+			Assert.assertEquals(THREADS * EVENTS / 4, logger.prepareBuffer(int.class, 100000 + i).count());
+		}
+	}
+
+	@Test
+	public void testThreadLocalBuffers() throws InterruptedException, IOException {
+		File traceFile = File.createTempFile("trace", ".json");
+		final LatestEventLogger log = createLog(traceFile);
+		log.setThreadLocalBuffers(true);
+		
+		// Two threads alternately record events 
+		log.recordEvent(1, 1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				log.recordEvent(1, 2);
+				log.recordEvent(1, 3);
+			}
+		});
+		t.start();
+		t.join();
+		log.recordEvent(1, 4);
+		log.recordEvent(1, 5);
+		log.recordEvent(0, 0);
+		
+		// Thread-local buffers are merged when the trace is written
+		log.close();
+
+		try {
+			ObjectMapper mapper = new ObjectMapper();
+			JsonNode node = mapper.readTree(traceFile);
+			JsonNode event1 = node.get("events").get(0);
+			Assert.assertEquals(1, event1.get("freq").asInt());
+			JsonNode event2 = node.get("events").get(1);
+			Assert.assertEquals(5, event2.get("freq").asInt());
+			Assert.assertEquals(4, event2.get("record").asInt());
+			// The latest four events in the order of sequence numbers  
+			JsonNode values = event2.get("value");
+			JsonNode seqnums = event2.get("seqnum");
+			for (int i=0; i<4; i++) {
+				Assert.assertEquals(i+2, values.get(i).asInt());
+				if (i > 0) Assert.assertTrue(seqnums.get(i-1).asLong() < seqnums.get(i).asLong());
+			}
+		} catch (IOException e) {
+			Assert.fail();
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	@Test
+	public void testMemoryThreshold() throws IOException {
+		LatestEventLogger log = createLog();
+		// The threshold allows a buffer of k=4 and a buffer of k=2
+		long threshold = LatestEventBuffer.create(int.class, 4, null).getMemoryUsage() + LatestEventBuffer.create(int.class, 2, null).getMemoryUsage();
+		log.setMemoryThreshold(threshold);
+		log.recordEvent(0, 1);
+		// The first event is discarded and the second event is recorded with k=2 
+		log.recordEvent(1, 1);
+		log.recordEvent(1, 2);
+		Assert.assertNull(log.prepareBuffer(int.class, 2));
+		IntEventBuffer buf = (IntEventBuffer)log.prepareBuffer(int.class, 1);
+		Assert.assertEquals(1, buf.count());
+		Assert.assertEquals(2, buf.getInt(0));
+
+		// The recorded events are kept in the trace
+		StringWriter w = new StringWriter();
+		PrintWriter writer = new PrintWriter(w);
+		log.saveText(writer);
+		writer.close();
+		LineNumberReader reader = new LineNumberReader(new StringReader(w.toString()));
+		int columns = countColumns(reader.readLine());
+		Assert.assertEquals(columns, countColumns(reader.readLine()));
+		Assert.assertEquals(columns, countColumns(reader.readLine()));
+	}
+
+	@Test
+	public void testMemoryReduction() throws IOException {
+		File traceFile = File.createTempFile("trace", ".json");
+		File partialTrace = new File(traceFile.getAbsolutePath() + ".1.json");
+		LatestEventLogger log = new LatestEventLogger(traceFile, 256, ObjectRecordingStrategy.Weak, true, null);
+		log.setThreadLocalBuffers(true);
+		// The threshold allows three int buffers of k=256 (an object header and 16 bytes per event)
+		log.setMemoryThreshold(3 * (96 + 256 * 16));
+		for (int i=0; i<1000; i++) {
+			log.recordEvent(0, i);
+			if (i < 256) log.recordEvent(1, i);
+			if (i < 500) log.recordEvent(2, i);
+		}
+		Assert.assertEquals(256, log.prepareBuffer(int.class, 0).getCapacity());
+		
+		// A new data ID requires the buffers to be shrunk.
+		// The rarely executed buffers are shrunk first. 
+		log.recordEvent(3, 1);
+		log.recordEvent(3, 2);
+		Assert.assertEquals(256, log.prepareBuffer(int.class, 0).getCapacity());
+		Assert.assertEquals(128, log.prepareBuffer(int.class, 1).getCapacity());
+		Assert.assertEquals(128, log.prepareBuffer(int.class, 2).getCapacity());
+		Assert.assertEquals(1, log.prepareBuffer(int.class, 3).count());
+		Assert.assertEquals(128, log.prepareBuffer(int.class, 3).getBufferSize());
+
+		// New buffers have the original size after the trace is saved
+		log.save(true);
+		Assert.assertTrue(partialTrace.delete());
+		Assert.assertEquals(256, log.prepareBuffer(int.class, 4).getBufferSize());
+		log.close();
+		traceFile.delete();
+	}
+
+	@Test
+	public void testParallelSave() throws IOException {
+		LatestEventLogger log = new LatestEventLogger(null, 4, ObjectRecordingStrategy.Weak, true, null);
+		// Non-ASCII characters are encoded in UTF-8 
+		MethodInfo m = new MethodInfo(0, 0, "myClass", "m\u00e9thod\u3042\ud83d\ude00", "()I", 0, "myClass.java", "0123456789abcdef", null, null);
+		ArrayList<DataInfo> dataids = new ArrayList<>();
+		for (int i=0; i<10000; i++) {
+			DataInfo d = new DataInfo(0, 0, i, i, 0, EventType.METHOD_NORMAL_EXIT, Descriptor.Integer, null);
+			d.setMethodInfo(m);
+			dataids.add(d);
+		}
+		log.onCreated(dataids);
+		for (int i=0; i<10000; i+=3) {
+			log.recordEvent(i, i);
+		}
+
+		StringWriter w = new StringWriter();
+		PrintWriter writer = new PrintWriter(w);
+		log.saveJson(writer);
+		writer.close();
+		String expected = w.toString();
+
+		// The file content does not depend on the number of threads
+		File f = File.createTempFile("trace", ".json");
+		try {
+			for (int threads: new int[] {1, 4}) {
+				log.setSaveThreads(threads);
+				log.saveTrace(f, true);
+				Assert.assertEquals(expected, new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		File traceFile = File.createTempFile("trace", ".json");
+		File snapshot1 = new File(traceFile.getAbsolutePath() + ".1.json");
+		File snapshot2 = new File(traceFile.getAbsolutePath() + ".2.json");
+		try {
+			LatestEventLogger log = new LatestEventLogger(traceFile, 4, ObjectRecordingStrategy.Weak, true, null);
+			MethodInfo m = new MethodInfo(0, 0, "myClass", "myMethod", "()I", 0, "myClass.java", "0123456789abcdef", null, null);
+			DataInfo d = new DataInfo(0, 0, 0, 0, 0, EventType.METHOD_NORMAL_EXIT, Descriptor.Integer, null);
+			d.setMethodInfo(m);
+			log.onCreated(Arrays.asList(d));
+			ObjectMapper mapper = new ObjectMapper();
+
+			// A snapshot without reset keeps the events 
+			log.recordEvent(0, 1);
+			log.save(false);
+			Assert.assertEquals(1, mapper.readTree(snapshot1).get("events").get(0).get("freq").asInt());
+			Assert.assertNotNull(log.prepareBuffer(int.class, 0));
+			Assert.assertEquals(1, log.prepareBuffer(int.class, 0).count());
+
+			// A periodic snapshot switches to new buffers
+			log.recordEvent(0, 2);
+			log.takeSnapshot();
+			JsonNode event = mapper.readTree(snapshot2).get("events").get(0);
+			Assert.assertEquals(2, event.get("freq").asInt());
+			Assert.assertEquals(1, event.get("value").get(0).asInt());
+			Assert.assertEquals(2, event.get("value").get(1).asInt());
+
+			// Events after the snapshot are written to the final trace
+			log.recordEvent(0, 3);
+			log.close();
+			event = mapper.readTree(traceFile).get("events").get(0);
+			Assert.assertEquals(1, event.get("freq").asInt());
+			Assert.assertEquals(3, event.get("value").get(0).asInt());
+			
+			// No snapshots are taken after close
+			log.takeSnapshot();
+			Assert.assertFalse(new File(traceFile.getAbsolutePath() + ".3.json").exists());
+		} finally {
+			traceFile.delete();
+			snapshot1.delete();
+			snapshot2.delete();
+		}
+	}
+
+	@Test
+	public void testThreadLocalSeqnum() throws InterruptedException {
+		final LatestEventLogger log = new LatestEventLogger(null, 8, ObjectRecordingStrategy.Weak, true, null);
+		log.setThreadLocalSeqnum(true);
+		log.recordEvent(0, 1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				log.recordEvent(0, 2);
+				log.recordEvent(0, 3);
+			}
+		});
+		t.start();
+		t.join();
+		log.recordEvent(0, 4);
+		
+		// Sequence numbers are unique and increasing in each thread
+		LatestEventBuffer buf = log.prepareBuffer(int.class, 0);
+		Assert.assertEquals(4, buf.size());
+		Assert.assertEquals(buf.getSeqNum(0) + 1, buf.getSeqNum(3));
+		Assert.assertEquals(buf.getSeqNum(1) + 1, buf.getSeqNum(2));
+		Assert.assertNotEquals(buf.getSeqNum(0), buf.getSeqNum(1));
+	}
 }
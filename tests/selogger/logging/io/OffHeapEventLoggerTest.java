@@ -0,0 +1,218 @@
+package selogger.logging.io;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import selogger.EventType;
+import selogger.logging.IEventLogger;
+import selogger.logging.io.LatestEventLogger.ObjectRecordingStrategy;
+import selogger.weaver.DataInfo;
+import selogger.weaver.MethodInfo;
+import selogger.weaver.method.Descriptor;
+
+
+public class OffHeapEventLoggerTest {
+
+	/**
+	 * @return a logger object for test cases
+	 */
+	private OffHeapEventLogger createLog(File traceFile, long memoryBudget) {
+		OffHeapEventLogger log = new OffHeapEventLogger(traceFile, 4, memoryBudget, true, null);
+		DataInfo d1 = new DataInfo(0, 0, 0, 0, 0, EventType.METHOD_ENTRY, Descriptor.Void, null);
+		DataInfo d2 = new DataInfo(0, 0, 1, 0, 0, EventType.METHOD_NORMAL_EXIT, Descriptor.Integer, null);
+		DataInfo d3 = new DataInfo(0, 0, 2, 0, 0, EventType.METHOD_NORMAL_EXIT, Descriptor.Object, null);
+		MethodInfo m = new MethodInfo(0, 0, "myClass", "myMethod", "()I", 0, "myClass.java", "0123456789abcdef", null, null);
+		d1.setMethodInfo(m);
+		d2.setMethodInfo(m);
+		d3.setMethodInfo(m);
+		log.onCreated(Arrays.asList(d1, d2, d3));
+		return log;
+	}
+
+	private JsonNode saveJson(AbstractEventLogger log) throws IOException {
+		StringWriter w = new StringWriter();
+		PrintWriter writer = new PrintWriter(w);
+		log.saveJson(writer);
+		writer.close();
+		return new ObjectMapper().readTree(w.toString());
+	}
+
+	/**
+	 * @return CSV lines without sequence numbers, which are different between loggers 
+	 */
+	private ArrayList<String> saveTextWithoutSeqnums(AbstractEventLogger log) throws IOException {
+		StringWriter w = new StringWriter();
+		PrintWriter writer = new PrintWriter(w);
+		log.saveText(writer);
+		writer.close();
+		LineNumberReader reader = new LineNumberReader(new StringReader(w.toString()));
+		String[] header = reader.readLine().split(",");
+		ArrayList<String> lines = new ArrayList<>();
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			String[] columns = line.split(",", -1);
+			StringBuilder b = new StringBuilder();
+			for (int i=0; i<columns.length; i++) {
+				if (i >= header.length || !header[i].startsWith("seqnum")) {
+					b.append(columns[i]);
+					b.append(",");
+				}
+			}
+			lines.add(b.toString());
+		}
+		return lines;
+	}
+
+	private void recordObjects(IEventLogger log) {
+		log.recordEvent(0, 1);
+		log.recordEvent(1, 2);
+		log.recordEvent(2, "a");
+		log.recordEvent(2, new RuntimeException("message"));
+		log.recordEvent(2, (Object)null);
+		log.recordEvent(2, new int[0]);
+		log.recordEvent(2, "b");
+	}
+
+	@Test
+	public void testSameOutputAsLatestEventLogger() throws IOException {
+		OffHeapEventLogger offheap = createLog(null, 0);
+		recordObjects(offheap);
+		LatestEventLogger latest = new LatestEventLogger(null, 4, ObjectRecordingStrategy.Id, true, null);
+		latest.onCreated(offheap.getDataIDs());
+		recordObjects(latest);
+
+		JsonNode expected = saveJson(latest).get("events");
+		JsonNode actual = saveJson(offheap).get("events");
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i=0; i<expected.size(); i++) {
+			((ObjectNode)expected.get(i)).remove("seqnum");
+			((ObjectNode)actual.get(i)).remove("seqnum");
+			Assert.assertEquals(expected.get(i), actual.get(i));
+		}
+		// The latest four objects include their contents
+		JsonNode values = actual.get(2).get("value");
+		Assert.assertEquals("message", values.get(0).get("str").asText());
+		Assert.assertTrue(values.get(1).isNull());
+		Assert.assertEquals("int[]", values.get(2).get("type").asText());
+		Assert.assertNull(values.get(2).get("str"));
+		Assert.assertEquals("b", values.get(3).get("str").asText());
+
+		Assert.assertEquals(saveTextWithoutSeqnums(latest), saveTextWithoutSeqnums(offheap));
+	}
+
+	@Test
+	public void testContentAfterReset() throws IOException {
+		File traceFile = File.createTempFile("trace", ".json");
+		File partialTrace = new File(traceFile.getAbsolutePath() + ".1.json");
+		OffHeapEventLogger log = createLog(traceFile, 0);
+		log.recordEvent(2, "a");
+		log.save(true);
+		partialTrace.delete();
+		traceFile.delete();
+		log.recordEvent(2, "a");
+		JsonNode events = saveJson(log).get("events");
+		Assert.assertEquals("a", events.get(0).get("value").get(0).get("str").asText());
+	}
+
+	@Test
+	public void testJsonFormat() throws IOException {
+		OffHeapEventLogger log = createLog(null, 0);
+		log.recordEvent(0, 1);
+		for (int i=1; i<=6; i++) {
+			log.recordEvent(1, i);
+		}
+		log.recordEvent(2, "a");
+		log.recordEvent(2, (Object)null);
+
+		JsonNode node = saveJson(log);
+		Assert.assertEquals("nearomni", node.get("format").asText());
+		JsonNode event1 = node.get("events").get(0);
+		Assert.assertEquals("METHOD_ENTRY", event1.get("event").asText());
+		Assert.assertEquals(1, event1.get("freq").asInt());
+		Assert.assertNull(event1.get("value"));
+
+		// The latest four events in the order of sequence numbers
+		JsonNode event2 = node.get("events").get(1);
+		Assert.assertEquals(6, event2.get("freq").asInt());
+		Assert.assertEquals(4, event2.get("record").asInt());
+		JsonNode values = event2.get("value");
+		JsonNode seqnums = event2.get("seqnum");
+		for (int i=0; i<4; i++) {
+			Assert.assertEquals(i+3, values.get(i).asInt());
+			if (i > 0) Assert.assertEquals(seqnums.get(i-1).asLong() + 1, seqnums.get(i).asLong());
+		}
+
+		JsonNode event3 = node.get("events").get(2);
+		Assert.assertEquals(2, event3.get("record").asInt());
+		Assert.assertEquals("java.lang.String", event3.get("value").get(0).get("type").asText());
+		Assert.assertTrue(event3.get("value").get(1).isNull());
+	}
+
+	@Test
+	public void testCsvFormat() throws IOException {
+		OffHeapEventLogger log = createLog(null, 0);
+		log.recordEvent(0, 1);
+		log.recordEvent(1, 2);
+		log.recordEvent(2, "a");
+
+		StringWriter w = new StringWriter();
+		PrintWriter writer = new PrintWriter(w);
+		log.saveText(writer);
+		writer.close();
+
+		LineNumberReader reader = new LineNumberReader(new StringReader(w.toString()));
+		String header = reader.readLine();
+		int columns = header.split(",").length;
+		int lines = 0;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			Assert.assertEquals(columns, line.split(",", -1).length);
+			lines++;
+		}
+		Assert.assertEquals(3, lines);
+	}
+
+	@Test
+	public void testMemoryBudget() throws IOException {
+		// The budget is enough for two locations
+		OffHeapEventLogger log = createLog(null, 2 * (16 + 24 * 4));
+		log.recordEvent(0, 1);
+		log.recordEvent(1, 1);
+		log.recordEvent(2, "a");
+		log.recordEvent(1, 2);
+
+		JsonNode events = saveJson(log).get("events");
+		Assert.assertEquals(2, events.size());
+		Assert.assertEquals(1, events.get(0).get("freq").asInt());
+		Assert.assertEquals(2, events.get(1).get("freq").asInt());
+	}
+
+	@Test
+	public void testSaveAndReset() throws IOException {
+		File traceFile = File.createTempFile("trace", ".json");
+		File partialTrace = new File(traceFile.getAbsolutePath() + ".1.json");
+		OffHeapEventLogger log = createLog(traceFile, 0);
+		log.recordEvent(1, 1);
+		log.save(true);
+		Assert.assertTrue(partialTrace.exists());
+		partialTrace.delete();
+		traceFile.delete();
+		Assert.assertEquals(0, saveJson(log).get("events").size());
+		log.recordEvent(1, 2);
+		JsonNode events = saveJson(log).get("events");
+		Assert.assertEquals(1, events.get(0).get("freq").asInt());
+		Assert.assertEquals(2, events.get(0).get("value").get(0).asInt());
+	}
+}
@@ -0,0 +1,71 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import selogger.logging.io.FilterLoggerTest.FixedId;
+import selogger.logging.io.FilterLoggerTest.StringLogger;
+
+public class SamplingLoggerTest {
+
+	/**
+	 * A temporary folder for the count file
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSampling() throws IOException {
+		MemoryLogger mem = new MemoryLogger();
+		File f = new File(folder.getRoot(), SamplingLogger.FILENAME);
+		SamplingLogger logger = new SamplingLogger(mem, null, 3, 10, new StringLogger(), f);
+		for (int i=0; i<25; i++) {
+			logger.recordEvent(1, i);
+		}
+		// A data ID in another page of counters
+		logger.recordEvent(10000, 1L);
+		logger.close();
+
+		// The first 3 events, and then one of 10 events
+		int[] expected = {0, 1, 2, 3, 13, 23};
+		Assert.assertEquals(expected.length + 1, mem.getEvents().size());
+		for (int i=0; i<expected.length; i++) {
+			Assert.assertEquals(1, mem.getEvents().get(i).getDataId());
+			Assert.assertEquals(expected[i], mem.getEvents().get(i).getIntValue());
+		}
+		Assert.assertEquals(10000, mem.getEvents().get(expected.length).getDataId());
+		Assert.assertEquals(25, logger.getCount(1));
+		Assert.assertEquals(6, logger.getRecordedCount(1));
+		Assert.assertEquals(0, logger.getCount(2));
+
+		List<String> lines = Files.readAllLines(f.toPath());
+		Assert.assertEquals(3, lines.size());
+		Assert.assertEquals("DataId,Occurrences,Recorded", lines.get(0));
+		Assert.assertEquals("1,25,6", lines.get(1));
+		Assert.assertEquals("10000,1,1", lines.get(2));
+	}
+
+	@Test
+	public void testTarget() {
+		MemoryLogger mem = new MemoryLogger();
+		SamplingLogger logger = new SamplingLogger(mem, new FixedId(1), 0, 5, new StringLogger(), null);
+		for (int i=0; i<10; i++) {
+			logger.recordEvent(1, i);
+			logger.recordEvent(2, i);
+		}
+		logger.close();
+
+		// All events of data ID 2 are recorded without counting
+		Assert.assertEquals(12, mem.getEvents().size());
+		Assert.assertEquals(10, logger.getCount(1));
+		Assert.assertEquals(2, logger.getRecordedCount(1));
+		Assert.assertEquals(0, logger.getCount(2));
+	}
+}
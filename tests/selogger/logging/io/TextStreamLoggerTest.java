@@ -0,0 +1,80 @@
+package selogger.logging.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import selogger.logging.io.FilterLoggerTest.StringLogger;
+import selogger.logging.util.ObjectIdFile.ExceptionRecording;
+import selogger.logging.util.ThreadId;
+
+public class TextStreamLoggerTest {
+
+	/**
+	 * A temporary folder for execution traces
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testValues() throws IOException {
+		TextStreamLogger logger = new TextStreamLogger(new StringLogger(), folder.getRoot(), false, ExceptionRecording.Disabled, false);
+		logger.recordEvent(0, Integer.MIN_VALUE);
+		logger.recordEvent(1, Long.MIN_VALUE);
+		logger.recordEvent(2, Long.MAX_VALUE);
+		logger.recordEvent(3, (byte)-12);
+		logger.recordEvent(4, (short)345);
+		logger.recordEvent(5, 'A');
+		logger.recordEvent(6, true);
+		logger.recordEvent(7, 0.1 + 0.2);
+		logger.recordEvent(8, Double.NEGATIVE_INFINITY);
+		logger.recordEvent(9, 1.0E-10f);
+		logger.recordEvent(10, Float.NaN);
+		logger.recordEvent(11, (Object)null);
+		logger.close();
+
+		int thread = ThreadId.get();
+		String[] values = { Integer.toString(Integer.MIN_VALUE), Long.toString(Long.MIN_VALUE), Long.toString(Long.MAX_VALUE),
+				Byte.toString((byte)-12), Short.toString((short)345), Integer.toString('A'), Boolean.toString(true),
+				Double.toString(0.1 + 0.2), Double.toString(Double.NEGATIVE_INFINITY), Float.toString(1.0E-10f),
+				Float.toString(Float.NaN), "0" };
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), "log-00001.txt").toPath());
+		Assert.assertEquals(values.length + 1, lines.size());
+		Assert.assertEquals("Seqnum,DataId,ThreadId,Value", lines.get(0));
+		for (int i=0; i<values.length; i++) {
+			Assert.assertEquals(i + "," + i + "," + thread + "," + values[i], lines.get(i + 1));
+		}
+	}
+
+	@Test
+	public void testTimestamp() throws IOException {
+		TextStreamLogger logger = new TextStreamLogger(new StringLogger(), folder.getRoot(), false, ExceptionRecording.Disabled, true);
+		long before = System.currentTimeMillis();
+		for (int i=0; i<100000; i++) {
+			logger.recordEvent(i, i);
+		}
+		long after = System.currentTimeMillis();
+		logger.close();
+
+		int thread = ThreadId.get();
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), "log-00001.txt").toPath());
+		Assert.assertEquals(100001, lines.size());
+		Assert.assertEquals("Seqnum,DataId,ThreadId,Value,Timestamp", lines.get(0));
+		for (int i=0; i<100000; i++) {
+			String[] columns = lines.get(i + 1).split(",");
+			Assert.assertEquals(5, columns.length);
+			Assert.assertEquals(Integer.toString(i), columns[0]);
+			Assert.assertEquals(Integer.toString(i), columns[1]);
+			Assert.assertEquals(Integer.toString(thread), columns[2]);
+			Assert.assertEquals(Integer.toString(i), columns[3]);
+			long t = Long.parseLong(columns[4]);
+			Assert.assertTrue(before <= t && t <= after);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package selogger.logging.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import selogger.logging.io.FilterLoggerTest.StringLogger;
+
+public class CoarseClockTest {
+
+	/**
+	 * A temporary folder for timeline files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testClock() throws InterruptedException {
+		long before = System.currentTimeMillis();
+		CoarseClock clock = new CoarseClock(100000);
+		Assert.assertEquals(100000, clock.getResolution());
+		long t1 = clock.now();
+		Thread.sleep(50);
+		long t2 = clock.now();
+		clock.close();
+		long after = System.currentTimeMillis();
+		Assert.assertTrue(t1 < t2);
+		Assert.assertTrue(before <= clock.nowMillis() && clock.nowMillis() <= after);
+
+		// The resolution is limited
+		clock = new CoarseClock(1);
+		Assert.assertEquals(1000, clock.getResolution());
+		clock.close();
+	}
+
+	@Test
+	public void testTimeline() throws IOException, InterruptedException {
+		final AtomicLong counter = new AtomicLong();
+		File f = new File(folder.getRoot(), Timeline.FILENAME);
+		CoarseClock clock = new CoarseClock(CoarseClock.DEFAULT_RESOLUTION);
+		clock.addTimeline(new Timeline(f, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return counter.get();
+			}
+		}, new StringLogger()));
+		for (int i=0; i<5; i++) {
+			counter.addAndGet(100);
+			Thread.sleep(20);
+		}
+		clock.close();
+
+		List<String> lines = Files.readAllLines(f.toPath());
+		Assert.assertEquals("Count,Timestamp", lines.get(0));
+		Assert.assertTrue(lines.size() >= 2);
+		long lastCount = -1;
+		long lastTime = 0;
+		for (int i=1; i<lines.size(); i++) {
+			String[] columns = lines.get(i).split(",");
+			long count = Long.parseLong(columns[0]);
+			long time = Long.parseLong(columns[1]);
+			// A line is written only when the count is changed
+			Assert.assertTrue(lastCount < count);
+			Assert.assertTrue(lastTime < time);
+			lastCount = count;
+			lastTime = time;
+		}
+		Assert.assertEquals(500, lastCount);
+	}
+
+	@Test
+	public void testTimelineInterval() throws IOException {
+		final AtomicLong counter = new AtomicLong();
+		File f = new File(folder.getRoot(), Timeline.FILENAME);
+		Timeline timeline = new Timeline(f, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return counter.get();
+			}
+		}, 1000, new StringLogger());
+		// A line is written only after the interval
+		for (int t=0; t<3000; t+=100) {
+			counter.incrementAndGet();
+			timeline.sample(t);
+		}
+		counter.incrementAndGet();
+		timeline.close();
+
+		List<String> lines = Files.readAllLines(f.toPath());
+		Assert.assertEquals(5, lines.size());
+		Assert.assertEquals("1,0", lines.get(1));
+		Assert.assertEquals("11,1000", lines.get(2));
+		Assert.assertEquals("21,2000", lines.get(3));
+		// The last number is written with the latest time when the timeline is closed
+		Assert.assertEquals("31,2900", lines.get(4));
+	}
+}
@@ -0,0 +1,115 @@
+package selogger.logging.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import selogger.logging.util.ObjectIdFile.ExceptionRecording;
+
+public class ExceptionContentFileTest {
+
+	/**
+	 * A temporary folder for exception files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return exceptions created at the same location.
+	 */
+	private List<Throwable> createExceptions(int count) {
+		ArrayList<Throwable> exceptions = new ArrayList<>();
+		for (int i=0; i<count; i++) {
+			exceptions.add(new IllegalStateException("e" + i));
+		}
+		return exceptions;
+	}
+
+	@Test
+	public void testDeduplication() throws IOException {
+		ExceptionContentFile file = new ExceptionContentFile(folder.getRoot(), ExceptionRecording.MessageAndStackTrace);
+		List<Throwable> exceptions = createExceptions(3);
+		Throwable another = new RuntimeException("another");
+		for (int i=0; i<exceptions.size(); i++) {
+			file.write(i + 1, exceptions.get(i), 0, new long[0]);
+		}
+		file.write(4, another, 1, new long[] {2, 3});
+		file.close();
+
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), "LOG$Exceptions00001.txt").toPath());
+		int frames = exceptions.get(0).getStackTrace().length;
+		int anotherFrames = another.getStackTrace().length;
+		Assert.assertEquals(2 + frames + 2 + 1 + 2 + 1 + 2 + anotherFrames, lines.size());
+		Assert.assertEquals("1,M,e0", lines.get(0));
+		Assert.assertEquals("1,CS,0", lines.get(1));
+		StackTraceElement top = exceptions.get(0).getStackTrace()[0];
+		Assert.assertEquals("1,S,F," + top.getClassName() + "," + top.getMethodName() + "," + top.getFileName() + "," + top.getLineNumber(), lines.get(2));
+
+		// The same trace is written only once
+		int index = 2 + frames;
+		Assert.assertEquals("2,M,e1", lines.get(index));
+		Assert.assertEquals("2,CS,0", lines.get(index + 1));
+		Assert.assertEquals("2,ST,1", lines.get(index + 2));
+		Assert.assertEquals("3,M,e2", lines.get(index + 3));
+		Assert.assertEquals("3,ST,1", lines.get(index + 5));
+
+		// A different trace is written
+		index += 6;
+		Assert.assertEquals("4,M,another", lines.get(index));
+		Assert.assertEquals("4,CS,1,2,3", lines.get(index + 1));
+		Assert.assertTrue(lines.get(index + 2).startsWith("4,S,"));
+	}
+
+	@Test
+	public void testBackgroundThread() throws IOException {
+		final ArrayList<String> threads = new ArrayList<>();
+		final String[] message = { "e1" };
+		Throwable t = new IllegalStateException() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public String getMessage() {
+				return message[0];
+			}
+			@Override
+			public synchronized StackTraceElement[] getStackTrace() {
+				threads.add(Thread.currentThread().getName());
+				return super.getStackTrace();
+			}
+		};
+		ExceptionContentFile file = new ExceptionContentFile(folder.getRoot(), ExceptionRecording.MessageAndStackTrace);
+		file.write(1, t, 0, new long[0]);
+		message[0] = "e2";
+		file.close();
+		// The message and the stack trace are obtained by the caller thread
+		Assert.assertEquals(1, threads.size());
+		Assert.assertEquals(Thread.currentThread().getName(), threads.get(0));
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), "LOG$Exceptions00001.txt").toPath());
+		Assert.assertEquals("1,M,e1", lines.get(0));
+
+		// An exception that cannot be passed to the thread is counted
+		Assert.assertEquals(0, file.getDroppedCount());
+		file.write(2, t, 0, new long[0]);
+		Assert.assertEquals(1, file.getDroppedCount());
+	}
+
+	@Test
+	public void testMessage() throws IOException {
+		ExceptionContentFile file = new ExceptionContentFile(folder.getRoot(), ExceptionRecording.Message);
+		for (Throwable t: createExceptions(2)) {
+			file.write(1, t, 0, new long[0]);
+		}
+		file.close();
+
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), "LOG$Exceptions00001.txt").toPath());
+		Assert.assertEquals(2, lines.size());
+		Assert.assertEquals("1,M,e0", lines.get(0));
+		Assert.assertEquals("1,M,e1", lines.get(1));
+	}
+}
@@ -0,0 +1,73 @@
+package selogger.logging.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StringContentFileTest {
+
+	/**
+	 * A temporary folder for string files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> readLines() throws IOException {
+		return Files.readAllLines(new File(folder.getRoot(), "LOG$String00001.txt").toPath());
+	}
+
+	@Test
+	public void testDefault() throws IOException {
+		StringContentFile file = new StringContentFile(folder.getRoot());
+		file.write(1, "key");
+		file.write(2, new String("key"));
+		file.write(3, "a\"b");
+		file.close();
+
+		List<String> lines = readLines();
+		Assert.assertEquals(3, lines.size());
+		Assert.assertEquals("1,3,\"key\"", lines.get(0));
+		Assert.assertEquals("2,3,\"key\"", lines.get(1));
+		Assert.assertEquals("3,3,\"a\\\"b\"", lines.get(2));
+	}
+
+	@Test
+	public void testDeduplication() throws IOException {
+		StringContentFile file = new StringContentFile(folder.getRoot());
+		file.setDeduplication(true);
+		file.write(1, "key");
+		file.write(2, new String("key"));
+		file.write(3, "value");
+		file.write(4, new String("key"));
+		file.close();
+
+		List<String> lines = readLines();
+		Assert.assertEquals(4, lines.size());
+		Assert.assertEquals("1,3,\"key\"", lines.get(0));
+		Assert.assertEquals("2,3,=1", lines.get(1));
+		Assert.assertEquals("3,5,\"value\"", lines.get(2));
+		Assert.assertEquals("4,3,=1", lines.get(3));
+	}
+
+	@Test
+	public void testMaxLength() throws IOException {
+		StringContentFile file = new StringContentFile(folder.getRoot());
+		file.setMaxLength(4);
+		file.write(1, "abcdefg");
+		file.write(2, "abc");
+		// A surrogate pair is not split
+		file.write(3, "abc\uD83D\uDE00");
+		file.close();
+
+		List<String> lines = readLines();
+		Assert.assertEquals("1,7,\"abcd\"", lines.get(0));
+		Assert.assertEquals("2,3,\"abc\"", lines.get(1));
+		Assert.assertEquals("3,5,\"abc\"", lines.get(2));
+	}
+}
@@ -0,0 +1,39 @@
+package selogger.logging.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadContextTest {
+
+	@Test
+	public void testSlots() throws InterruptedException {
+		final int slot = ThreadContext.newSlot();
+		final int slot2 = ThreadContext.newSlot();
+		Assert.assertNotEquals(slot, slot2);
+
+		ThreadContext ctx = ThreadContext.get();
+		Assert.assertSame(ctx, ThreadContext.get());
+		Assert.assertEquals(ThreadId.get(), ctx.getThreadId());
+		Assert.assertNull(ctx.get(slot));
+		ctx.set(slot, "main");
+		Assert.assertEquals("main", ctx.get(slot));
+		Assert.assertNull(ctx.get(slot2));
+
+		// Another thread has its own ID and slots
+		final Object[] result = new Object[2];
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ThreadContext other = ThreadContext.get();
+				result[0] = other.getThreadId();
+				result[1] = other.get(slot);
+			}
+		});
+		t.start();
+		t.join();
+		Assert.assertNotEquals(ctx.getThreadId(), result[0]);
+		Assert.assertNull(result[1]);
+		Assert.assertEquals("main", ctx.get(slot));
+	}
+
+}
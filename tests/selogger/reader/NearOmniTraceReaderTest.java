@@ -0,0 +1,94 @@
+package selogger.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import selogger.EventType;
+import selogger.logging.io.LatestEventLogger;
+import selogger.logging.io.LatestEventLogger.ObjectRecordingStrategy;
+import selogger.logging.io.NearOmniBinaryWriter;
+import selogger.logging.util.ThreadId;
+import selogger.weaver.DataInfo;
+import selogger.weaver.MethodInfo;
+import selogger.weaver.method.Descriptor;
+
+
+public class NearOmniTraceReaderTest {
+
+	@Test
+	public void testReadBinaryTrace() throws IOException {
+		File traceFile = File.createTempFile("trace", ".bin");
+		try {
+			LatestEventLogger log = new LatestEventLogger(traceFile, 4, ObjectRecordingStrategy.Strong, true, null);
+			log.setOutputBinary(true);
+			DataInfo d1 = new DataInfo(0, 0, 0, 10, 1, EventType.METHOD_ENTRY, Descriptor.Void, null);
+			DataInfo d2 = new DataInfo(0, 0, 1, 11, 2, EventType.METHOD_NORMAL_EXIT, Descriptor.Double, null);
+			DataInfo d3 = new DataInfo(0, 0, 2, 12, 3, EventType.METHOD_NORMAL_EXIT, Descriptor.Object, null);
+			DataInfo d4 = new DataInfo(0, 0, 3, 13, 4, EventType.METHOD_NORMAL_EXIT, Descriptor.Integer, null);
+			MethodInfo m = new MethodInfo(0, 0, "myClass", "myMethod", "()D", 0, "myClass.java", "0123456789abcdef", null, null);
+			d1.setMethodInfo(m);
+			d2.setMethodInfo(m);
+			d3.setMethodInfo(m);
+			d4.setMethodInfo(m);
+			log.onCreated(Arrays.asList(d1, d2, d3, d4));
+
+			log.recordEvent(0, 0);
+			for (int i=1; i<=6; i++) {
+				log.recordEvent(1, i * 0.5);
+			}
+			log.recordEvent(2, "abc");
+			log.recordEvent(2, (Object)null);
+			// dataId=3 is not recorded
+			log.close();
+
+			NearOmniTraceReader reader = new NearOmniTraceReader(traceFile);
+			Assert.assertEquals(4, reader.getBufferSize());
+			Assert.assertEquals(3, reader.getLocationCount());
+			Assert.assertEquals(-1, reader.findLocation(3));
+
+			int loc = reader.findLocation(1);
+			Assert.assertEquals(1, reader.getDataId(loc));
+			Assert.assertEquals("myClass", reader.getClassName(loc));
+			Assert.assertEquals("myMethod", reader.getMethodName(loc));
+			Assert.assertEquals("METHOD_NORMAL_EXIT", reader.getEventType(loc));
+			Assert.assertEquals("double", reader.getValueType(loc));
+			Assert.assertEquals(11, reader.getLine(loc));
+			Assert.assertEquals(NearOmniBinaryWriter.KIND_DOUBLE, reader.getValueKind(loc));
+			Assert.assertEquals(6, reader.getFrequency(loc));
+			Assert.assertEquals(4, reader.getRecordCount(loc));
+			for (int i=0; i<4; i++) {
+				Assert.assertEquals((i+3) * 0.5, reader.getDoubleValue(loc, i), 0);
+				Assert.assertEquals(ThreadId.get(), reader.getThreadId(loc, i));
+				if (i > 0) Assert.assertTrue(reader.getSeqnum(loc, i-1) < reader.getSeqnum(loc, i));
+			}
+
+			loc = reader.findLocation(2);
+			Assert.assertEquals(NearOmniBinaryWriter.KIND_OBJECT, reader.getValueKind(loc));
+			Assert.assertEquals(2, reader.getRecordCount(loc));
+			Assert.assertEquals("java.lang.String", reader.getObjectType(loc, 0));
+			Assert.assertEquals("abc", reader.getStringContent(loc, 0));
+			Assert.assertEquals(0, reader.getLongValue(loc, 1));
+			Assert.assertNull(reader.getObjectType(loc, 1));
+			Assert.assertNull(reader.getStringContent(loc, 1));
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testInvalidFile() throws IOException {
+		File f = File.createTempFile("trace", ".json");
+		try {
+			Files.write(f.toPath(), "{ \"format\":\"nearomni\", \"events\": []}".getBytes(StandardCharsets.UTF_8));
+			new NearOmniTraceReader(f);
+		} finally {
+			f.delete();
+		}
+	}
+}
@@ -89,6 +89,97 @@ public class ObjectIdMapTest {
 
 	}
 	
+	@Test
+	public void testConcurrentObjectIdMap() throws InterruptedException {
+		final ObjectIdMap map = new ObjectIdMap(16);
+		final Object[] objects = new Object[20000];
+		for (int i=0; i<objects.length; ++i) {
+			objects[i] = new Object();
+		}
+		
+		// Threads register the same objects in different orders
+		final long[][] ids = new long[4][objects.length];
+		Thread[] threads = new Thread[ids.length];
+		for (int t=0; t<threads.length; ++t) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i=0; i<objects.length; ++i) {
+						int index = (thread % 2 == 0) ? i : objects.length - 1 - i;
+						ids[thread][index] = map.getId(objects[index]);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		
+		// Each object has exactly one ID, and IDs are not shared
+		Assert.assertEquals(objects.length, map.size());
+		boolean[] used = new boolean[objects.length + 1];
+		for (int i=0; i<objects.length; ++i) {
+			long id = map.getId(objects[i]);
+			for (int t=0; t<ids.length; ++t) {
+				Assert.assertEquals(id, ids[t][i]);
+			}
+			Assert.assertFalse(used[(int)id]);
+			used[(int)id] = true;
+		}
+	}
+	
+	@Test
+	public void testPurge() throws InterruptedException {
+		ObjectIdMap map = new ObjectIdMap(100);
+		ArrayList<Object> live = new ArrayList<>();
+		for (int i=0; i<100; ++i) {
+			Object o = new Object();
+			live.add(o);
+			map.getId(o);
+		}
+		// Register short-lived objects
+		for (int round=0; round<50; ++round) {
+			for (int i=0; i<1000; ++i) {
+				map.getId(new Object());
+			}
+			System.gc();
+			// Let the JVM enqueue the cleared references
+			Thread.sleep(10);
+		}
+		for (int i=0; i<live.size(); ++i) {
+			Assert.assertEquals(i+1, map.getId(live.get(i)));
+		}
+		// The capacity depends on live objects rather than all registered objects
+		Assert.assertTrue(map.capacity() <= 8192);
+		Assert.assertTrue(map.size() <= 1100);
+	}
+	
+	@Test
+	public void testCache() {
+		ObjectIdMap map = new ObjectIdMap(100);
+		Object o = new Object();
+		Assert.assertEquals(1, map.getId(o));
+		Assert.assertEquals(1, map.getId(o));
+		Assert.assertEquals(1, map.getId(o));
+		Assert.assertEquals(2, map.getCacheHits());
+		Assert.assertEquals(1, map.getCacheMisses());
+		Assert.assertTrue(map.getCacheStatistics().contains("hit rate=66.7%"));
+
+		// Objects sharing an entry of the cache have their own IDs
+		ArrayList<Object> objects = new ArrayList<>();
+		for (int i=0; i<100; ++i) {
+			objects.add(new Object());
+		}
+		for (int round=0; round<3; ++round) {
+			for (int i=0; i<objects.size(); ++i) {
+				Assert.assertEquals(i+2, map.getId(objects.get(i)));
+			}
+		}
+		Assert.assertEquals(1, map.getId(o));
+	}
+	
 	@Test
 	public void testNull() {
 		ObjectIdMap map = new ObjectIdMap(10);
@@ -7,6 +7,8 @@ import java.util.Date;
 
 import org.junit.Test;
 
+import selogger.logging.io.AsyncEventLogger;
+import selogger.logging.io.LatestEventLogger.ObjectRecordingStrategy;
 import selogger.weaver.RuntimeWeaver.Mode;
 
 
@@ -19,6 +21,23 @@ public class RuntimeWeaverParametersTest {
 		assertTrue(params.isDumpClassEnabled());
 		assertEquals("selogger-output-1", params.getOutputDirname());
 		assertEquals(Mode.BinaryStream, params.getMode());
+		assertFalse(params.isMappedOutputEnabled());
+		params = new RuntimeWeaverParameters("format=omnibinary,mmap=true");
+		assertTrue(params.isMappedOutputEnabled());
+		assertFalse(params.isCompactEncodingEnabled());
+		params = new RuntimeWeaverParameters("format=omnibinary,encoding=compact");
+		assertTrue(params.isCompactEncodingEnabled());
+		assertFalse(params.isCompressedEncodingEnabled());
+		params = new RuntimeWeaverParameters("format=omnibinary,encoding=deflate");
+		assertFalse(params.isCompactEncodingEnabled());
+		assertTrue(params.isCompressedEncodingEnabled());
+		assertNull(params.getAsyncPolicy());
+		params = new RuntimeWeaverParameters("format=omnibinary,async=drop,asyncsize=1024");
+		assertEquals(AsyncEventLogger.Policy.Drop, params.getAsyncPolicy());
+		assertEquals(1024, params.getAsyncBufferSize());
+		assertFalse(params.isThreadFilesEnabled());
+		params = new RuntimeWeaverParameters("format=omnibinary,files=thread");
+		assertTrue(params.isThreadFilesEnabled());
 		
 
 		String today = new SimpleDateFormat("yyyyMMdd").format(new Date());
@@ -36,4 +55,83 @@ public class RuntimeWeaverParametersTest {
 		assertEquals(today, params.getOutputDirname());
 	}
 
+	@Test
+	public void testStorageArgs() {
+		RuntimeWeaverParameters params = new RuntimeWeaverParameters("format=nearomni");
+		assertFalse(params.isOffHeapStorageEnabled());
+		assertEquals(0, params.getMemoryBudget());
+
+		params = new RuntimeWeaverParameters("format=nearomni,storage=offheap,memory=512m");
+		assertTrue(params.isOffHeapStorageEnabled());
+		assertEquals(512L * 1024 * 1024, params.getMemoryBudget());
+		assertTrue(params.getWarnings().isEmpty());
+
+		// Options not supported by the off-heap storage are reported and disabled
+		params = new RuntimeWeaverParameters("format=nearomni,storage=offheap,keepobj=strong,buffer=thread,snapshot=30s");
+		assertEquals(3, params.getWarnings().size());
+		assertEquals(ObjectRecordingStrategy.Id, params.getObjectRecordingStrategy());
+		assertFalse(params.isThreadLocalBufferEnabled());
+		assertEquals(0, params.getSnapshotInterval());
+		params = new RuntimeWeaverParameters("format=nearomni,storage=offheap,keepobj=id");
+		assertTrue(params.getWarnings().isEmpty());
+
+		params = new RuntimeWeaverParameters("memory=2g");
+		assertEquals(2L * 1024 * 1024 * 1024, params.getMemoryBudget());
+
+		assertEquals(0, params.getSnapshotInterval());
+		params = new RuntimeWeaverParameters("snapshot=30s");
+		assertEquals(30000, params.getSnapshotInterval());
+		params = new RuntimeWeaverParameters("snapshot=5m");
+		assertEquals(300000, params.getSnapshotInterval());
+		params = new RuntimeWeaverParameters("snapshot=500ms");
+		assertEquals(500, params.getSnapshotInterval());
+
+		params = new RuntimeWeaverParameters("format=nearomni,binary=true");
+		assertTrue(params.isOutputBinaryEnabled());
+		assertTrue(params.getTraceFile().getName().endsWith(".bin"));
+		params = new RuntimeWeaverParameters("format=freq,binary=true");
+		assertFalse(params.isOutputBinaryEnabled());
+	}
+
+	@Test
+	public void testTimeArgs() {
+		RuntimeWeaverParameters params = new RuntimeWeaverParameters("format=omni");
+		assertFalse(params.isRecordingTime());
+		assertEquals(1000000, params.getTimeResolution());
+		params = new RuntimeWeaverParameters("format=omni,timestamp=true,timeres=100us");
+		assertTrue(params.isRecordingTime());
+		assertEquals(100000, params.getTimeResolution());
+		params = new RuntimeWeaverParameters("timeres=5");
+		assertEquals(5000000, params.getTimeResolution());
+		params = new RuntimeWeaverParameters("timeres=2s");
+		assertEquals(2000000000L, params.getTimeResolution());
+		params = new RuntimeWeaverParameters("timeres=500ns");
+		assertEquals(500, params.getTimeResolution());
+	}
+
+	@Test
+	public void testStringArgs() {
+		RuntimeWeaverParameters params = new RuntimeWeaverParameters("format=omni");
+		assertFalse(params.isStringDedupEnabled());
+		assertEquals(0, params.getStringLimit());
+		params = new RuntimeWeaverParameters("format=omni,stringdedup=true,stringlimit=1000");
+		assertTrue(params.isStringDedupEnabled());
+		assertEquals(1000, params.getStringLimit());
+	}
+
+	@Test
+	public void testSampleArgs() {
+		RuntimeWeaverParameters params = new RuntimeWeaverParameters("format=omni");
+		assertFalse(params.isSamplingEnabled());
+		params = new RuntimeWeaverParameters("format=omni,sample=100:10");
+		assertTrue(params.isSamplingEnabled());
+		assertEquals(100, params.getSampleFirst());
+		assertEquals(10, params.getSampleInterval());
+		assertFalse(params.getLoggingTargetOptions().containsKey("sample"));
+		params = new RuntimeWeaverParameters("format=omni,sample=0:50:my/Class#get.*");
+		assertEquals(0, params.getSampleFirst());
+		assertEquals(50, params.getSampleInterval());
+		assertTrue(params.getLoggingTargetOptions().containsKey("sample"));
+	}
+
 }